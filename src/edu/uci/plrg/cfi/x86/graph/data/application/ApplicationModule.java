@@ -1,5 +1,7 @@
 package edu.uci.plrg.cfi.x86.graph.data.application;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,6 +25,19 @@ public class ApplicationModule {
 
 	private static final Pattern FILENAME_PATTERN = Pattern.compile("^(.*)-([^\\-]+-[^\\-]+-[^\\-]+)$");
 
+	/* must be initialized before the module constants below */
+	private static final Map<String, Integer> ORDINALS_BY_NAME = new HashMap<String, Integer>();
+
+	private static synchronized int establishOrdinal(Class<?> moduleClass, String name) {
+		String qualifiedName = moduleClass.getName() + ':' + name;
+		Integer ordinal = ORDINALS_BY_NAME.get(qualifiedName);
+		if (ordinal == null) {
+			ordinal = ORDINALS_BY_NAME.size();
+			ORDINALS_BY_NAME.put(qualifiedName, ordinal);
+		}
+		return ordinal;
+	}
+
 	public static final ApplicationModule SYSTEM_MODULE = new ApplicationModule(SYSTEM_MODULE_NAME, SYSTEM_MODULE_NAME,
 			false);
 	public static final ApplicationModule ANONYMOUS_MODULE = new ApplicationModule(ANONYMOUS_MODULE_NAME,
@@ -36,6 +51,8 @@ public class ApplicationModule {
 	public final String filename;
 	public final String version;
 	public final boolean isAnonymous;
+	/* dense number shared by all equal modules (same class and name) in this VM, for packed node keys */
+	public final int ordinal;
 	public final HashLabel anonymousEntryHash;
 	public final HashLabel anonymousExitHash;
 	public final HashLabel anonymousGencodeHash;
@@ -49,6 +66,7 @@ public class ApplicationModule {
 		this.name = name;
 		this.id = id;
 		this.isAnonymous = isAnonymous;
+		this.ordinal = establishOrdinal(getClass(), name);
 
 		Matcher matcher = FILENAME_PATTERN.matcher(name);
 		if (matcher.matches()) {
@@ -78,6 +96,7 @@ public class ApplicationModule {
 		this.filename = original.filename;
 		this.version = original.version;
 		this.isAnonymous = original.isAnonymous;
+		this.ordinal = establishOrdinal(getClass(), name);
 		this.anonymousEntryHash = original.anonymousEntryHash;
 		this.anonymousExitHash = original.anonymousExitHash;
 		this.anonymousGencodeHash = original.anonymousGencodeHash;
@@ -1,12 +1,12 @@
 package edu.uci.plrg.cfi.x86.graph.data.application;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.uci.plrg.cfi.common.config.CrowdSafeConfiguration;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
@@ -32,15 +32,15 @@ public class ApplicationModuleSet {
 	private static ApplicationModuleSet INSTANCE;
 
 	public final File configDir;
-	public final Map<String, ApplicationModule> modulesByName = new HashMap<String, ApplicationModule>();
-	public final Map<String, ApplicationModule> modulesByFilename = new HashMap<String, ApplicationModule>();
+	public final Map<String, ApplicationModule> modulesByName = new ConcurrentHashMap<String, ApplicationModule>();
+	public final Map<String, ApplicationModule> modulesByFilename = new ConcurrentHashMap<String, ApplicationModule>();
 	// public final Map<Long, ApplicationModule> unitsByAnonymousEntryHash = new HashMap<Long, ApplicationModule>();
 	// public final Map<Long, ApplicationModule> unitsByAnonymousExitHash = new HashMap<Long, ApplicationModule>();
 	// public final Map<Long, ApplicationModule> unitsByInterceptionHash = new HashMap<Long, ApplicationModule>();
 	// public final Map<Long, ApplicationModule> unitsByAnonymousGencodeHash = new HashMap<Long, ApplicationModule>();
 	public final Map<Long, Integer> sysnumsBySyscallHash = new HashMap<Long, Integer>();
 	public final Map<ApplicationModule, ApplicationModule> distributionsByUnit = new HashMap<ApplicationModule, ApplicationModule>();
-	public final Map<Long, ModuleBoundaryNode.HashLabel> crossModuleLabels = new HashMap<Long, ModuleBoundaryNode.HashLabel>();
+	public final Map<Long, ModuleBoundaryNode.HashLabel> crossModuleLabels = new ConcurrentHashMap<Long, ModuleBoundaryNode.HashLabel>();
 
 	private ApplicationModuleSet(File configDir) {
 		this.configDir = configDir;
@@ -86,15 +86,33 @@ public class ApplicationModuleSet {
 	}
 
 	public void loadCrossModuleLabels(InputStream xhashStream) throws IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(xhashStream));
-		try {
-			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-				ModuleBoundaryNode.HashLabel label = new ModuleBoundaryNode.HashLabel(line);
-				crossModuleLabels.put(label.hash, label);
-			}
-		} finally {
-			reader.close();
-		}
+		for (ModuleBoundaryNode.HashLabel label : HashLabelTable.parse(xhashStream))
+			crossModuleLabels.put(label.hash, label);
+	}
+
+	/**
+	 * Load the labels from the compiled table beside <code>xhashFile</code>, which is first built if it is missing or
+	 * out of date.
+	 */
+	public void loadCrossModuleLabels(File xhashFile) throws IOException {
+		for (ModuleBoundaryNode.HashLabel label : HashLabelTable.load(xhashFile))
+			crossModuleLabels.put(label.hash, label);
+	}
+
+	/**
+	 * Load the labels from a compiled table stored in a segment of <code>file</code>, such as the hash label segment of
+	 * a modular trace archive.
+	 */
+	public void loadCrossModuleLabels(File file, long offset, long length) throws IOException {
+		for (ModuleBoundaryNode.HashLabel label : HashLabelTable.load(file, offset, length))
+			crossModuleLabels.put(label.hash, label);
+	}
+
+	/**
+	 * Write the compiled table of the labels in <code>xhashFile</code> to <code>output</code>, which is not closed.
+	 */
+	public void compileCrossModuleLabels(File xhashFile, OutputStream output) throws IOException {
+		HashLabelTable.compile(xhashFile, output);
 	}
 
 	public boolean isFromAnonymous(long crossModuleHash) {
@@ -0,0 +1,318 @@
+package edu.uci.plrg.cfi.x86.graph.data.application;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uci.plrg.cfi.common.log.Log;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
+
+/**
+ * Compiled form of a cross-module hash label file (<code>xhash.tab</code>), which is kept beside the text file as a
+ * parse cache: it is read through a memory mapping and each <code>HashLabel</code> is restored on the heap from its
+ * stored fields, instead of parsing every line of the text file with the <code>HashLabel</code> regex. The table is
+ * rebuilt whenever the size or modification time of the text file no longer matches its header. Each distinct string
+ * is stored once, so module filenames are shared by all the labels that refer to them.
+ *
+ * <pre>
+ * header: magic, text file size, text file modification time, string count, label count
+ * string: int byte count, UTF-8 bytes
+ * label:  long hash, int offset, int label string, int from module string, int to module string, int property bits
+ * </pre>
+ *
+ * All numbers are big-endian, and a string index of -1 stands for null.
+ *
+ * The decoded labels of the most recently loaded tables are cached for the life of the process, keyed by file and
+ * checked against its size and modification time, so that a process which opens many runs of the same program
+ * decodes each table once. A table that fails validation is reported and the text file is parsed instead.
+ */
+class HashLabelTable {
+
+	static final String TABLE_SUFFIX = ".bin";
+
+	private static final long MAGIC = 0x4346495848544231L; // "CFIXHTB1"
+	private static final int HEADER_SIZE = 0x20;
+	private static final int IO_BUFFER_SIZE = 0x10000;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int LABEL_SIZE = 0x1c;
+	private static final int MAX_CACHED_TABLES = 0x10;
+
+	private static class CachedTable {
+		final long fileSize;
+		final long lastModified;
+		final List<ModuleBoundaryNode.HashLabel> labels;
+
+		CachedTable(File file, List<ModuleBoundaryNode.HashLabel> labels) {
+			fileSize = file.length();
+			lastModified = file.lastModified();
+			this.labels = Collections.unmodifiableList(labels);
+		}
+
+		boolean isCurrent(File file) {
+			return (file.length() == fileSize) && (file.lastModified() == lastModified);
+		}
+	}
+
+	private static final Map<String, CachedTable> CACHED_TABLES = new LinkedHashMap<String, CachedTable>(0x20, 0.75f,
+			true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedTable> eldest) {
+			return size() > MAX_CACHED_TABLES;
+		}
+	};
+
+	static List<ModuleBoundaryNode.HashLabel> load(File textFile) throws IOException {
+		String key = textFile.getAbsolutePath();
+		List<ModuleBoundaryNode.HashLabel> labels = getCachedTable(key, textFile);
+		if (labels != null)
+			return labels;
+
+		/* the cache entry is checked against the text file, because the table beside it may be rebuilt */
+		long size = textFile.length();
+		long lastModified = textFile.lastModified();
+		File tableFile = new File(textFile.getPath() + TABLE_SUFFIX);
+		if (tableFile.exists()) {
+			try {
+				labels = read(tableFile, textFile);
+			} catch (IOException e) {
+				Log.log("Warning: failed to read the hash label table %s (%s). Parsing %s instead.",
+						tableFile.getAbsolutePath(), e.getMessage(), textFile.getName());
+			}
+		}
+
+		if (labels == null) {
+			labels = parse(Files.newInputStream(textFile.toPath()));
+			try {
+				write(tableFile, size, lastModified, labels);
+			} catch (IOException e) {
+				Log.log("Warning: failed to write the hash label table %s: %s", tableFile.getAbsolutePath(),
+						e.getMessage());
+			}
+		}
+		return putCachedTable(key, textFile, labels);
+	}
+
+	/**
+	 * Load a table that was written by <code>compile()</code> into the segment of <code>file</code> at
+	 * <code>offset</code>.
+	 */
+	static List<ModuleBoundaryNode.HashLabel> load(File file, long offset, long length) throws IOException {
+		String key = file.getAbsolutePath() + "@" + offset;
+		List<ModuleBoundaryNode.HashLabel> labels = getCachedTable(key, file);
+		if (labels != null)
+			return labels;
+
+		ByteBuffer buffer;
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+		} finally {
+			input.close();
+		}
+		return putCachedTable(key, file, read(buffer));
+	}
+
+	static List<ModuleBoundaryNode.HashLabel> parse(InputStream textStream) throws IOException {
+		List<ModuleBoundaryNode.HashLabel> labels = new ArrayList<ModuleBoundaryNode.HashLabel>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(textStream));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+				labels.add(new ModuleBoundaryNode.HashLabel(line));
+		} finally {
+			reader.close();
+		}
+		return labels;
+	}
+
+	/**
+	 * Write the compiled table of <code>textFile</code> to <code>output</code>, which is not closed.
+	 */
+	static void compile(File textFile, OutputStream output) throws IOException {
+		long size = textFile.length();
+		long lastModified = textFile.lastModified();
+		List<ModuleBoundaryNode.HashLabel> labels = parse(Files.newInputStream(textFile.toPath()));
+		DataOutputStream tableOutput = new DataOutputStream(new BufferedOutputStream(output, IO_BUFFER_SIZE));
+		write(tableOutput, size, lastModified, labels);
+		tableOutput.flush();
+	}
+
+	/**
+	 * Read a table that was written by <code>compile()</code>, regardless of the text file it was compiled from.
+	 */
+	private static List<ModuleBoundaryNode.HashLabel> read(ByteBuffer buffer) throws IOException {
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if ((buffer.remaining() < HEADER_SIZE) || (buffer.getLong() != MAGIC))
+			throw new IOException("Not a hash label table");
+		buffer.getLong(); // text file size
+		buffer.getLong(); // text file modification time
+		return readLabels(buffer);
+	}
+
+	/**
+	 * @return null if the table was built from a different version of the text file
+	 */
+	private static List<ModuleBoundaryNode.HashLabel> read(File tableFile, File textFile) throws IOException {
+		ByteBuffer buffer;
+		RandomAccessFile input = new RandomAccessFile(tableFile, "r");
+		try {
+			if (input.length() < HEADER_SIZE)
+				return null;
+			buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, input.length());
+		} finally {
+			input.close();
+		}
+		buffer.order(ByteOrder.BIG_ENDIAN);
+
+		if ((buffer.getLong() != MAGIC) || (buffer.getLong() != textFile.length())
+				|| (buffer.getLong() != textFile.lastModified()))
+			return null;
+		return readLabels(buffer);
+	}
+
+	/**
+	 * Every count and length is checked against the remaining bytes before it is used, so that a corrupt table is
+	 * reported as an <code>IOException</code>.
+	 */
+	private static List<ModuleBoundaryNode.HashLabel> readLabels(ByteBuffer buffer) throws IOException {
+		int stringCount = buffer.getInt();
+		int labelCount = buffer.getInt();
+		if ((stringCount < 0) || (stringCount > (buffer.remaining() / 4)))
+			throw new IOException("Invalid string count " + stringCount);
+		if ((labelCount < 0) || (labelCount > (buffer.remaining() / LABEL_SIZE)))
+			throw new IOException("Invalid label count " + labelCount);
+
+		String strings[] = new String[stringCount];
+		List<ModuleBoundaryNode.HashLabel> labels = new ArrayList<ModuleBoundaryNode.HashLabel>(labelCount);
+		byte bytes[] = new byte[0x100];
+		for (int i = 0; i < strings.length; i++) {
+			if (buffer.remaining() < 4)
+				throw new IOException("The table is truncated in string #" + i);
+			int length = buffer.getInt();
+			if ((length < 0) || (length > buffer.remaining()))
+				throw new IOException(String.format("Invalid length %d of string #%d", length, i));
+			if (length > bytes.length)
+				bytes = new byte[length];
+			buffer.get(bytes, 0, length);
+			strings[i] = new String(bytes, 0, length, UTF_8);
+		}
+
+		if (buffer.remaining() != ((long) labelCount * LABEL_SIZE))
+			throw new IOException(String.format("Expected %d labels in %d bytes", labelCount, buffer.remaining()));
+		while (buffer.hasRemaining()) {
+			long hash = buffer.getLong();
+			int offset = buffer.getInt();
+			String label = getString(strings, buffer.getInt());
+			String fromModuleFilename = getString(strings, buffer.getInt());
+			String toModuleFilename = getString(strings, buffer.getInt());
+			labels.add(ModuleBoundaryNode.HashLabel.restore(label, hash, offset, fromModuleFilename,
+					toModuleFilename, buffer.getInt()));
+		}
+		return labels;
+	}
+
+	private static List<ModuleBoundaryNode.HashLabel> getCachedTable(String key, File file) {
+		synchronized (CACHED_TABLES) {
+			CachedTable table = CACHED_TABLES.get(key);
+			return ((table == null) || !table.isCurrent(file)) ? null : table.labels;
+		}
+	}
+
+	private static List<ModuleBoundaryNode.HashLabel> putCachedTable(String key, File file,
+			List<ModuleBoundaryNode.HashLabel> labels) {
+		CachedTable table = new CachedTable(file, labels);
+		synchronized (CACHED_TABLES) {
+			CACHED_TABLES.put(key, table);
+		}
+		return table.labels;
+	}
+
+	private static String getString(String strings[], int index) throws IOException {
+		if (index < 0)
+			return null;
+		if (index >= strings.length)
+			throw new IOException("Reference to unknown string #" + index);
+		return strings[index];
+	}
+
+	private static void write(File tableFile, long textFileSize, long textFileLastModified,
+			List<ModuleBoundaryNode.HashLabel> labels) throws IOException {
+		/* unique to this writer, since several processes may compile the same table at once */
+		File partialFile = File.createTempFile(tableFile.getName() + ".", ".partial", tableFile.getAbsoluteFile()
+				.getParentFile());
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partialFile),
+				IO_BUFFER_SIZE));
+		boolean isComplete = false;
+		try {
+			write(output, textFileSize, textFileLastModified, labels);
+			isComplete = true;
+		} finally {
+			output.close();
+			if (!isComplete)
+				partialFile.delete();
+		}
+
+		try {
+			Files.move(partialFile.toPath(), tableFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			partialFile.delete();
+			throw e;
+		}
+	}
+
+	private static void write(DataOutputStream output, long textFileSize, long textFileLastModified,
+			List<ModuleBoundaryNode.HashLabel> labels) throws IOException {
+		Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		for (ModuleBoundaryNode.HashLabel label : labels) {
+			for (String string : new String[] { label.label, label.fromModuleFilename, label.toModuleFilename }) {
+				if ((string != null) && !stringIndexes.containsKey(string)) {
+					stringIndexes.put(string, strings.size());
+					strings.add(string);
+				}
+			}
+		}
+
+		output.writeLong(MAGIC);
+		output.writeLong(textFileSize);
+		output.writeLong(textFileLastModified);
+		output.writeInt(strings.size());
+		output.writeInt(labels.size());
+		for (String string : strings) {
+			byte bytes[] = string.getBytes(UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+		for (ModuleBoundaryNode.HashLabel label : labels) {
+			output.writeLong(label.hash);
+			output.writeInt(label.offset);
+			output.writeInt(getStringIndex(stringIndexes, label.label));
+			output.writeInt(getStringIndex(stringIndexes, label.fromModuleFilename));
+			output.writeInt(getStringIndex(stringIndexes, label.toModuleFilename));
+			output.writeInt(label.getPropertyBits());
+		}
+	}
+
+	private static int getStringIndex(Map<String, Integer> stringIndexes, String string) {
+		return (string == null) ? -1 : stringIndexes.get(string);
+	}
+}
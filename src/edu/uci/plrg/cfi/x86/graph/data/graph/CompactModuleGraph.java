@@ -0,0 +1,275 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only compressed sparse row (CSR) view of a <code>ModuleGraph</code>, made by <code>ModuleGraph.compact()</code>.
+ * Each node has a dense int id, and the edges of all nodes are held in parallel primitive arrays, grouped by node. The
+ * outgoing edges of a node are in the order of <code>Node.getOutgoingEdges()</code>, which groups them by ordinal.
+ * Traversals over the view touch only these arrays, without checking out edge lists or following object pointers.
+ *
+ * The view is a snapshot: changes to the graph after it was made are not reflected. Any edge endpoint that is not a
+ * node of the graph gets an id after all the graph's own nodes, without edges of its own.
+ */
+public class CompactModuleGraph<EdgeEndpointType extends Node<EdgeEndpointType>> {
+
+	public interface EdgeVisitor {
+		void visitEdge(int fromNodeId, int toNodeId, EdgeType type, int ordinal);
+	}
+
+	private static final EdgeType EDGE_TYPES[] = EdgeType.values();
+	private static final MetaNodeType NODE_TYPES[] = MetaNodeType.values();
+
+	private final Object nodes[];
+	private final Map<EdgeEndpointType, Integer> nodeIds;
+	private final int graphNodeCount;
+
+	private final long hashes[];
+	private final byte nodeTypes[];
+
+	/* the outgoing edges of node n are at [outgoingOffsets[n], outgoingOffsets[n + 1]) */
+	private final int outgoingOffsets[];
+	private final int targets[];
+	private final byte outgoingEdgeTypes[];
+	private final byte outgoingOrdinals[];
+
+	private final int incomingOffsets[];
+	private final int sources[];
+	private final byte incomingEdgeTypes[];
+	private final byte incomingOrdinals[];
+
+	CompactModuleGraph(Iterable<EdgeEndpointType> graphNodes) {
+		List<EdgeEndpointType> nodeList = new ArrayList<EdgeEndpointType>();
+		nodeIds = new IdentityHashMap<EdgeEndpointType, Integer>();
+		for (EdgeEndpointType node : graphNodes) {
+			if (!nodeIds.containsKey(node)) {
+				nodeIds.put(node, nodeList.size());
+				nodeList.add(node);
+			}
+		}
+		graphNodeCount = nodeList.size();
+
+		outgoingOffsets = new int[graphNodeCount + 1];
+		incomingOffsets = new int[graphNodeCount + 1];
+		for (int i = 0; i < graphNodeCount; i++) {
+			EdgeEndpointType node = nodeList.get(i);
+			OrdinalEdgeList<EdgeEndpointType> edgeList = node.getOutgoingEdges();
+			try {
+				outgoingOffsets[i + 1] = outgoingOffsets[i] + edgeList.size();
+			} finally {
+				edgeList.release();
+			}
+			edgeList = node.getIncomingEdges();
+			try {
+				incomingOffsets[i + 1] = incomingOffsets[i] + edgeList.size();
+			} finally {
+				edgeList.release();
+			}
+		}
+
+		targets = new int[outgoingOffsets[graphNodeCount]];
+		outgoingEdgeTypes = new byte[targets.length];
+		outgoingOrdinals = new byte[targets.length];
+		sources = new int[incomingOffsets[graphNodeCount]];
+		incomingEdgeTypes = new byte[sources.length];
+		incomingOrdinals = new byte[sources.length];
+		for (int i = 0; i < graphNodeCount; i++) {
+			EdgeEndpointType node = nodeList.get(i);
+			int edgeIndex = outgoingOffsets[i];
+			OrdinalEdgeList<EdgeEndpointType> edgeList = node.getOutgoingEdges();
+			try {
+				for (Edge<EdgeEndpointType> edge : edgeList) {
+					targets[edgeIndex] = establishNodeId(edge.getToNode(), nodeList);
+					outgoingEdgeTypes[edgeIndex] = (byte) edge.getEdgeType().ordinal();
+					outgoingOrdinals[edgeIndex] = (byte) edge.getOrdinal();
+					edgeIndex++;
+				}
+			} finally {
+				edgeList.release();
+			}
+
+			edgeIndex = incomingOffsets[i];
+			edgeList = node.getIncomingEdges();
+			try {
+				for (Edge<EdgeEndpointType> edge : edgeList) {
+					sources[edgeIndex] = establishNodeId(edge.getFromNode(), nodeList);
+					incomingEdgeTypes[edgeIndex] = (byte) edge.getEdgeType().ordinal();
+					incomingOrdinals[edgeIndex] = (byte) edge.getOrdinal();
+					edgeIndex++;
+				}
+			} finally {
+				edgeList.release();
+			}
+		}
+
+		nodes = nodeList.toArray();
+		hashes = new long[nodes.length];
+		nodeTypes = new byte[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			hashes[i] = nodeList.get(i).getHash();
+			nodeTypes[i] = (byte) nodeList.get(i).getType().ordinal();
+		}
+	}
+
+	private int establishNodeId(EdgeEndpointType node, List<EdgeEndpointType> nodeList) {
+		Integer id = nodeIds.get(node);
+		if (id == null) {
+			id = nodeList.size();
+			nodeIds.put(node, id);
+			nodeList.add(node);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the number of ids, including any endpoints outside the graph
+	 */
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return false for an endpoint outside the graph, which has no edges in this view
+	 */
+	public boolean isGraphNode(int nodeId) {
+		return nodeId < graphNodeCount;
+	}
+
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * @return the id of <code>node</code>, or -1 if it is neither in the graph nor an endpoint of one of its edges
+	 */
+	public int getNodeId(EdgeEndpointType node) {
+		Integer id = nodeIds.get(node);
+		return (id == null) ? -1 : id;
+	}
+
+	@SuppressWarnings("unchecked")
+	public EdgeEndpointType getNode(int nodeId) {
+		return (EdgeEndpointType) nodes[nodeId];
+	}
+
+	public long getHash(int nodeId) {
+		return hashes[nodeId];
+	}
+
+	public MetaNodeType getNodeType(int nodeId) {
+		return NODE_TYPES[nodeTypes[nodeId]];
+	}
+
+	/**
+	 * @return the index of the node's first outgoing edge, for the edge accessors
+	 */
+	public int getOutgoingStart(int nodeId) {
+		return (nodeId < graphNodeCount) ? outgoingOffsets[nodeId] : 0;
+	}
+
+	/**
+	 * @return one past the index of the node's last outgoing edge
+	 */
+	public int getOutgoingEnd(int nodeId) {
+		return (nodeId < graphNodeCount) ? outgoingOffsets[nodeId + 1] : 0;
+	}
+
+	public int getOutgoingDegree(int nodeId) {
+		return getOutgoingEnd(nodeId) - getOutgoingStart(nodeId);
+	}
+
+	public int getTarget(int edgeIndex) {
+		return targets[edgeIndex];
+	}
+
+	public EdgeType getEdgeType(int edgeIndex) {
+		return EDGE_TYPES[outgoingEdgeTypes[edgeIndex]];
+	}
+
+	public int getOrdinal(int edgeIndex) {
+		return outgoingOrdinals[edgeIndex] & 0xff;
+	}
+
+	/**
+	 * @return the index of the node's first incoming edge, for the incoming edge accessors
+	 */
+	public int getIncomingStart(int nodeId) {
+		return (nodeId < graphNodeCount) ? incomingOffsets[nodeId] : 0;
+	}
+
+	/**
+	 * @return one past the index of the node's last incoming edge
+	 */
+	public int getIncomingEnd(int nodeId) {
+		return (nodeId < graphNodeCount) ? incomingOffsets[nodeId + 1] : 0;
+	}
+
+	public int getIncomingDegree(int nodeId) {
+		return getIncomingEnd(nodeId) - getIncomingStart(nodeId);
+	}
+
+	public int getSource(int incomingEdgeIndex) {
+		return sources[incomingEdgeIndex];
+	}
+
+	public EdgeType getIncomingEdgeType(int incomingEdgeIndex) {
+		return EDGE_TYPES[incomingEdgeTypes[incomingEdgeIndex]];
+	}
+
+	public int getIncomingOrdinal(int incomingEdgeIndex) {
+		return incomingOrdinals[incomingEdgeIndex] & 0xff;
+	}
+
+	public void forEachOutgoingEdge(int nodeId, EdgeVisitor visitor) {
+		for (int i = getOutgoingStart(nodeId); i < getOutgoingEnd(nodeId); i++)
+			visitor.visitEdge(nodeId, targets[i], EDGE_TYPES[outgoingEdgeTypes[i]], outgoingOrdinals[i] & 0xff);
+	}
+
+	public void forEachIncomingEdge(int nodeId, EdgeVisitor visitor) {
+		for (int i = getIncomingStart(nodeId); i < getIncomingEnd(nodeId); i++)
+			visitor.visitEdge(sources[i], nodeId, EDGE_TYPES[incomingEdgeTypes[i]], incomingOrdinals[i] & 0xff);
+	}
+
+	/**
+	 * Visit every edge of the graph once, in the order of the nodes they leave.
+	 */
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int nodeId = 0; nodeId < graphNodeCount; nodeId++) {
+			for (int i = outgoingOffsets[nodeId]; i < outgoingOffsets[nodeId + 1]; i++)
+				visitor.visitEdge(nodeId, targets[i], EDGE_TYPES[outgoingEdgeTypes[i]], outgoingOrdinals[i] & 0xff);
+		}
+	}
+
+	/**
+	 * Breadth-first search along outgoing edges.
+	 *
+	 * @return the ids of all nodes reachable from <code>rootIds</code>, including the roots
+	 */
+	public BitSet findReachable(int rootIds[]) {
+		BitSet reached = new BitSet(nodes.length);
+		int queue[] = new int[nodes.length];
+		int head = 0, tail = 0;
+		for (int rootId : rootIds) {
+			if (!reached.get(rootId)) {
+				reached.set(rootId);
+				queue[tail++] = rootId;
+			}
+		}
+
+		while (head < tail) {
+			int nodeId = queue[head++];
+			for (int i = getOutgoingStart(nodeId); i < getOutgoingEnd(nodeId); i++) {
+				int targetId = targets[i];
+				if (!reached.get(targetId)) {
+					reached.set(targetId);
+					queue[tail++] = targetId;
+				}
+			}
+		}
+		return reached;
+	}
+}
@@ -8,6 +8,13 @@ import java.util.List;
  * Warning: only the iterator is threadsafe. Concurrent modifications to the list will corrupt the data structure! 
  * 
  * TODO: not sure what happens in a unity merge when one graph instance is being merged to itself.
+ * </pre>
+ * 
+ * The set is built in two phases. While edges are being added, each outgoing edge is appended to a buffer for its
+ * ordinal. <code>freeze()</code> compacts the buffers into one list grouped by ordinal, which the graph builders do when
+ * a graph is complete, so that reads index a single list. Freezing is only an optimization: the edges can be read at
+ * any time, and a set that is not frozen is read directly from its buffers. Adding an outgoing edge to a frozen set
+ * moves its outgoing edges back into buffers.
  */
 public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 
@@ -19,22 +26,30 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 	public static class OutgoingOrdinal {
 		public EdgeType type;
 		private int position;
-		private int size;
+		int size;
+		/* holds the edges of this ordinal while the set is being built, and null once it is frozen */
+		List<Edge<?>> buffer;
 
-		OutgoingOrdinal(int position) {
-			this.position = position;
+		OutgoingOrdinal() {
+			this.position = 0;
 			this.size = 0;
 			this.type = null;
+			this.buffer = new ArrayList<Edge<?>>(ORDINAL_BUFFER_CAPACITY);
 		}
 	}
 
+	private static final int ORDINAL_BUFFER_CAPACITY = 2;
+
 	/**
 	 * Both outgoing and incoming edges are held in this list. The outgoing edges occur first and are indexed by
-	 * outgoingOrdinals. The incoming edges start at directionDivider and are not sorted, grouped or indexed.
+	 * outgoingOrdinals. The incoming edges start at directionDivider and are not sorted, grouped or indexed. While the
+	 * set is being built, the outgoing edges are held in the buffers of the outgoingOrdinals instead.
 	 */
 	final List<Edge<EdgeEndpointType>> edges = new ArrayList<Edge<EdgeEndpointType>>();
 	final List<OutgoingOrdinal> outgoingOrdinals = new ArrayList<OutgoingOrdinal>();
 	int directionDivider = 0;
+	private int bufferedEdgeCount = 0;
+	private boolean isFrozen = true;
 
 	public EdgeType getOrdinalEdgeType(int ordinal) {
 		return outgoingOrdinals.get(ordinal).type;
@@ -46,10 +61,13 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 			return;
 		}
 
+		if (isFrozen)
+			thaw();
+
 		int ordinal = edge.getOrdinal();
 		int addCount = (ordinal + 1) - outgoingOrdinals.size();
 		for (int i = 0; i < addCount; i++) {
-			outgoingOrdinals.add(new OutgoingOrdinal(directionDivider));
+			outgoingOrdinals.add(new OutgoingOrdinal());
 		}
 
 		OutgoingOrdinal group = outgoingOrdinals.get(ordinal);
@@ -60,17 +78,42 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 					"Attempt to add an edge of type %s to an edge group of type %s!\n%s", edge.getEdgeType(),
 					group.type, edge));
 		}
-		edges.add(null);
-		int edgePosition = group.position + group.size;
-		for (int i = edges.size() - 1; i > edgePosition; i--) {
-			edges.set(i, edges.get(i - 1));
-		}
-		edges.set(edgePosition, edge);
-		directionDivider++;
+		group.buffer.add(edge);
 		group.size++;
-		for (int i = ordinal + 1; i < outgoingOrdinals.size(); i++) {
-			outgoingOrdinals.get(i).position++;
+		bufferedEdgeCount++;
+	}
+
+	/**
+	 * Compact the outgoing edges into the edge list, grouped by ordinal. The set may be read concurrently once it is
+	 * frozen.
+	 */
+	@SuppressWarnings("unchecked")
+	public void freeze() {
+		if (isFrozen)
+			return;
+
+		List<Edge<EdgeEndpointType>> outgoingEdges = new ArrayList<Edge<EdgeEndpointType>>(bufferedEdgeCount);
+		for (OutgoingOrdinal group : outgoingOrdinals) {
+			group.position = outgoingEdges.size();
+			for (Edge<?> edge : group.buffer)
+				outgoingEdges.add((Edge<EdgeEndpointType>) edge);
+			group.buffer = null;
+		}
+		edges.addAll(0, outgoingEdges);
+		directionDivider = bufferedEdgeCount;
+		bufferedEdgeCount = 0;
+		isFrozen = true;
+	}
+
+	private void thaw() {
+		for (OutgoingOrdinal group : outgoingOrdinals) {
+			group.buffer = new ArrayList<Edge<?>>(Math.max(group.size, ORDINAL_BUFFER_CAPACITY));
+			group.buffer.addAll(edges.subList(group.position, group.position + group.size));
 		}
+		edges.subList(0, directionDivider).clear();
+		bufferedEdgeCount = directionDivider;
+		directionDivider = 0;
+		isFrozen = false;
 	}
 
 	public void removeEdge(Direction direction, Edge<EdgeEndpointType> edge) {
@@ -85,15 +128,25 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 
 	public boolean replaceEdge(Edge<EdgeEndpointType> original, Edge<EdgeEndpointType> replacement) {
 		int index = edges.indexOf(original);
-		if (index < 0)
-			return false;
+		if (index >= 0) {
+			edges.set(index, replacement);
+			return true;
+		}
 
-		edges.set(index, replacement);
-		return true;
+		if (!isFrozen) {
+			for (OutgoingOrdinal group : outgoingOrdinals) {
+				index = group.buffer.indexOf(original);
+				if (index >= 0) {
+					group.buffer.set(index, replacement);
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
 	public OrdinalEdgeList<EdgeEndpointType> getEdges(Direction direction, int ordinal) {
-		OrdinalEdgeList<EdgeEndpointType> listView = OrdinalEdgeList.get(this);// threadListView.get();
+		OrdinalEdgeList<EdgeEndpointType> listView = OrdinalEdgeList.get(edges);// threadListView.get();
 		switch (direction) {
 			case INCOMING:
 				throw new UnsupportedOperationException("Incoming edges are not grouped by ordinal.");
@@ -104,8 +157,13 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 					listView.end = 0;
 				} else {
 					listView.group = outgoingOrdinals.get(ordinal);
-					listView.start = listView.group.position;
-					listView.end = listView.group.position + listView.group.size;
+					if (isFrozen) {
+						listView.start = listView.group.position;
+					} else {
+						listView.setEdges(listView.group.buffer);
+						listView.start = 0;
+					}
+					listView.end = listView.start + listView.group.size;
 				}
 				break;
 		}
@@ -113,7 +171,15 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 	}
 
 	public OrdinalEdgeList<EdgeEndpointType> getEdges(Direction direction) {
-		OrdinalEdgeList<EdgeEndpointType> listView = OrdinalEdgeList.get(this);// threadListView.get();
+		OrdinalEdgeList<EdgeEndpointType> listView = OrdinalEdgeList.get(edges);// threadListView.get();
+		if ((direction == Direction.OUTGOING) && !isFrozen) {
+			listView.setOrdinals(outgoingOrdinals);
+			listView.group = null;
+			listView.start = 0;
+			listView.end = bufferedEdgeCount;
+			return listView;
+		}
+
 		if (edges.isEmpty()) {
 			listView.start = 0;
 			listView.group = null;
@@ -152,7 +218,7 @@ public class EdgeSet<EdgeEndpointType extends Node<EdgeEndpointType>> {
 			case INCOMING:
 				return (edges.size() - directionDivider);
 			case OUTGOING:
-				return directionDivider;
+				return directionDivider + bufferedEdgeCount;
 			default:
 				throw new IllegalStateException(String.format("Unknown direction %d", direction));
 		}
@@ -1,31 +1,104 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
 import edu.uci.plrg.cfi.common.log.Log;
 import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ExecutionNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ModuleInstance;
+import edu.uci.plrg.cfi.x86.graph.util.LongIntHashMap;
 
 public class GraphData<NodeType extends Node<NodeType>> {
 
 	public final NodeHashMap<NodeType> nodesByHash = new NodeHashMap<NodeType>();
 
-	// TODO: it would be ideal for this to become a read-only map after the graph is built
-	final Map<Node.Key, NodeType> nodesByKey = new HashMap<Node.Key, NodeType>();
+	/* in the order they were added; a node having the key of an earlier node takes its place */
+	private final List<NodeType> nodes = new ArrayList<NodeType>();
+	private final List<NodeType> readOnlyNodes = Collections.unmodifiableList(nodes);
+
+	/* indexes into nodes, for the keys that can be packed */
+	private final LongIntHashMap nodeIndexesByPackedKey = new LongIntHashMap();
+	/* for the keys that can't be packed, such as the hash keys of module boundary nodes */
+	private final Map<Node.Key, Integer> nodeIndexesByKey = new HashMap<Node.Key, Integer>();
+
+	void addNode(NodeType node) {
+		int index;
+		long packedKey = node.getPackedKey();
+		if (packedKey == PackedNodeKey.NONE) {
+			Node.Key key = node.getKey();
+			Integer boxedIndex = nodeIndexesByKey.get(key);
+			index = (boxedIndex == null) ? LongIntHashMap.NOT_FOUND : boxedIndex;
+			if (index == LongIntHashMap.NOT_FOUND)
+				nodeIndexesByKey.put(key, nodes.size());
+		} else {
+			index = nodeIndexesByPackedKey.get(packedKey);
+			if (index == LongIntHashMap.NOT_FOUND)
+				nodeIndexesByPackedKey.put(packedKey, nodes.size());
+		}
+
+		if (index == LongIntHashMap.NOT_FOUND)
+			nodes.add(node);
+		else
+			nodes.set(index, node);
+	}
+
+	NodeType getNode(Node.Key key) {
+		long packedKey = key.getPackedKey();
+		if (packedKey != PackedNodeKey.NONE)
+			return getNode(packedKey);
+
+		Integer index = nodeIndexesByKey.get(key);
+		return (index == null) ? null : nodes.get(index);
+	}
+
+	NodeType getNode(long packedKey) {
+		int index = nodeIndexesByPackedKey.get(packedKey);
+		return (index == LongIntHashMap.NOT_FOUND) ? null : nodes.get(index);
+	}
+
+	boolean containsNode(Node.Key key) {
+		long packedKey = key.getPackedKey();
+		if (packedKey != PackedNodeKey.NONE)
+			return nodeIndexesByPackedKey.containsKey(packedKey);
+		return nodeIndexesByKey.containsKey(key);
+	}
+
+	boolean containsNode(long packedKey) {
+		return nodeIndexesByPackedKey.containsKey(packedKey);
+	}
+
+	/**
+	 * @return a read-only view of the nodes, in the order they were added
+	 */
+	List<NodeType> getNodes() {
+		return readOnlyNodes;
+	}
+
+	int getNodeCount() {
+		return nodes.size();
+	}
 
 	public boolean HACK_containsEquivalent(Node<?> node) {
 		if (node.getModule().isAnonymous)
 			return false;
-		if (nodesByKey.containsKey(node.getKey()))
+		long packedKey = node.getPackedKey();
+		if ((packedKey == PackedNodeKey.NONE) ? nodeIndexesByKey.containsKey(node.getKey())
+				: nodeIndexesByPackedKey.containsKey(packedKey))
 			return true;
-		if ((node instanceof ExecutionNode) && (((ExecutionNode) node).getInstanceId() > 0))
-			return nodesByKey.containsKey(ExecutionNode.Key.create(
+		if ((node instanceof ExecutionNode) && (((ExecutionNode) node).getInstanceId() > 0)) {
+			packedKey = PackedNodeKey.pack(node.getModule(), node.getRelativeTag(), 0);
+			if (packedKey != PackedNodeKey.NONE)
+				return nodeIndexesByPackedKey.containsKey(packedKey);
+			return nodeIndexesByKey.containsKey(ExecutionNode.Key.create(
 					((ModuleInstance) node.getModule()).start + node.getRelativeTag(), 0,
 					(ModuleInstance) node.getModule()));
-		else
+		} else {
 			return false;
+		}
 	}
 
 	/**
@@ -35,7 +108,7 @@ public class GraphData<NodeType extends Node<NodeType>> {
 	 * @return true means this is a valid graph, otherwise it's invalid
 	 */
 	public void validate() {
-		for (NodeType node : nodesByKey.values()) {
+		for (NodeType node : nodes) {
 			switch (node.getType()) {
 				case MODULE_ENTRY:
 					if (node.hasIncomingEdges()) {
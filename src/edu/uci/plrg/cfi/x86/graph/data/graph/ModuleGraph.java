@@ -3,11 +3,14 @@ package edu.uci.plrg.cfi.x86.graph.data.graph;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -102,27 +105,42 @@ public class ModuleGraph<EdgeEndpointType extends Node<EdgeEndpointType>> {
 	}
 
 	public boolean hasNode(Node.Key key) {
-		return graphData.nodesByKey.containsKey(key);
+		return graphData.containsNode(key);
+	}
+
+	/**
+	 * @param packedKey
+	 *            a key from <code>PackedNodeKey.pack()</code>, which must not be <code>PackedNodeKey.NONE</code>
+	 */
+	public boolean hasNode(long packedKey) {
+		return graphData.containsNode(packedKey);
 	}
 
 	public boolean hasNodes() {
-		return !graphData.nodesByKey.isEmpty();
+		return graphData.getNodeCount() > 0;
 	}
 
 	public Collection<Node.Key> getAllKeys() {
-		return graphData.nodesByKey.keySet();
+		List<Node.Key> keys = new ArrayList<Node.Key>(graphData.getNodeCount());
+		for (EdgeEndpointType node : graphData.getNodes())
+			keys.add(node.getKey());
+		return keys;
 	}
 
 	public Collection<EdgeEndpointType> getAllNodes() {
-		return graphData.nodesByKey.values();
+		return graphData.getNodes();
 	}
 
 	public int getNodeCount() {
-		return graphData.nodesByKey.size();
+		return graphData.getNodeCount();
 	}
 
 	public EdgeEndpointType getNode(Node.Key key) {
-		return graphData.nodesByKey.get(key);
+		return graphData.getNode(key);
+	}
+
+	public EdgeEndpointType getNode(long packedKey) {
+		return graphData.getNode(packedKey);
 	}
 
 	public void addNode(EdgeEndpointType node) {
@@ -139,7 +157,30 @@ public class ModuleGraph<EdgeEndpointType extends Node<EdgeEndpointType>> {
 			case SINGLETON:
 				graphData.nodesByHash.add(node);
 		}
-		graphData.nodesByKey.put(node.getKey(), node);
+		graphData.addNode(node);
+	}
+
+	/**
+	 * Compact the edges of every node for reading, once the graph has been loaded.
+	 */
+	public void freezeEdges() {
+		for (EdgeEndpointType node : graphData.getNodes())
+			node.freezeEdges();
+		for (EdgeEndpointType node : entryNodes.values())
+			node.freezeEdges();
+		for (EdgeEndpointType node : exitNodes.values())
+			node.freezeEdges();
+	}
+
+	/**
+	 * @return a read-only view of the graph as it is now, with dense node ids and the edges in primitive arrays
+	 */
+	public CompactModuleGraph<EdgeEndpointType> compact() {
+		List<EdgeEndpointType> nodes = new ArrayList<EdgeEndpointType>(graphData.getNodeCount() + entryNodes.size());
+		nodes.addAll(graphData.getNodes());
+		nodes.addAll(entryNodes.values());
+		nodes.addAll(exitNodes.values());
+		return new CompactModuleGraph<EdgeEndpointType>(nodes);
 	}
 
 	public void resetAnalysis() {
@@ -158,7 +199,7 @@ public class ModuleGraph<EdgeEndpointType extends Node<EdgeEndpointType>> {
 		if (analyzeReachability)
 			analyzeReachability();
 		else
-			edgeStudy(graphData.nodesByKey.values());
+			edgeStudy(graphData.getNodes());
 	}
 
 	private void edgeStudy(Iterable<EdgeEndpointType> nodes) {
@@ -168,52 +209,36 @@ public class ModuleGraph<EdgeEndpointType extends Node<EdgeEndpointType>> {
 	}
 
 	private void analyzeReachability() {
-		unreachableNodes.addAll(graphData.nodesByKey.values());
-
-		Set<EdgeEndpointType> visitedNodes = new HashSet<EdgeEndpointType>();
-		Queue<EdgeEndpointType> bfsQueue = new LinkedList<EdgeEndpointType>();
-		bfsQueue.addAll(entryNodes.values());
+		CompactModuleGraph<EdgeEndpointType> compactGraph = compact();
 
+		List<EdgeEndpointType> roots = new ArrayList<EdgeEndpointType>(entryNodes.values());
 		NodeList<EdgeEndpointType> systemNodes = graphData.nodesByHash.get(1L);
 		if (systemNodes.size() == 1)
-			bfsQueue.add(systemNodes.get(0));
+			roots.add(systemNodes.get(0));
 		systemNodes = graphData.nodesByHash.get(3L);
 		if (systemNodes.size() == 1)
-			bfsQueue.add(systemNodes.get(0));
-
-		while (bfsQueue.size() > 0) {
-			EdgeEndpointType node = bfsQueue.remove();
-			unreachableNodes.remove(node);
-			visitedNodes.add(node);
-
-			OrdinalEdgeList<EdgeEndpointType> edgeList = node.getOutgoingEdges();
-			try {
-				for (Edge<EdgeEndpointType> edge : edgeList) {
-					EdgeEndpointType neighbor = edge.getToNode();
-					if (!visitedNodes.contains(neighbor)) {
-						bfsQueue.add(neighbor);
-						visitedNodes.add(neighbor);
-					}
-					if (edge.isModuleExit())
-						edgeCounter.tallyInterEdge(edge.getEdgeType());
-					else
-						edgeCounter.tallyIntraEdge(edge.getEdgeType());
-				}
-			} finally {
-				edgeList.release();
+			roots.add(systemNodes.get(0));
+		int rootIds[] = new int[roots.size()];
+		for (int i = 0; i < rootIds.length; i++)
+			rootIds[i] = compactGraph.getNodeId(roots.get(i));
+
+		BitSet reachedNodes = compactGraph.findReachable(rootIds);
+		for (int nodeId = reachedNodes.nextSetBit(0); nodeId >= 0; nodeId = reachedNodes.nextSetBit(nodeId + 1)) {
+			for (int i = compactGraph.getOutgoingStart(nodeId); i < compactGraph.getOutgoingEnd(nodeId); i++) {
+				if (compactGraph.getNodeType(compactGraph.getTarget(i)) == MetaNodeType.MODULE_EXIT)
+					edgeCounter.tallyInterEdge(compactGraph.getEdgeType(i));
+				else
+					edgeCounter.tallyIntraEdge(compactGraph.getEdgeType(i));
 			}
-
-			edgeList = node.getIncomingEdges();
-			try {
-				for (Edge<EdgeEndpointType> edge : edgeList) {
-					if (edge.isModuleEntry()) {
-						edgeCounter.tallyInterEdge(edge.getEdgeType());
-					}
-				}
-			} finally {
-				edgeList.release();
+			for (int i = compactGraph.getIncomingStart(nodeId); i < compactGraph.getIncomingEnd(nodeId); i++) {
+				if (compactGraph.getNodeType(compactGraph.getSource(i)) == MetaNodeType.MODULE_ENTRY)
+					edgeCounter.tallyInterEdge(compactGraph.getIncomingEdgeType(i));
 			}
 		}
+		for (EdgeEndpointType node : graphData.getNodes()) {
+			if (!reachedNodes.get(compactGraph.getNodeId(node)))
+				unreachableNodes.add(node);
+		}
 
 		if (!CrowdSafeDebug.LOG_UNREACHABLE_ENTRY_POINTS)
 			return;
@@ -5,12 +5,35 @@ public abstract class Node<EdgeEndpointType extends Node<EdgeEndpointType>> impl
 
 	public interface Key {
 		boolean isModuleRelativeEquivalent(Key other);
+
+		/**
+		 * @return this key packed into one <code>long</code> (see <code>PackedNodeKey</code>), or
+		 *         <code>PackedNodeKey.NONE</code> if it can only be compared as an object
+		 */
+		long getPackedKey();
 	}
 
 	protected final EdgeSet<EdgeEndpointType> edges = new EdgeSet<EdgeEndpointType>();
 
 	public abstract Key getKey();
 
+	public long getPackedKey() {
+		return getKey().getPackedKey();
+	}
+
+	/**
+	 * Compares the packed keys when both nodes have one, and otherwise the key objects.
+	 */
+	private static boolean hasSameKey(Node<?> first, Node<?> second) {
+		long packedKey = first.getPackedKey();
+		if (packedKey != PackedNodeKey.NONE) {
+			long otherPackedKey = second.getPackedKey();
+			if (otherPackedKey != PackedNodeKey.NONE)
+				return packedKey == otherPackedKey;
+		}
+		return first.getKey().equals(second.getKey());
+	}
+
 	public boolean isModuleRelativeEquivalent(Node<?> other) {
 		return getKey().isModuleRelativeEquivalent(other.getKey()) && (getType() == other.getType()) && (getHash() == other.getHash());
 	}
@@ -56,27 +79,39 @@ public abstract class Node<EdgeEndpointType extends Node<EdgeEndpointType>> impl
 		return edges.getEdges(EdgeSet.Direction.OUTGOING, ordinal);
 	}
 
+	/**
+	 * Searches one ordinal at a time, so it does not freeze an edge set that is still being built.
+	 */
 	public Edge<EdgeEndpointType> getOutgoingEdge(EdgeEndpointType toNode) {
-		OrdinalEdgeList<EdgeEndpointType> edgeList = edges.getEdges(EdgeSet.Direction.OUTGOING);
-		try {
-			for (Edge<EdgeEndpointType> edge : edgeList) {
-				if (edge.getToNode().getKey().equals(toNode.getKey()))
-					return edge;
+		for (int ordinal = 0; ordinal < edges.getOrdinalCount(EdgeSet.Direction.OUTGOING); ordinal++) {
+			OrdinalEdgeList<EdgeEndpointType> edgeList = edges.getEdges(EdgeSet.Direction.OUTGOING, ordinal);
+			try {
+				for (Edge<EdgeEndpointType> edge : edgeList) {
+					if (hasSameKey(edge.getToNode(), toNode))
+						return edge;
+				}
+			} finally {
+				edgeList.release();
 			}
-		} finally {
-			edgeList.release();
 		}
 		return null;
 	}
 
 	public Edge<EdgeEndpointType> getOutgoingEdge(EdgeEndpointType toNode, int ordinal) {
 		for (Edge<EdgeEndpointType> edge : edges.getEdges(EdgeSet.Direction.OUTGOING, ordinal)) {
-			if (edge.getToNode().getKey().equals(toNode.getKey()))
+			if (hasSameKey(edge.getToNode(), toNode))
 				return edge;
 		}
 		return null;
 	}
 
+	/**
+	 * Compact the edges for reading once the node is complete. Edges may still be added afterwards.
+	 */
+	public void freezeEdges() {
+		edges.freeze();
+	}
+
 	public boolean hasCompatibleEdges(Node<?> other) {
 		return edges.checkOutgoingEdgeCompatibility(other.edges);
 	}
@@ -1,55 +1,223 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
+import edu.uci.plrg.cfi.x86.graph.util.LongHashing;
+
+/**
+ * Groups nodes by hash in an open-addressing table with primitive <code>long</code> keys. The first node of each hash
+ * is held inline in its slot, and any further nodes of the same hash are appended to a chain in shared overflow arrays,
+ * in the order they were added. A node equal to the first node of its group is not added again, but further duplicates
+ * are not checked, so that adding to a group takes constant time.
+ *
+ * <code>get()</code> returns the node itself for a singleton group, or a view of the group otherwise. The hash groups
+ * can be iterated without boxing through a <code>Cursor</code>. Neither reflects nodes added after it was created, and
+ * a <code>Cursor</code> is no longer valid once adding a node has grown the table.
+ */
 public class NodeHashMap<NodeType extends Node<NodeType>> {
-	private final Map<Long, NodeList<NodeType>> map = new HashMap<Long, NodeList<NodeType>>();
 
+	/**
+	 * Iterates the hash groups of the map in no particular order, and the nodes of the current group in the order they
+	 * were added:
+	 *
+	 * <pre>
+	 * NodeHashMap.Cursor cursor = map.cursor();
+	 * while (cursor.nextHash()) {
+	 * 	for (NodeType node = cursor.nextNode(); node != null; node = cursor.nextNode())
+	 * 		...
+	 * }
+	 * </pre>
+	 */
+	public class Cursor {
+		private int slot = -1;
+		/* index + 1 of the next overflow node, 0 at the end of the chain, or -1 before the first node */
+		private int nextOverflow;
+
+		private Cursor() {
+		}
+
+		/**
+		 * @return false when there are no more hash groups
+		 */
+		public boolean nextHash() {
+			while (++slot < keys.length) {
+				if (firstNodes[slot] != null) {
+					nextOverflow = -1;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public long getHash() {
+			return keys[slot];
+		}
+
+		public int getNodeCount() {
+			return groupSizes[slot];
+		}
+
+		/**
+		 * @return the next node having the current hash, or null after the last one
+		 */
+		@SuppressWarnings("unchecked")
+		public NodeType nextNode() {
+			if (nextOverflow < 0) {
+				nextOverflow = overflowHeads[slot];
+				return (NodeType) firstNodes[slot];
+			}
+			if (nextOverflow == 0)
+				return null;
+
+			NodeType node = (NodeType) overflowNodes[nextOverflow - 1];
+			nextOverflow = overflowNext[nextOverflow - 1];
+			return node;
+		}
+
+		public NodeList<NodeType> getNodes() {
+			return getGroup(slot);
+		}
+	}
+
+	/**
+	 * View of a hash group having more than one node. Sequential access walks the chain once.
+	 */
+	private class HashGroup implements NodeList<NodeType> {
+		private final Object firstNode;
+		private final int overflowHead;
+		private final int size;
+
+		private int cursorIndex = 0;
+		/* index + 1 of the overflow node at cursorIndex (when cursorIndex > 0) */
+		private int cursorOverflow;
+
+		HashGroup(int slot) {
+			firstNode = firstNodes[slot];
+			overflowHead = overflowHeads[slot];
+			size = groupSizes[slot];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean isSingleton() {
+			return false;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public NodeType get(int index) {
+			if ((index < 0) || (index >= size))
+				throw new IndexOutOfBoundsException(String.format("Index %d in a hash group of %d nodes", index, size));
+			if (index == 0)
+				return (NodeType) firstNode;
+
+			if ((cursorIndex == 0) || (index < cursorIndex)) {
+				cursorIndex = 1;
+				cursorOverflow = overflowHead;
+			}
+			for (; cursorIndex < index; cursorIndex++)
+				cursorOverflow = overflowNext[cursorOverflow - 1];
+			return (NodeType) overflowNodes[cursorOverflow - 1];
+		}
+	}
+
+	private static final int INITIAL_OVERFLOW_CAPACITY = 0x10;
+
+	private long keys[];
+	/* null for an empty slot */
+	private Object firstNodes[];
+	/* index + 1 of the first and last overflow nodes of each slot, or 0 for a singleton */
+	private int overflowHeads[];
+	private int overflowTails[];
+	/* number of nodes in each slot, or 0 for an empty slot */
+	private int groupSizes[];
+	private int mask;
+	private int resizeThreshold;
+
+	private Object overflowNodes[] = new Object[INITIAL_OVERFLOW_CAPACITY];
+	/* index + 1 of the next overflow node in the chain, or 0 at its end */
+	private int overflowNext[] = new int[INITIAL_OVERFLOW_CAPACITY];
+	private int overflowCount = 0;
+
+	private int hashCount = 0;
 	private int nodeCount = 0;
 
-	@SuppressWarnings("unchecked")
+	public NodeHashMap() {
+		allocate(LongHashing.tableSize(0));
+	}
+
 	public void add(NodeType node) {
-		NodeList<NodeType> existing = map.get(node.getHash());
-		if (existing == null) {
-			map.put(node.getHash(), node);
-		} else {
-			if (existing.equals(node))
+		long hash = node.getHash();
+		int slot = LongHashing.slot(hash, mask);
+		for (; firstNodes[slot] != null; slot = (slot + 1) & mask) {
+			if (keys[slot] == hash) {
+				addToGroup(slot, node);
 				return;
-
-			if (existing.isSingleton()) {
-				NodeArrayList<NodeType> list = new NodeArrayList<NodeType>();
-				if (list.contains(node))
-					return;
-
-				list.add((NodeType) existing);
-				list.add(node);
-				map.put(node.getHash(), list);
-			} else {
-				NodeArrayList<NodeType> list = (NodeArrayList<NodeType>) existing;
-				list.add(node);
 			}
 		}
 
+		keys[slot] = hash;
+		firstNodes[slot] = node;
+		groupSizes[slot] = 1;
+		hashCount++;
+		nodeCount++;
+		if (hashCount > resizeThreshold)
+			rehash(keys.length << 1);
+	}
+
+	private void addToGroup(int slot, NodeType node) {
+		if (firstNodes[slot].equals(node))
+			return;
+
+		if (overflowCount == overflowNodes.length) {
+			overflowNodes = Arrays.copyOf(overflowNodes, overflowCount << 1);
+			overflowNext = Arrays.copyOf(overflowNext, overflowCount << 1);
+		}
+		overflowNodes[overflowCount] = node;
+		overflowNext[overflowCount] = 0;
+		overflowCount++;
+		if (overflowTails[slot] == 0)
+			overflowHeads[slot] = overflowCount;
+		else
+			overflowNext[overflowTails[slot] - 1] = overflowCount;
+		overflowTails[slot] = overflowCount;
+		groupSizes[slot]++;
 		nodeCount++;
 	}
 
 	@SuppressWarnings("unchecked")
 	public NodeList<NodeType> get(long hash) {
-		NodeList<NodeType> nodes = map.get(hash);
-		if (nodes == null)
+		int slot = findSlot(hash);
+		if (slot < 0)
 			return (NodeList<NodeType>) NodeList.EMPTY;
-		else
-			return nodes;
+		return getGroup(slot);
+	}
+
+	public Cursor cursor() {
+		return new Cursor();
 	}
 
+	/**
+	 * @deprecated copies the hashes into a boxed set; iterate the hash groups with <code>cursor()</code> instead
+	 */
+	@Deprecated
 	public Set<Long> keySet() {
-		return map.keySet();
+		Set<Long> hashes = new HashSet<Long>(hashCount);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (firstNodes[slot] != null)
+				hashes.add(keys[slot]);
+		}
+		return hashes;
 	}
 
 	public int getHashCount() {
-		return map.size();
+		return hashCount;
 	}
 
 	public int getNodeCount() {
@@ -58,13 +226,63 @@ public class NodeHashMap<NodeType extends Node<NodeType>> {
 
 	public int getHashOverlapPerNode(NodeHashMap<?> other) {
 		int overlap = 0;
-		NodeList<?> otherList;
-		for (Map.Entry<Long, NodeList<NodeType>> entry : map.entrySet()) {
-			otherList = other.map.get(entry.getKey());
-			if (otherList != null) {
-				overlap += Math.min(entry.getValue().size(), otherList.size());
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (firstNodes[slot] != null) {
+				int otherSlot = other.findSlot(keys[slot]);
+				if (otherSlot >= 0)
+					overlap += Math.min(groupSizes[slot], other.groupSizes[otherSlot]);
 			}
 		}
 		return overlap;
 	}
+
+	/**
+	 * @return the slot of <code>hash</code>, or -1 if it has no nodes
+	 */
+	private int findSlot(long hash) {
+		for (int slot = LongHashing.slot(hash, mask); firstNodes[slot] != null; slot = (slot + 1) & mask) {
+			if (keys[slot] == hash)
+				return slot;
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private NodeList<NodeType> getGroup(int slot) {
+		if (overflowHeads[slot] == 0)
+			return (NodeType) firstNodes[slot];
+		return new HashGroup(slot);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		firstNodes = new Object[capacity];
+		overflowHeads = new int[capacity];
+		overflowTails = new int[capacity];
+		groupSizes = new int[capacity];
+		mask = capacity - 1;
+		resizeThreshold = LongHashing.resizeThreshold(capacity);
+	}
+
+	private void rehash(int capacity) {
+		long oldKeys[] = keys;
+		Object oldFirstNodes[] = firstNodes;
+		int oldOverflowHeads[] = overflowHeads;
+		int oldOverflowTails[] = overflowTails;
+		int oldGroupSizes[] = groupSizes;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldFirstNodes[i] != null) {
+				int slot = LongHashing.slot(oldKeys[i], mask);
+				while (firstNodes[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				firstNodes[slot] = oldFirstNodes[i];
+				overflowHeads[slot] = oldOverflowHeads[i];
+				overflowTails[slot] = oldOverflowTails[i];
+				groupSizes[slot] = oldGroupSizes[i];
+			}
+		}
+	}
 }
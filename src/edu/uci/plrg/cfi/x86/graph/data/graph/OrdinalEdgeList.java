@@ -39,7 +39,7 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 		// 8% hot during load!
 		@Override
 		public Edge<EdgeEndpointType> next() {
-			return data.edges.get(index++);
+			return edgeAt(index++);
 		}
 
 		@Override
@@ -55,7 +55,7 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 		@Override
 		public Edge<EdgeEndpointType> previous() {
 			index--;
-			return data.edges.get(index);
+			return edgeAt(index);
 		}
 
 		@Override
@@ -80,10 +80,11 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 		}
 	}
 
-	static <T extends Node<T>> OrdinalEdgeList<T> get(EdgeSet<T> data) {
+	static <T extends Node<T>> OrdinalEdgeList<T> get(List<Edge<T>> edges) {
 		@SuppressWarnings("unchecked")
 		OrdinalEdgeList<T> list = (OrdinalEdgeList<T>) LIST_POOL.get().checkout();
-		list.data = data;
+		list.edges = edges;
+		list.ordinals = null;
 		return list;
 	}
 
@@ -93,7 +94,13 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 		}
 	};
 
-	private EdgeSet<EdgeEndpointType> data;
+	/* the edge list of the EdgeSet, or the buffer of one ordinal while the set is being built */
+	private List<Edge<EdgeEndpointType>> edges;
+	/* the buffers of all ordinals, when viewing all outgoing edges of a set that is being built */
+	private List<OutgoingOrdinal> ordinals;
+	/* the ordinal of the last edge found in the buffers, and the index of its first edge */
+	private int cursorOrdinal;
+	private int cursorStart;
 
 	int start;
 	int end;
@@ -101,12 +108,31 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 
 	private final IndexingIterator iterator = new IndexingIterator();
 
+	/**
+	 * Sequential access to the buffers takes constant time, since the search starts from the last ordinal found.
+	 */
+	@SuppressWarnings("unchecked")
+	private Edge<EdgeEndpointType> edgeAt(int index) {
+		if (ordinals == null)
+			return edges.get(index);
+
+		while (index < cursorStart) {
+			cursorOrdinal--;
+			cursorStart -= ordinals.get(cursorOrdinal).size;
+		}
+		while (index >= (cursorStart + ordinals.get(cursorOrdinal).size)) {
+			cursorStart += ordinals.get(cursorOrdinal).size;
+			cursorOrdinal++;
+		}
+		return (Edge<EdgeEndpointType>) ordinals.get(cursorOrdinal).buffer.get(index - cursorStart);
+	}
+
 	public boolean containsModuleRelativeEquivalent(Edge<?> edge) {
 		if (edge == null)
 			return false;
 		if (edge instanceof Edge) {
 			for (int i = start; i < end; i++) {
-				if (data.edges.get(i).isModuleRelativeEquivalent(edge))
+				if (edgeAt(i).isModuleRelativeEquivalent(edge))
 					return true;
 			}
 		}
@@ -119,7 +145,7 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 			return false;
 		if (o instanceof Edge) {
 			for (int i = start; i < end; i++) {
-				if (data.edges.get(i).equals(o))
+				if (edgeAt(i).equals(o))
 					return true;
 			}
 		}
@@ -137,13 +163,13 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 
 	@Override
 	public Edge<EdgeEndpointType> get(int index) {
-		return data.edges.get(start + index);
+		return edgeAt(start + index);
 	}
 
 	@Override
 	public int indexOf(Object o) {
 		for (int i = start; i < end; i++) {
-			if (data.edges.get(i).equals(o))
+			if (edgeAt(i).equals(o))
 				return i - start;
 		}
 		return -1;
@@ -157,7 +183,7 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 	@Override
 	public int lastIndexOf(Object o) {
 		for (int i = end - 1; i >= start; i--) {
-			if (data.edges.get(i).equals(o))
+			if (edgeAt(i).equals(o))
 				return i - start;
 		}
 		return -1;
@@ -258,9 +284,21 @@ public class OrdinalEdgeList<EdgeEndpointType extends Node<EdgeEndpointType>> ex
 		return a;
 	}
 
+	@SuppressWarnings("unchecked")
+	void setEdges(List<Edge<?>> edges) {
+		this.edges = (List<Edge<EdgeEndpointType>>) (List<?>) edges;
+	}
+
+	void setOrdinals(List<OutgoingOrdinal> ordinals) {
+		this.ordinals = ordinals;
+		cursorOrdinal = 0;
+		cursorStart = 0;
+	}
+
 	@Override
 	public void release() {
-		data = null;
+		edges = null;
+		ordinals = null;
 		super.release();
 	}
 
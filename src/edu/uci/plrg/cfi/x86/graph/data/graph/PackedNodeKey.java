@@ -0,0 +1,38 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph;
+
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+
+/**
+ * Node identity packed into one <code>long</code>, for the nodes whose key is a module, a relative tag and an instance
+ * id (or tag version). Two packable keys of the same kind are equal exactly when their packed keys are equal. Keys of
+ * module boundary nodes are not packable, because they are identified by a full 64-bit hash.
+ *
+ * <pre>
+ * bits  0-31: relative tag
+ * bits 32-39: instance id
+ * bits 40-62: module ordinal
+ * </pre>
+ */
+public class PackedNodeKey {
+
+	/* never a valid packed key, since bit 63 is always clear */
+	public static final long NONE = -1L;
+
+	private static final long MAX_RELATIVE_TAG = 0xffffffffL;
+	private static final int MAX_INSTANCE_ID = 0xff;
+	private static final int MAX_MODULE_ORDINAL = 0x7fffff;
+
+	/**
+	 * @return the packed key, or <code>NONE</code> if a field is out of range
+	 */
+	public static long pack(ApplicationModule module, long relativeTag, int instanceId) {
+		if ((relativeTag < 0L) || (relativeTag > MAX_RELATIVE_TAG) || (instanceId < 0)
+				|| (instanceId > MAX_INSTANCE_ID) || (module.ordinal > MAX_MODULE_ORDINAL))
+			return NONE;
+
+		return relativeTag | (((long) instanceId) << 0x20) | (((long) module.ordinal) << 0x28);
+	}
+
+	private PackedNodeKey() {
+	}
+}
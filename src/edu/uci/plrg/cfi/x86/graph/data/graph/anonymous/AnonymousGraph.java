@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
 import edu.uci.plrg.cfi.common.log.Log;
@@ -82,19 +83,22 @@ public class AnonymousGraph extends ModuleGraph<ModuleNode<?>> {
 				visitedNodes.add(node);
 				unvisitedNodes.remove(node);
 
-				OrdinalEdgeList<ModuleNode<?>> edgeList = node.getOutgoingEdges();
-				try {
-					for (Edge<ModuleNode<?>> edge : edgeList) {
-						ModuleNode<?> neighbor = edge.getToNode();
-						if (!visitedNodes.contains(neighbor)) {
-							bfsQueue.add(neighbor);
-							visitedNodes.add(neighbor);
-							unvisitedNodes.remove(node);
+				/* by ordinal, since the graph may still be under construction */
+				for (int ordinal = 0; ordinal < node.getOutgoingOrdinalCount(); ordinal++) {
+					OrdinalEdgeList<ModuleNode<?>> edgeList = node.getOutgoingEdges(ordinal);
+					try {
+						for (Edge<ModuleNode<?>> edge : edgeList) {
+							ModuleNode<?> neighbor = edge.getToNode();
+							if (!visitedNodes.contains(neighbor)) {
+								bfsQueue.add(neighbor);
+								visitedNodes.add(neighbor);
+								unvisitedNodes.remove(node);
+							}
+							Log.log(edge);
 						}
-						Log.log(edge);
+					} finally {
+						edgeList.release();
 					}
-				} finally {
-					edgeList.release();
 				}
 			}
 		}
@@ -140,9 +144,10 @@ public class AnonymousGraph extends ModuleGraph<ModuleNode<?>> {
 		return owner;
 	}
 
-	private static int ID_INDEX = 0;
+	/* graphs are created by concurrent transform runs and module writer threads */
+	private static final AtomicInteger ID_INDEX = new AtomicInteger();
 
-	public final int id = ID_INDEX++;
+	public final int id = ID_INDEX.getAndIncrement();
 	private ModuleNode<?> jitSingleton = null;
 
 	private Analysis analysis = null;
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.uci.plrg.cfi.common.log.Log;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
@@ -291,6 +292,7 @@ public class AnonymousGraphSetDistiller {
 			Edge<ModuleNode<?>> metaEntryEdge = new Edge<ModuleNode<?>>(metaEntryNode, entryNode, EdgeType.INDIRECT, 0);
 			metaEntryNode.addOutgoingEdge(metaEntryEdge);
 		}
+		metaEntryNode.freezeEdges();
 		return metaEntryNode;
 	}
 
@@ -378,9 +380,9 @@ public class AnonymousGraphSetDistiller {
 	}
 
 	private static class UnitTestGraph {
-		private static int GRAPH_INDEX = 0;
+		private static final AtomicInteger GRAPH_INDEX = new AtomicInteger();
 
-		private final AnonymousGraph graph = new AnonymousGraph("Unit test graph #" + (GRAPH_INDEX++));
+		private final AnonymousGraph graph = new AnonymousGraph("Unit test graph #" + GRAPH_INDEX.getAndIncrement());
 		private final List<ModuleNode<?>> nodesByTag = new ArrayList<ModuleNode<?>>();
 
 		private void addNode(ModuleNode<?> node) {
@@ -402,6 +404,11 @@ public class AnonymousGraphSetDistiller {
 			ModuleNode<?> fromNode = nodesByTag.get(fromTag - 1);
 			fromNode.addOutgoingEdge(new Edge<ModuleNode<?>>(fromNode, nodesByTag.get(toTag - 1), type, ordinal));
 		}
+
+		AnonymousGraph complete() {
+			graph.freezeEdges();
+			return graph;
+		}
 	}
 
 	private static class UnitTest {
@@ -461,12 +468,12 @@ public class AnonymousGraphSetDistiller {
 			graph6.addEdge(3, 4, EdgeType.DIRECT, 0);
 
 			List<AnonymousGraph> graphs = new ArrayList<AnonymousGraph>();
-			graphs.add(graph1.graph);
-			graphs.add(graph2.graph);
-			graphs.add(graph3.graph);
-			graphs.add(graph4.graph);
-			graphs.add(graph5.graph);
-			graphs.add(graph6.graph);
+			graphs.add(graph1.complete());
+			graphs.add(graph2.complete());
+			graphs.add(graph3.complete());
+			graphs.add(graph4.complete());
+			graphs.add(graph5.complete());
+			graphs.add(graph6.complete());
 
 			AnonymousGraphSetDistiller distiller = new AnonymousGraphSetDistiller();
 			distiller.distillGraphs(graphs);
@@ -17,20 +17,22 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
 public class AnonymousSubgraphFlowAnalysis {
 
 	private static class FlowRecord {
-		final int id = ID_INDEX++;
+		final int id;
 		final ModuleBoundaryNode entryPoint;
 		final ModuleNode<?> entryNode;
 		final Set<ModuleNode<?>> coverage = new HashSet<ModuleNode<?>>();
 		final Set<ModuleNode<?>> exits = new HashSet<ModuleNode<?>>();
 		int backEdgeCount = 0;
 
-		public FlowRecord(ModuleBoundaryNode entryPoint, ModuleNode<?> entryNode) {
+		public FlowRecord(int id, ModuleBoundaryNode entryPoint, ModuleNode<?> entryNode) {
+			this.id = id;
 			this.entryPoint = entryPoint;
 			this.entryNode = entryNode;
 		}
 	}
 
-	private static int ID_INDEX = 0;
+	/* per analysis, so that concurrent analyses do not share the count */
+	private int flowRecordIndex = 0;
 
 	private FlowRecord flowRecord;
 	private final Map<ModuleNode<?>, FlowRecord> flowPerEntryNode = new LinkedHashMap<ModuleNode<?>, FlowRecord>();
@@ -38,7 +40,7 @@ public class AnonymousSubgraphFlowAnalysis {
 	private final LinkedList<ModuleNode<?>> queue = new LinkedList<ModuleNode<?>>();
 
 	void clear() {
-		ID_INDEX = 0;
+		flowRecordIndex = 0;
 		flowRecord = null;
 		flowPerEntryNode.clear();
 	}
@@ -56,7 +58,7 @@ public class AnonymousSubgraphFlowAnalysis {
 				try {
 					for (Edge<ModuleNode<?>> edge : edges) {
 						ModuleNode<?> entryNode = edge.getToNode();
-						flowRecord = new FlowRecord(entryPoint, entryNode);
+						flowRecord = new FlowRecord(flowRecordIndex++, entryPoint, entryNode);
 						flowPerEntryNode.put(entryNode, flowRecord);
 
 						queue.clear();
@@ -145,6 +145,8 @@ public class MaximalSubgraphs {
 			}
 		}
 
+		for (AnonymousGraph subgraph : processor.distinctSubgraphs)
+			subgraph.freezeEdges();
 		return processor.distinctSubgraphs;
 	}
 
@@ -5,6 +5,7 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.Edge;
 import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeSet;
 import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
+import edu.uci.plrg.cfi.x86.graph.data.graph.PackedNodeKey;
 
 /**
  * This is
@@ -46,6 +47,11 @@ public class ExecutionNode extends Node<ExecutionNode> {
 			return false;
 		}
 
+		@Override
+		public long getPackedKey() {
+			return PackedNodeKey.pack(module, relativeTag, version);
+		}
+
 		@Override
 		public int hashCode() {
 			final int prime = 31;
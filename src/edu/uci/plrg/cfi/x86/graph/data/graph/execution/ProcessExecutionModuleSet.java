@@ -1,20 +1,58 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph.execution;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 
-import edu.uci.plrg.cfi.common.log.Log;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
 import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
+import edu.uci.plrg.cfi.x86.graph.util.Diagnostics;
 
 public class ProcessExecutionModuleSet {
 
 	private final Multimap<ApplicationModule, ModuleInstance> instancesByModule = ArrayListMultimap.create();
-	private ModuleInstance modules[] = null; // TODO: optimize by grouping
+	private ModuleInstance modules[] = null;
+
+	/* in the order of the type indexes in getModule() */
+	private static final ExecutionTraceStreamType SPAN_STREAM_TYPES[] = { ExecutionTraceStreamType.GRAPH_NODE,
+			ExecutionTraceStreamType.GRAPH_EDGE, ExecutionTraceStreamType.CROSS_MODULE_EDGE };
+
+	/**
+	 * Address index built at freeze time: the address space is cut into segments at every module boundary, so that
+	 * the same instances cover every tag in a segment. The stream indexes of each segment are then cut at every load
+	 * and unload of those instances, per stream type, so that the instance found for a stream index in
+	 * [spanStarts[segment][type][k], spanStarts[segment][type][k + 1]) is modules[spanInstances[segment][type][k]],
+	 * or none for -1. Where spans overlap, the instance added last wins.
+	 */
+	private long segmentStarts[] = null;
+	private long spanStarts[][][] = null;
+	private int spanInstances[][][] = null;
+
+	private Diagnostics diagnostics;
+	private Diagnostics.Category unknownModuleTags;
+
+	public ProcessExecutionModuleSet() {
+		setDiagnostics(new Diagnostics());
+	}
+
+	/**
+	 * Report lookup failures to <code>diagnostics</code>. Must be set before any concurrent lookups begin.
+	 */
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+		unknownModuleTags = diagnostics.category("unknown module",
+				"Error! Failed to identify the module for tag 0x%x (%s #%d)");
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
 
 	public void add(ModuleInstance module) {
 		if (modules != null)
@@ -30,6 +68,98 @@ public class ProcessExecutionModuleSet {
 		List<ModuleInstance> instances = new ArrayList<ModuleInstance>();
 		instances.addAll(instancesByModule.values()); // maintains add-order within each mapping
 		modules = instances.toArray(new ModuleInstance[] {});
+
+		buildAddressIndex();
+	}
+
+	private void buildAddressIndex() {
+		long boundaries[] = new long[modules.length * 2];
+		int boundaryCount = 0;
+		for (ModuleInstance instance : modules) {
+			boundaries[boundaryCount++] = instance.start;
+			if (instance.end < Long.MAX_VALUE)
+				boundaries[boundaryCount++] = instance.end + 1L;
+		}
+		Arrays.sort(boundaries, 0, boundaryCount);
+		int segmentCount = 0;
+		for (int i = 0; i < boundaryCount; i++) {
+			if ((segmentCount == 0) || (boundaries[i] != boundaries[segmentCount - 1]))
+				boundaries[segmentCount++] = boundaries[i];
+		}
+		segmentStarts = Arrays.copyOf(boundaries, segmentCount);
+
+		int coverCounts[] = new int[segmentCount];
+		for (ModuleInstance instance : modules) {
+			for (int j = Arrays.binarySearch(segmentStarts, instance.start); (j < segmentCount)
+					&& (segmentStarts[j] <= instance.end); j++)
+				coverCounts[j]++;
+		}
+		/* highest add-order first */
+		int segmentInstances[][] = new int[segmentCount][];
+		for (int j = 0; j < segmentCount; j++)
+			segmentInstances[j] = new int[coverCounts[j]];
+		for (int i = modules.length - 1; i >= 0; i--) {
+			ModuleInstance instance = modules[i];
+			for (int j = Arrays.binarySearch(segmentStarts, instance.start); (j < segmentCount)
+					&& (segmentStarts[j] <= instance.end); j++) {
+				int slot = segmentInstances[j].length - coverCounts[j]--;
+				segmentInstances[j][slot] = i;
+			}
+		}
+
+		spanStarts = new long[segmentCount][SPAN_STREAM_TYPES.length][];
+		spanInstances = new int[segmentCount][SPAN_STREAM_TYPES.length][];
+		for (int j = 0; j < segmentCount; j++) {
+			for (int t = 0; t < SPAN_STREAM_TYPES.length; t++)
+				buildSpanIndex(j, t, segmentInstances[j]);
+		}
+	}
+
+	/**
+	 * Sweep the loads and unloads of the segment's instances in order, keeping the instances loaded at each point in a
+	 * queue by add-order, and record which one wins after each load or unload.
+	 */
+	private void buildSpanIndex(int segment, int typeIndex, final int instances[]) {
+		final ModuleInstance.Span spans[] = new ModuleInstance.Span[instances.length];
+		long boundaries[] = new long[instances.length * 2];
+		Integer loadOrder[] = new Integer[instances.length];
+		for (int p = 0; p < instances.length; p++) {
+			spans[p] = getSpan(modules[instances[p]], SPAN_STREAM_TYPES[typeIndex]);
+			boundaries[2 * p] = spans[p].loadTimestamp;
+			boundaries[(2 * p) + 1] = spans[p].unloadTimestamp;
+			loadOrder[p] = p;
+		}
+		Arrays.sort(boundaries);
+		Arrays.sort(loadOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Long.compare(spans[first].loadTimestamp, spans[second].loadTimestamp);
+			}
+		});
+
+		long starts[] = new long[boundaries.length];
+		int winners[] = new int[boundaries.length];
+		int count = 0;
+		PriorityQueue<Integer> loaded = new PriorityQueue<Integer>(Math.max(1, instances.length));
+		int nextLoad = 0;
+		for (int b = 0; b < boundaries.length; b++) {
+			long boundary = boundaries[b];
+			if ((b > 0) && (boundary == boundaries[b - 1]))
+				continue;
+			while ((nextLoad < loadOrder.length) && (spans[loadOrder[nextLoad]].loadTimestamp <= boundary))
+				loaded.add(loadOrder[nextLoad++]);
+			while (!loaded.isEmpty() && (spans[loaded.peek()].unloadTimestamp <= boundary))
+				loaded.poll();
+
+			int winner = loaded.isEmpty() ? -1 : instances[loaded.peek()];
+			if ((count == 0) || (winners[count - 1] != winner)) {
+				starts[count] = boundary;
+				winners[count] = winner;
+				count++;
+			}
+		}
+		spanStarts[segment][typeIndex] = Arrays.copyOf(starts, count);
+		spanInstances[segment][typeIndex] = Arrays.copyOf(winners, count);
 	}
 
 	public boolean hashOverlap() {
@@ -47,38 +177,45 @@ public class ProcessExecutionModuleSet {
 	}
 
 	public ModuleInstance getModule(long tag, long streamIndex, ExecutionTraceStreamType streamType) {
+		int typeIndex;
 		switch (streamType) {
 			case GRAPH_NODE:
-				for (int i = modules.length - 1; i >= 0; i--) {
-					ModuleInstance instance = modules[i];
-					if ((tag >= instance.start) && (tag <= instance.end)
-							&& (streamIndex >= instance.blockSpan.loadTimestamp)
-							&& (streamIndex < instance.blockSpan.unloadTimestamp))
-						return instance;
-				}
+				typeIndex = 0;
 				break;
 			case GRAPH_EDGE:
-				for (int i = modules.length - 1; i >= 0; i--) {
-					ModuleInstance instance = modules[i];
-					if ((tag >= instance.start) && (tag <= instance.end)
-							&& (streamIndex >= instance.edgeSpan.loadTimestamp)
-							&& (streamIndex < instance.edgeSpan.unloadTimestamp))
-						return instance;
-				}
+				typeIndex = 1;
 				break;
 			case CROSS_MODULE_EDGE:
-				for (int i = modules.length - 1; i >= 0; i--) {
-					ModuleInstance instance = modules[i];
-					if ((tag >= instance.start) && (tag <= instance.end)
-							&& (streamIndex >= instance.crossModuleEdgeSpan.loadTimestamp)
-							&& (streamIndex < instance.crossModuleEdgeSpan.unloadTimestamp))
-						return instance;
-				}
+				typeIndex = 2;
 				break;
 			default:
 				throw new IllegalArgumentException("Cannot identify modules for stream type " + streamType);
 		}
-		Log.log("Error! Failed to identify the module for tag 0x%x", tag);
+
+		int segment = Arrays.binarySearch(segmentStarts, tag);
+		if (segment < 0)
+			segment = -(segment + 2); // the segment starting below the insertion point
+		if (segment >= 0) {
+			long starts[] = spanStarts[segment][typeIndex];
+			int span = Arrays.binarySearch(starts, streamIndex);
+			if (span < 0)
+				span = -(span + 2);
+			if ((span >= 0) && (spanInstances[segment][typeIndex][span] >= 0))
+				return modules[spanInstances[segment][typeIndex][span]];
+		}
+		if (unknownModuleTags.count())
+			unknownModuleTags.sample(tag, streamType, streamIndex);
 		return null;
 	}
+
+	private static ModuleInstance.Span getSpan(ModuleInstance instance, ExecutionTraceStreamType streamType) {
+		switch (streamType) {
+			case GRAPH_NODE:
+				return instance.blockSpan;
+			case GRAPH_EDGE:
+				return instance.edgeSpan;
+			default:
+				return instance.crossModuleEdgeSpan;
+		}
+	}
 }
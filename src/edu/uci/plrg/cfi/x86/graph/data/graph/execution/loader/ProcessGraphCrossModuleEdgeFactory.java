@@ -16,6 +16,7 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ExecutionNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ModuleInstance;
 import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
 import edu.uci.plrg.cfi.x86.graph.util.CrowdSafeTraceUtil;
+import edu.uci.plrg.cfi.x86.graph.util.Diagnostics;
 
 /**
  * Before calling this function, you should have all the normal nodes added to the corresponding graph and their indexes
@@ -35,12 +36,20 @@ public class ProcessGraphCrossModuleEdgeFactory {
 	private final ProcessGraphLoadSession.GraphLoader loader;
 	private final LittleEndianInputStream input;
 
+	private final Diagnostics.Category missingSourceBlocks;
+	private final Diagnostics.Category missingDestinationBlocks;
+
 	long edgeIndex = -1;
 
 	public ProcessGraphCrossModuleEdgeFactory(ProcessGraphLoadSession.GraphLoader loader, LittleEndianInputStream input)
 			throws IOException {
 		this.loader = loader;
 		this.input = input;
+
+		missingSourceBlocks = loader.diagnostics.category("missing cross-module edge source",
+				"Problem at cross-module edge index %d: missing cross-module edge source block %s!");
+		missingDestinationBlocks = loader.diagnostics.category("missing cross-module edge destination",
+				"Problem at cross-module edge index %d: missing cross-module edge destination block %s!");
 	}
 
 	boolean ready() throws IOException {
@@ -72,8 +81,8 @@ public class ProcessGraphCrossModuleEdgeFactory {
 
 		// Double check if tag1 and tag2 exist in the lookup file
 		if (fromNode == null) {
-			Log.log("Problem at cross-module edge index %d: missing cross-module edge source block %s!", edgeIndex,
-					ExecutionNode.Key.create(fromTag, fromVersion, fromModule));
+			if (missingSourceBlocks.count())
+				missingSourceBlocks.sample(edgeIndex, ExecutionNode.Key.create(fromTag, fromVersion, fromModule));
 			return;
 			/**
 			 * <pre>
@@ -82,8 +91,8 @@ public class ProcessGraphCrossModuleEdgeFactory {
 			 */
 		}
 		if (toNode == null) {
-			Log.log("Problem at cross-module edge index %d: missing cross-module edge destination block %s!",
-					edgeIndex, ExecutionNode.Key.create(toTag, toVersion, toModule));
+			if (missingDestinationBlocks.count())
+				missingDestinationBlocks.sample(edgeIndex, ExecutionNode.Key.create(toTag, toVersion, toModule));
 			return;
 			/**
 			 * <pre>
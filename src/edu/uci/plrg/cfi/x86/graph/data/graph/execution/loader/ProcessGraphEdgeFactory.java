@@ -13,6 +13,7 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ExecutionNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ModuleInstance;
 import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
 import edu.uci.plrg.cfi.x86.graph.util.CrowdSafeTraceUtil;
+import edu.uci.plrg.cfi.x86.graph.util.Diagnostics;
 
 public class ProcessGraphEdgeFactory {
 
@@ -21,12 +22,23 @@ public class ProcessGraphEdgeFactory {
 	private final ProcessGraphLoadSession.GraphLoader loader;
 	private final LittleEndianInputStream input;
 
+	private final Diagnostics.Category maxOrdinalEdges;
+	private final Diagnostics.Category missingFromNodes;
+	private final Diagnostics.Category missingToNodes;
+
 	long edgeIndex = -1;
 
 	public ProcessGraphEdgeFactory(ProcessGraphLoadSession.GraphLoader loader, LittleEndianInputStream input)
 			throws IOException {
 		this.loader = loader;
 		this.input = input;
+
+		maxOrdinalEdges = loader.diagnostics.category("edge with ordinal 255",
+				"Warning: skipping edge %s with ordinal 255");
+		missingFromNodes = loader.diagnostics.category("missing 'from' node",
+				"Problem at edge index %d: missing 'from' node for tag 0x%x-v%d(%s) in edge to 0x%x-v%d(%s) of type %s on ordinal %d");
+		missingToNodes = loader.diagnostics.category("missing 'to' node",
+				"Problem at edge index %d: missing 'to' node for tag 0x%x-v%d(%s) in edge #%d from 0x%x-v%d(%s) of type %s on ordinal %d");
 	}
 
 	boolean ready() throws IOException {
@@ -56,8 +68,8 @@ public class ProcessGraphEdgeFactory {
 		ExecutionNode toNode = loader.hashLookupTable.get(ExecutionNode.Key.create(toTag, toVersion, toModule));
 
 		if (edgeOrdinal == 255) {
-			Log.log("Warning: skipping edge %s with ordinal 255", new Edge<ExecutionNode>(fromNode, toNode, edgeType,
-					edgeOrdinal));
+			if (maxOrdinalEdges.count())
+				maxOrdinalEdges.sample(new Edge<ExecutionNode>(fromNode, toNode, edgeType, edgeOrdinal));
 			return;
 		}
 
@@ -68,9 +80,9 @@ public class ProcessGraphEdgeFactory {
 
 		// Double check if tag1 and tag2 exist in the lookup file
 		if (fromNode == null) {
-			Log.log("Problem at edge index %d: missing 'from' node for tag 0x%x-v%d(%s) in edge to 0x%x-v%d(%s) of type %s on ordinal %d",
-					edgeIndex, fromTag, fromVersion, fromModule.name, toTag, toVersion, toModule.name, edgeType,
-					edgeOrdinal);
+			if (missingFromNodes.count())
+				missingFromNodes.sample(edgeIndex, fromTag, fromVersion, fromModule.name, toTag, toVersion,
+						toModule.name, edgeType, edgeOrdinal);
 			return;
 		}
 		if (toNode == null) {
@@ -78,9 +90,9 @@ public class ProcessGraphEdgeFactory {
 			// return; // discard b/c we never reached the continuation point
 			// else {
 			// boolean fixed = false;
-			Log.log("Problem at edge index %d: missing 'to' node for tag 0x%x-v%d(%s) in edge #%d from 0x%x-v%d(%s) of type %s on ordinal %d",
-					edgeIndex, toTag, toVersion, toModule.name, edgeIndex, fromTag, fromVersion, fromModule.name,
-					edgeType, edgeOrdinal);
+			if (missingToNodes.count())
+				missingToNodes.sample(edgeIndex, toTag, toVersion, toModule.name, edgeIndex, fromTag, fromVersion,
+						fromModule.name, edgeType, edgeOrdinal);
 			return;
 			// }
 		}
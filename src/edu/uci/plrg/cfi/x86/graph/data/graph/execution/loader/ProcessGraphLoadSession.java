@@ -17,6 +17,7 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ProcessExecutionGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ProcessExecutionModuleSet;
 import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceDataSource;
 import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
+import edu.uci.plrg.cfi.x86.graph.util.Diagnostics;
 
 public class ProcessGraphLoadSession {
 
@@ -35,6 +36,7 @@ public class ProcessGraphLoadSession {
 			}
 		} finally {
 			nodeFactory.close();
+			modules.getDiagnostics().logSummary("Loading nodes from " + dataSource.getDirectory().getName());
 		}
 	}
 
@@ -47,6 +49,7 @@ public class ProcessGraphLoadSession {
 	class GraphLoader {
 		final ExecutionTraceDataSource dataSource;
 		final GraphLoadEventListener listener;
+		final Diagnostics diagnostics = new Diagnostics();
 
 		final Map<ExecutionNode.Key, ExecutionNode> hashLookupTable = new HashMap<ExecutionNode.Key, ExecutionNode>();
 		ProcessExecutionGraph graph;
@@ -59,6 +62,7 @@ public class ProcessGraphLoadSession {
 		ProcessExecutionGraph loadGraph() throws IOException {
 			ProcessModuleLoader moduleLoader = new ProcessModuleLoader();
 			ProcessExecutionModuleSet modules = moduleLoader.loadModules(dataSource);
+			modules.setDiagnostics(diagnostics);
 			graph = new ProcessExecutionGraph(String.format("process graph loaded from %s", dataSource.getDirectory()
 					.getName()), dataSource, modules);
 
@@ -70,6 +74,8 @@ public class ProcessGraphLoadSession {
 				throw e;
 			} catch (Exception e) {
 				throw new InvalidGraphException(e);
+			} finally {
+				diagnostics.logSummary("Loading graph from " + dataSource.getDirectory().getName());
 			}
 
 			graph.trimEmptyModules();
@@ -77,6 +83,7 @@ public class ProcessGraphLoadSession {
 			// Some other initialization and sanity checks
 			for (ApplicationModule cluster : graph.getRepresentedModules()) {
 				ModuleGraph<ExecutionNode> clusterGraph = graph.getModuleGraph(cluster);
+				clusterGraph.freezeEdges();
 				// clusterGraph.getGraphData().validate();
 				// clusterGraph.analyzeGraph();
 			}
@@ -7,6 +7,7 @@ import java.util.Map;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
 import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.ModuleGraph;
+import edu.uci.plrg.cfi.x86.graph.data.graph.PackedNodeKey;
 import edu.uci.plrg.cfi.x86.graph.data.results.Graph;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceStreamType;
 
@@ -46,15 +47,22 @@ public class ApplicationGraph {
 				return exit;
 		}
 
-		ModuleBasicBlock.Key key = new ModuleBasicBlock.Key(graph.module, relativeTag, 0);
-		while (graph.hasNode(key))
-			key = new ModuleBasicBlock.Key(graph.module, relativeTag, key.instanceId + 1);
+		int instanceId = 0;
+		while (hasBasicBlock(relativeTag, instanceId))
+			instanceId++;
 
-		ModuleBasicBlock node = new ModuleBasicBlock(key, hash, type);
+		ModuleBasicBlock node = new ModuleBasicBlock(graph.module, relativeTag, instanceId, hash, type);
 		graph.addNode(node);
 		return node;
 	}
 
+	private boolean hasBasicBlock(int relativeTag, int instanceId) {
+		long packedKey = PackedNodeKey.pack(graph.module, relativeTag, instanceId);
+		if (packedKey == PackedNodeKey.NONE)
+			return graph.hasNode(new ModuleBasicBlock.Key(graph.module, relativeTag, instanceId));
+		return graph.hasNode(packedKey);
+	}
+
 	public Graph.Node summarizeProcess() {
 		return null;
 	}
@@ -3,6 +3,7 @@ package edu.uci.plrg.cfi.x86.graph.data.graph.modular;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
 import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
+import edu.uci.plrg.cfi.x86.graph.data.graph.PackedNodeKey;
 
 public class ModuleBasicBlock extends ModuleNode<ModuleBasicBlock.Key> {
 
@@ -28,8 +29,17 @@ public class ModuleBasicBlock extends ModuleNode<ModuleBasicBlock.Key> {
 			return false;
 		}
 
+		@Override
+		public long getPackedKey() {
+			return PackedNodeKey.pack(module, relativeTag, instanceId);
+		}
+
 		@Override
 		public int hashCode() {
+			return hashCode(module, relativeTag, instanceId);
+		}
+
+		static int hashCode(ApplicationModule module, long relativeTag, int instanceId) {
 			final int prime = 31;
 			int result = 1;
 			result = prime * result + instanceId;
@@ -65,12 +75,25 @@ public class ModuleBasicBlock extends ModuleNode<ModuleBasicBlock.Key> {
 		}
 	}
 
+	/* the key fields are held inline, and the key object is only made on request */
+	private final ApplicationModule module;
+
+	private final long relativeTag;
+
+	private final int instanceId;
+
 	private final MetaNodeType type;
 
 	private final long hash;
 
 	public ModuleBasicBlock(Key key, long hash, MetaNodeType type) {
-		super(key);
+		this(key.module, key.relativeTag, key.instanceId, hash, type);
+	}
+
+	public ModuleBasicBlock(ApplicationModule module, long relativeTag, int instanceId, long hash, MetaNodeType type) {
+		this.module = module;
+		this.relativeTag = relativeTag;
+		this.instanceId = instanceId;
 		this.type = type;
 		this.hash = hash;
 
@@ -80,23 +103,29 @@ public class ModuleBasicBlock extends ModuleNode<ModuleBasicBlock.Key> {
 					MetaNodeType.MODULE_EXIT, type));
 	}
 
-	public ModuleBasicBlock(ApplicationModule module, long relativeTag, int instanceId, long hash, MetaNodeType type) {
-		this(new Key(module, relativeTag, instanceId), hash, type);
+	@Override
+	public Key getKey() {
+		return new Key(module, relativeTag, instanceId);
+	}
+
+	@Override
+	public long getPackedKey() {
+		return PackedNodeKey.pack(module, relativeTag, instanceId);
 	}
 
 	@Override
 	public ApplicationModule getModule() {
-		return key.module;
+		return module;
 	}
 
 	@Override
 	public int getRelativeTag() {
-		return (int) key.relativeTag;
+		return (int) relativeTag;
 	}
 
 	@Override
 	public int getInstanceId() {
-		return key.instanceId;
+		return instanceId;
 	}
 
 	@Override
@@ -116,7 +145,7 @@ public class ModuleBasicBlock extends ModuleNode<ModuleBasicBlock.Key> {
 
 		ModuleBasicBlock n = (ModuleBasicBlock) other;
 
-		return (key.relativeTag == n.key.relativeTag) && key.module.isEquivalent(n.key.module)
+		return (relativeTag == n.relativeTag) && module.isEquivalent(n.module)
 				&& (getType() == n.getType()) && (getHash() == n.getHash());
 	}
 
@@ -126,18 +155,36 @@ public class ModuleBasicBlock extends ModuleNode<ModuleBasicBlock.Key> {
 			return super.isModuleRelativeMismatch(other);
 
 		ModuleBasicBlock n = (ModuleBasicBlock) other;
-		if (key.module.isAnonymous || n.key.module.isAnonymous)
+		if (module.isAnonymous || n.module.isAnonymous)
 			return false;
 
-		return !(key.relativeTag == n.key.relativeTag) && key.module.equals(n.key.module) && (getType() == n.getType())
+		return !(relativeTag == n.relativeTag) && module.equals(n.module) && (getType() == n.getType())
 				&& (getHash() == n.getHash());
 	}
 
 	public String identify() {
-		return String.format("%s(0x%x-i%d|0x%x|%s)", key.module.filename, key.relativeTag, key.instanceId, hash,
+		return String.format("%s(0x%x-i%d|0x%x|%s)", module.filename, relativeTag, instanceId, hash,
 				type.code);
 	}
 
+	@Override
+	public int hashCode() {
+		return Key.hashCode(module, relativeTag, instanceId);
+	}
+
+	/**
+	 * Same as comparing the keys, without making them.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof ModuleBasicBlock))
+			return false;
+		ModuleBasicBlock other = (ModuleBasicBlock) o;
+		return (relativeTag == other.relativeTag) && (instanceId == other.instanceId) && module.equals(other.module);
+	}
+
 	@Override
 	public String toString() {
 		return identify();
@@ -11,6 +11,7 @@ import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
 import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
+import edu.uci.plrg.cfi.x86.graph.data.graph.PackedNodeKey;
 import edu.uci.plrg.cfi.x86.graph.util.CrowdSafeTraceUtil;
 
 public class ModuleBoundaryNode extends ModuleNode<ModuleBoundaryNode.Key> {
@@ -37,6 +38,14 @@ public class ModuleBoundaryNode extends ModuleNode<ModuleBoundaryNode.Key> {
 			return false;
 		}
 
+		/**
+		 * Boundary nodes are identified by a full 64-bit hash, which does not fit in a packed key.
+		 */
+		@Override
+		public long getPackedKey() {
+			return PackedNodeKey.NONE;
+		}
+
 		@Override
 		public int hashCode() {
 			final int prime = 31;
@@ -118,6 +127,22 @@ public class ModuleBoundaryNode extends ModuleNode<ModuleBoundaryNode.Key> {
 			return hashLabel;
 		}
 
+		/**
+		 * Recreate a label from the fields of an existing one, without parsing it.
+		 * 
+		 * @param propertyBits
+		 *            as returned by <code>getPropertyBits()</code>
+		 */
+		public static HashLabel restore(String label, long hash, int offset, String fromModuleFilename,
+				String toModuleFilename, int propertyBits) {
+			HashLabel hashLabel = new HashLabel(label, hash, offset, fromModuleFilename, toModuleFilename);
+			for (HashLabelProperty property : HashLabelProperty.values()) {
+				if ((propertyBits & (1 << property.ordinal())) != 0)
+					hashLabel.properties.add(property);
+			}
+			return hashLabel;
+		}
+
 		private static final Pattern ENTRY_PATTERN = Pattern.compile("^0x([0-9a-f]+) ([^0].*) 0x([0-9a-f]+)$");
 
 		private static final String CALLBACK_TAG = "!callback";
@@ -180,6 +205,13 @@ public class ModuleBoundaryNode extends ModuleNode<ModuleBoundaryNode.Key> {
 				properties.add(HashLabelProperty.HASH_LABEL_GENCODE);
 		}
 
+		public int getPropertyBits() {
+			int propertyBits = 0;
+			for (HashLabelProperty property : properties)
+				propertyBits |= (1 << property.ordinal());
+			return propertyBits;
+		}
+
 		public boolean isFromAnonymous() {
 			return properties.contains(HashLabelProperty.HASH_LABEL_FROM_ANONYMOUS);
 		}
@@ -210,10 +242,12 @@ public class ModuleBoundaryNode extends ModuleNode<ModuleBoundaryNode.Key> {
 		}
 	}
 
+	private final Key key;
+
 	public final HashLabel hashLabel;
 
 	public ModuleBoundaryNode(long hash, MetaNodeType type) {
-		super(new Key(hash, type));
+		key = new Key(hash, type);
 
 		hashLabel = ApplicationModuleSet.getInstance().crossModuleLabels.get(hash);
 
@@ -223,6 +257,11 @@ public class ModuleBoundaryNode extends ModuleNode<ModuleBoundaryNode.Key> {
 					MetaNodeType.MODULE_EXIT, type));
 	}
 
+	@Override
+	public Key getKey() {
+		return key;
+	}
+
 	@Override
 	public ApplicationModule getModule() {
 		return ApplicationModule.BOUNDARY_MODULE;
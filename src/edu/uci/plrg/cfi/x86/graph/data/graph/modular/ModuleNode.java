@@ -18,20 +18,12 @@ public abstract class ModuleNode<KeyType extends Node.Key> extends Node<ModuleNo
 	public static final int SYSCALL_SINGLETON_END = SYSCALL_SINGLETON_START + SYSCALL_COUNT;
 	public static final int FAKE_ANONYMOUS_TAG_START = SYSCALL_SINGLETON_END + 1;
 
-	final KeyType key;
-
-	protected ModuleNode(KeyType key) {
-		this.key = key;
-	}
-
 	public abstract int getInstanceId();
 
 	public abstract ApplicationModule getModule();
 
 	@Override
-	public KeyType getKey() {
-		return key;
-	}
+	public abstract KeyType getKey();
 
 	public void addIncomingEdge(Edge<ModuleNode<?>> e) {
 		edges.addEdge(EdgeSet.Direction.INCOMING, e);
@@ -60,13 +52,13 @@ public abstract class ModuleNode<KeyType extends Node.Key> extends Node<ModuleNo
 
 	@Override
 	public int hashCode() {
-		return key.hashCode();
+		return getKey().hashCode();
 	}
 
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof ModuleNode) {
-			return key.equals(((ModuleNode<?>) o).key);
+			return getKey().equals(((ModuleNode<?>) o).getKey());
 		}
 		return false;
 	}
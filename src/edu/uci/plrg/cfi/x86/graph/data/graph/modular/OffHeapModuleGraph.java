@@ -0,0 +1,506 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.modular;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
+import edu.uci.plrg.cfi.common.log.Log;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
+
+/**
+ * Read-only module graph that keeps its nodes, edges and hash index outside the Java heap, either in direct buffers or
+ * in mappings of scratch files that are deleted as soon as they are mapped. Each node is a dense int id (its index in
+ * the node stream) into a table of 16-byte records. The edges are the words of the module's edge stream, sorted into
+ * compressed rows once by source node and once by target node, so a module with millions of nodes and edges costs a
+ * handful of heap objects. The outgoing edges of a node are grouped by ordinal, as in <code>ModuleGraph</code>.
+ *
+ * The accessors follow <code>ModuleGraph</code> and <code>CompactModuleGraph</code>. Like <code>nodesByHash</code>,
+ * <code>getNodesByHash()</code> excludes the module boundary nodes, which are found by <code>getEntryPoint()</code> and
+ * <code>getExitPoint()</code> instead. <code>getNode()</code> creates a detached <code>ModuleNode</code> without edges,
+ * for reporting. The same edges are dropped as by <code>loadModuleGraph()</code>: duplicate edge words, and edges whose
+ * type differs from the first edge of their ordinal. The graph has no metadata, which refers to <code>Edge</code>
+ * objects. The memory is released when the graph is garbage collected.
+ */
+public class OffHeapModuleGraph {
+
+	public enum Storage {
+		/* direct buffers, which count against -XX:MaxDirectMemorySize */
+		DIRECT,
+		/* shared mappings of deleted files in java.io.tmpdir, which are paged by the OS */
+		MAPPED;
+	}
+
+	private static final int NODE_RECORD_SIZE = 0x10;
+	private static final int EDGE_WORD_SIZE = 0x8;
+	private static final int OFFSET_SIZE = 0x4;
+	private static final int INITIAL_CAPACITY = 0x400;
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE & ~0xf;
+	/* longer rows are sorted on the heap */
+	private static final int INSERTION_SORT_LIMIT = 0x10;
+
+	private static final EdgeType EDGE_TYPES[] = EdgeType.values();
+	private static final MetaNodeType NODE_TYPES[] = MetaNodeType.values();
+
+	public final String name;
+	public final ApplicationModule module;
+	public final Storage storage;
+
+	private int nodeCount = 0;
+	private int edgeCount = 0;
+	private boolean isLoaded = false;
+
+	/* node record: long (relative tag | instance id << 0x20 | type << 0x28), long hash */
+	private ByteBuffer nodes;
+	/* edge words in stream order, only while loading */
+	private ByteBuffer edgeWords;
+	private int edgeWordCount = 0;
+
+	/* the outgoing edge words of node n are at [outgoingOffsets[n], outgoingOffsets[n + 1]), in unsigned order */
+	private ByteBuffer outgoingOffsets;
+	private ByteBuffer outgoingEdges;
+	/* the incoming edge words of node n, in order of source node */
+	private ByteBuffer incomingOffsets;
+	private ByteBuffer incomingEdges;
+
+	/* open addressing on the node hash: each slot holds a node id + 1, or 0 when empty */
+	private ByteBuffer hashIndex;
+	private int hashIndexMask;
+
+	public OffHeapModuleGraph(String name, ApplicationModule module, Storage storage) throws IOException {
+		this.name = name;
+		this.module = module;
+		this.storage = storage;
+
+		nodes = allocate(INITIAL_CAPACITY * NODE_RECORD_SIZE);
+		edgeWords = allocate(INITIAL_CAPACITY * EDGE_WORD_SIZE);
+	}
+
+	public void addNode(long relativeTag, int instanceId, MetaNodeType type, long hash) throws IOException {
+		checkLoading();
+
+		nodes = ensureCapacity(nodes, (nodeCount + 1L) * NODE_RECORD_SIZE);
+		int position = nodeCount * NODE_RECORD_SIZE;
+		nodes.putLong(position, (relativeTag & 0xffffffffL) | ((instanceId & 0xffL) << 0x20)
+				| (((long) type.ordinal()) << 0x28));
+		nodes.putLong(position + 8, hash);
+		nodeCount++;
+	}
+
+	/**
+	 * @param edgeWord
+	 *            an edge in the format of the raw edge stream, referring to nodes by their index in the node stream
+	 */
+	public void addEdge(long edgeWord) throws IOException {
+		checkLoading();
+
+		edgeWords = ensureCapacity(edgeWords, (edgeWordCount + 1L) * EDGE_WORD_SIZE);
+		edgeWords.putLong(edgeWordCount * EDGE_WORD_SIZE, edgeWord);
+		edgeWordCount++;
+	}
+
+	/**
+	 * Sort the edges into rows and build the hash index. The graph can only be read after this.
+	 */
+	public void completeLoading() throws IOException {
+		checkLoading();
+
+		buildOutgoingRows();
+		buildIncomingRows();
+		buildHashIndex();
+		isLoaded = true;
+	}
+
+	private void buildOutgoingRows() throws IOException {
+		outgoingOffsets = allocate((nodeCount + 1L) * OFFSET_SIZE);
+		int invalidCount = 0;
+		for (int i = 0; i < edgeWordCount; i++) {
+			long edgeWord = edgeWords.getLong(i * EDGE_WORD_SIZE);
+			if (isValid(edgeWord))
+				incrementOffset(outgoingOffsets, getFromIndex(edgeWord) + 1);
+			else
+				invalidCount++;
+		}
+		if (invalidCount > 0) {
+			Log.log("Warning: skipping %d edges of %s that refer to nodes beyond the %d in the node stream.",
+					invalidCount, name, nodeCount);
+		}
+		accumulateOffsets(outgoingOffsets);
+
+		/* offset n + 1 is the cursor of row n, which ends up at the end of the row */
+		outgoingEdges = allocate(((long) (edgeWordCount - invalidCount)) * EDGE_WORD_SIZE);
+		for (int i = 0; i < edgeWordCount; i++) {
+			long edgeWord = edgeWords.getLong(i * EDGE_WORD_SIZE);
+			if (isValid(edgeWord))
+				placeEdge(outgoingOffsets, outgoingEdges, getFromIndex(edgeWord), edgeWord);
+		}
+		edgeWords = null;
+
+		/*
+		 * Each row is in stream order, so the first edge of each ordinal sets its type, and the edges of any other type
+		 * are dropped as in EdgeSet. Then each row is sorted and its duplicates dropped, shifting the rows down over the
+		 * gaps.
+		 */
+		int ordinalTypes[] = new int[0x10];
+		int rowStart = 0;
+		int edgeIndex = 0;
+		for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+			int rowEnd = getOffset(outgoingOffsets, nodeId + 1);
+			Arrays.fill(ordinalTypes, -1);
+			int keptEnd = rowStart;
+			for (int i = rowStart; i < rowEnd; i++) {
+				long edgeWord = outgoingEdges.getLong(i * EDGE_WORD_SIZE);
+				int ordinal = getOrdinalOf(edgeWord);
+				int type = getEdgeTypeOf(edgeWord).ordinal();
+				if (ordinalTypes[ordinal] < 0) {
+					ordinalTypes[ordinal] = type;
+				} else if (ordinalTypes[ordinal] != type) {
+					Log.log("Warning: skipping edge 0x%x of type %s in ordinal %d of type %s", edgeWord,
+							EDGE_TYPES[type], ordinal, EDGE_TYPES[ordinalTypes[ordinal]]);
+					continue;
+				}
+				outgoingEdges.putLong(keptEnd * EDGE_WORD_SIZE, edgeWord);
+				keptEnd++;
+			}
+
+			sortRow(outgoingEdges, rowStart, keptEnd);
+			setOffset(outgoingOffsets, nodeId, edgeIndex);
+			for (int i = rowStart; i < keptEnd; i++) {
+				long edgeWord = outgoingEdges.getLong(i * EDGE_WORD_SIZE);
+				if ((i > rowStart) && (edgeWord == outgoingEdges.getLong((edgeIndex - 1) * EDGE_WORD_SIZE))) {
+					Log.log("Error: duplicate edge 0x%x", edgeWord);
+					continue;
+				}
+				outgoingEdges.putLong(edgeIndex * EDGE_WORD_SIZE, edgeWord);
+				edgeIndex++;
+			}
+			rowStart = rowEnd;
+		}
+		setOffset(outgoingOffsets, nodeCount, edgeIndex);
+		edgeCount = edgeIndex;
+	}
+
+	private void buildIncomingRows() throws IOException {
+		incomingOffsets = allocate((nodeCount + 1L) * OFFSET_SIZE);
+		for (int i = 0; i < edgeCount; i++)
+			incrementOffset(incomingOffsets, getToIndex(outgoingEdges.getLong(i * EDGE_WORD_SIZE)) + 1);
+		accumulateOffsets(incomingOffsets);
+
+		incomingEdges = allocate(((long) edgeCount) * EDGE_WORD_SIZE);
+		for (int i = 0; i < edgeCount; i++) {
+			long edgeWord = outgoingEdges.getLong(i * EDGE_WORD_SIZE);
+			placeEdge(incomingOffsets, incomingEdges, getToIndex(edgeWord), edgeWord);
+		}
+	}
+
+	private void buildHashIndex() throws IOException {
+		int capacity = 2;
+		while (capacity < (nodeCount * 2))
+			capacity <<= 1;
+		hashIndex = allocate(((long) capacity) * OFFSET_SIZE);
+		hashIndexMask = capacity - 1;
+
+		for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+			int slot = getHashSlot(getHash(nodeId));
+			while (getOffset(hashIndex, slot) != 0)
+				slot = (slot + 1) & hashIndexMask;
+			setOffset(hashIndex, slot, nodeId + 1);
+		}
+	}
+
+	private boolean isValid(long edgeWord) {
+		return (getFromIndex(edgeWord) < nodeCount) && (getToIndex(edgeWord) < nodeCount);
+	}
+
+	private static void placeEdge(ByteBuffer offsets, ByteBuffer edges, int nodeId, long edgeWord) {
+		int edgeIndex = getOffset(offsets, nodeId + 1);
+		edges.putLong(edgeIndex * EDGE_WORD_SIZE, edgeWord);
+		setOffset(offsets, nodeId + 1, edgeIndex + 1);
+	}
+
+	/**
+	 * Replace the edge count of row n in offset n + 1 with the start of row n, which is its cursor for placing edges.
+	 */
+	private void accumulateOffsets(ByteBuffer offsets) {
+		int total = 0;
+		for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+			int count = getOffset(offsets, nodeId + 1);
+			setOffset(offsets, nodeId + 1, total);
+			total += count;
+		}
+	}
+
+	/**
+	 * Sort the edge words in [start, end) as unsigned numbers, which groups them by ordinal and then by edge type.
+	 */
+	private static void sortRow(ByteBuffer edges, int start, int end) {
+		if ((end - start) <= INSERTION_SORT_LIMIT) {
+			for (int i = start + 1; i < end; i++) {
+				long edgeWord = edges.getLong(i * EDGE_WORD_SIZE);
+				int j = i - 1;
+				for (; j >= start; j--) {
+					long previous = edges.getLong(j * EDGE_WORD_SIZE);
+					if ((previous ^ Long.MIN_VALUE) <= (edgeWord ^ Long.MIN_VALUE))
+						break;
+					edges.putLong((j + 1) * EDGE_WORD_SIZE, previous);
+				}
+				edges.putLong((j + 1) * EDGE_WORD_SIZE, edgeWord);
+			}
+		} else {
+			long row[] = new long[end - start];
+			for (int i = 0; i < row.length; i++)
+				row[i] = edges.getLong((start + i) * EDGE_WORD_SIZE) ^ Long.MIN_VALUE;
+			Arrays.sort(row);
+			for (int i = 0; i < row.length; i++)
+				edges.putLong((start + i) * EDGE_WORD_SIZE, row[i] ^ Long.MIN_VALUE);
+		}
+	}
+
+	private int getHashSlot(long hash) {
+		long mixed = hash * 0x9e3779b97f4a7c15L;
+		return ((int) (mixed ^ (mixed >>> 0x20))) & hashIndexMask;
+	}
+
+	private void checkLoading() {
+		if (isLoaded)
+			throw new IllegalStateException(String.format("Off-heap graph %s is read-only after loading.", name));
+	}
+
+	private ByteBuffer ensureCapacity(ByteBuffer buffer, long size) throws IOException {
+		if (size <= buffer.capacity())
+			return buffer;
+
+		long capacity = Math.max(size, Math.min(buffer.capacity() * 2L, MAX_CAPACITY));
+		ByteBuffer grown = allocate(capacity);
+		buffer.clear();
+		grown.put(buffer);
+		return grown;
+	}
+
+	private ByteBuffer allocate(long capacity) throws IOException {
+		if (capacity > MAX_CAPACITY)
+			throw new InvalidGraphException("Graph %s is too large for off-heap storage", name);
+
+		capacity = Math.max(capacity, EDGE_WORD_SIZE);
+		if (storage == Storage.DIRECT)
+			return ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.nativeOrder());
+
+		File scratchFile = File.createTempFile("cfi-graph-", ".offheap");
+		RandomAccessFile file = new RandomAccessFile(scratchFile, "rw");
+		try {
+			file.setLength(capacity);
+			return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, capacity).order(ByteOrder.nativeOrder());
+		} finally {
+			file.close();
+			if (!scratchFile.delete())
+				scratchFile.deleteOnExit();
+		}
+	}
+
+	private static int getOffset(ByteBuffer offsets, int index) {
+		return offsets.getInt(index * OFFSET_SIZE);
+	}
+
+	private static void setOffset(ByteBuffer offsets, int index, int value) {
+		offsets.putInt(index * OFFSET_SIZE, value);
+	}
+
+	private static void incrementOffset(ByteBuffer offsets, int index) {
+		setOffset(offsets, index, getOffset(offsets, index) + 1);
+	}
+
+	private static int getFromIndex(long edgeWord) {
+		return (int) (edgeWord & 0xfffffffL);
+	}
+
+	private static int getToIndex(long edgeWord) {
+		return (int) ((edgeWord >> 0x1cL) & 0xfffffffL);
+	}
+
+	private static EdgeType getEdgeTypeOf(long edgeWord) {
+		return EDGE_TYPES[(int) ((edgeWord >> 0x38L) & 0xfL)];
+	}
+
+	private static int getOrdinalOf(long edgeWord) {
+		return (int) ((edgeWord >> 0x3cL) & 0xfL);
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * @return the number of bytes held outside the heap
+	 */
+	public long getOffHeapSize() {
+		long size = nodes.capacity();
+		for (ByteBuffer buffer : new ByteBuffer[] { edgeWords, outgoingOffsets, outgoingEdges, incomingOffsets,
+				incomingEdges, hashIndex }) {
+			if (buffer != null)
+				size += buffer.capacity();
+		}
+		return size;
+	}
+
+	public long getRelativeTag(int nodeId) {
+		return nodes.getLong(nodeId * NODE_RECORD_SIZE) & 0xffffffffL;
+	}
+
+	public int getInstanceId(int nodeId) {
+		return (int) ((nodes.getLong(nodeId * NODE_RECORD_SIZE) >> 0x20) & 0xffL);
+	}
+
+	public MetaNodeType getNodeType(int nodeId) {
+		return NODE_TYPES[(int) ((nodes.getLong(nodeId * NODE_RECORD_SIZE) >> 0x28) & 0xffL)];
+	}
+
+	public long getHash(int nodeId) {
+		return nodes.getLong((nodeId * NODE_RECORD_SIZE) + 8);
+	}
+
+	public boolean isModuleBoundaryNode(int nodeId) {
+		MetaNodeType type = getNodeType(nodeId);
+		return (type == MetaNodeType.MODULE_ENTRY) || (type == MetaNodeType.MODULE_EXIT);
+	}
+
+	/**
+	 * @return a new node with the fields of <code>nodeId</code>, which is not connected to any edges
+	 */
+	public ModuleNode<?> getNode(int nodeId) {
+		MetaNodeType type = getNodeType(nodeId);
+		switch (type) {
+			case MODULE_ENTRY:
+			case MODULE_EXIT:
+				return new ModuleBoundaryNode(getHash(nodeId), type);
+			default:
+				return new ModuleBasicBlock(module, getRelativeTag(nodeId), getInstanceId(nodeId), getHash(nodeId),
+						type);
+		}
+	}
+
+	/**
+	 * @return the ids of the nodes having <code>hash</code>, in ascending order, excluding module boundary nodes
+	 */
+	public int[] getNodesByHash(long hash) {
+		int count = 0;
+		for (int slot = getHashSlot(hash);; slot = (slot + 1) & hashIndexMask) {
+			int nodeId = getOffset(hashIndex, slot) - 1;
+			if (nodeId < 0)
+				break;
+			if ((getHash(nodeId) == hash) && !isModuleBoundaryNode(nodeId))
+				count++;
+		}
+
+		int nodeIds[] = new int[count];
+		int i = 0;
+		for (int slot = getHashSlot(hash); i < count; slot = (slot + 1) & hashIndexMask) {
+			int nodeId = getOffset(hashIndex, slot) - 1;
+			if ((getHash(nodeId) == hash) && !isModuleBoundaryNode(nodeId))
+				nodeIds[i++] = nodeId;
+		}
+		Arrays.sort(nodeIds);
+		return nodeIds;
+	}
+
+	/**
+	 * @return the id of the first module entry node having <code>hash</code>, or -1 if there is none
+	 */
+	public int getEntryPoint(long hash) {
+		return findBoundaryNode(hash, MetaNodeType.MODULE_ENTRY);
+	}
+
+	/**
+	 * @return the id of the first module exit node having <code>hash</code>, or -1 if there is none
+	 */
+	public int getExitPoint(long hash) {
+		return findBoundaryNode(hash, MetaNodeType.MODULE_EXIT);
+	}
+
+	private int findBoundaryNode(long hash, MetaNodeType type) {
+		int firstNodeId = -1;
+		for (int slot = getHashSlot(hash);; slot = (slot + 1) & hashIndexMask) {
+			int nodeId = getOffset(hashIndex, slot) - 1;
+			if (nodeId < 0)
+				break;
+			if ((getHash(nodeId) == hash) && (getNodeType(nodeId) == type)
+					&& ((firstNodeId < 0) || (nodeId < firstNodeId)))
+				firstNodeId = nodeId;
+		}
+		return firstNodeId;
+	}
+
+	/**
+	 * @return the index of the node's first outgoing edge, for the edge accessors
+	 */
+	public int getOutgoingStart(int nodeId) {
+		return getOffset(outgoingOffsets, nodeId);
+	}
+
+	/**
+	 * @return one past the index of the node's last outgoing edge
+	 */
+	public int getOutgoingEnd(int nodeId) {
+		return getOffset(outgoingOffsets, nodeId + 1);
+	}
+
+	public int getOutgoingDegree(int nodeId) {
+		return getOutgoingEnd(nodeId) - getOutgoingStart(nodeId);
+	}
+
+	public int getTarget(int edgeIndex) {
+		return getToIndex(outgoingEdges.getLong(edgeIndex * EDGE_WORD_SIZE));
+	}
+
+	public EdgeType getEdgeType(int edgeIndex) {
+		return getEdgeTypeOf(outgoingEdges.getLong(edgeIndex * EDGE_WORD_SIZE));
+	}
+
+	public int getOrdinal(int edgeIndex) {
+		return getOrdinalOf(outgoingEdges.getLong(edgeIndex * EDGE_WORD_SIZE));
+	}
+
+	/**
+	 * @return the index of the node's first incoming edge, for the incoming edge accessors
+	 */
+	public int getIncomingStart(int nodeId) {
+		return getOffset(incomingOffsets, nodeId);
+	}
+
+	/**
+	 * @return one past the index of the node's last incoming edge
+	 */
+	public int getIncomingEnd(int nodeId) {
+		return getOffset(incomingOffsets, nodeId + 1);
+	}
+
+	public int getIncomingDegree(int nodeId) {
+		return getIncomingEnd(nodeId) - getIncomingStart(nodeId);
+	}
+
+	public int getSource(int incomingEdgeIndex) {
+		return getFromIndex(incomingEdges.getLong(incomingEdgeIndex * EDGE_WORD_SIZE));
+	}
+
+	public EdgeType getIncomingEdgeType(int incomingEdgeIndex) {
+		return getEdgeTypeOf(incomingEdges.getLong(incomingEdgeIndex * EDGE_WORD_SIZE));
+	}
+
+	public int getIncomingOrdinal(int incomingEdgeIndex) {
+		return getOrdinalOf(incomingEdges.getLong(incomingEdgeIndex * EDGE_WORD_SIZE));
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
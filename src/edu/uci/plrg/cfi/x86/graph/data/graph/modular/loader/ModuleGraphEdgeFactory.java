@@ -1,9 +1,8 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph.modular.loader;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
 import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
@@ -12,7 +11,16 @@ import edu.uci.plrg.cfi.common.util.MutableInteger;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Edge;
 import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
-
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.OffHeapModuleGraph;
+import edu.uci.plrg.cfi.x86.graph.io.modular.CompactGraphStreams;
+import edu.uci.plrg.cfi.x86.graph.util.LongIntHashMap;
+import edu.uci.plrg.cfi.x86.graph.util.LongObjectHashMap;
+
+/**
+ * Decodes the whole edge stream into an array on the first call to <code>ready()</code>, and creates the edges from
+ * the array. Duplicate edge words are found by sorting a copy of the array, so that only the duplicated words need to be
+ * tracked while the edges are created.
+ */
 public class ModuleGraphEdgeFactory {
 
 	private enum LookupType {
@@ -22,18 +30,31 @@ public class ModuleGraphEdgeFactory {
 	}
 
 	private static final int ENTRY_BYTE_COUNT = 0x8;
+	private static final int INITIAL_CAPACITY = 0x400;
 
 	private final List<ModuleNode<?>> nodeList;
 	private MutableInteger nodeListOffset = null;
 	private final LittleEndianInputStream input;
+	private final CompactGraphStreams.EdgeDecoder compactInput;
 
-	private final Map<Long, Edge<ModuleNode<?>>> existingEdges = new HashMap<Long, Edge<ModuleNode<?>>>();
+	private long edgeWords[] = null;
+	private int edgeWordCount = 0;
+	private int position = 0;
 
-	private Long previousValue = null;
+	/* null if the stream has no duplicate edge words */
+	private LongIntHashMap duplicateWords = null;
+	private final LongObjectHashMap<Edge<ModuleNode<?>>> duplicatedEdges = new LongObjectHashMap<Edge<ModuleNode<?>>>();
 
 	ModuleGraphEdgeFactory(List<ModuleNode<?>> nodeList, LittleEndianInputStream input) {
 		this.nodeList = nodeList;
 		this.input = input;
+		this.compactInput = null;
+	}
+
+	ModuleGraphEdgeFactory(List<ModuleNode<?>> nodeList, CompactGraphStreams.EdgeDecoder compactInput) {
+		this.nodeList = nodeList;
+		this.input = null;
+		this.compactInput = compactInput;
 	}
 
 	void activateSegmentedLoading(MutableInteger nodeListOffset) {
@@ -41,23 +62,63 @@ public class ModuleGraphEdgeFactory {
 	}
 
 	boolean ready() throws IOException {
-		return input.ready(ENTRY_BYTE_COUNT);
+		if (edgeWords == null)
+			decodeEdgeWords();
+		return position < edgeWordCount;
 	}
 
-	Edge<ModuleNode<?>> createEdge() throws IOException {
-		long value;
-		if (previousValue == null) {
-			value = input.readLong();
-			Log.detail("Loaded edge value 0x%x", value);
+	private void decodeEdgeWords() throws IOException {
+		if (compactInput == null) {
+			edgeWords = new long[Math.max(INITIAL_CAPACITY, input.available() / ENTRY_BYTE_COUNT)];
+			while (input.ready(ENTRY_BYTE_COUNT)) {
+				if (edgeWordCount == edgeWords.length)
+					edgeWords = Arrays.copyOf(edgeWords, edgeWordCount << 1);
+				edgeWords[edgeWordCount++] = input.readLong();
+			}
+		} else {
+			edgeWords = new long[INITIAL_CAPACITY];
+			while (compactInput.ready()) {
+				if (edgeWordCount == edgeWords.length)
+					edgeWords = Arrays.copyOf(edgeWords, edgeWordCount << 1);
+				edgeWords[edgeWordCount++] = compactInput.readEdge();
+			}
+		}
+
+		long sortedWords[] = Arrays.copyOf(edgeWords, edgeWordCount);
+		Arrays.sort(sortedWords);
+		for (int i = 1; i < sortedWords.length; i++) {
+			if (sortedWords[i] == sortedWords[i - 1]) {
+				if (duplicateWords == null)
+					duplicateWords = new LongIntHashMap();
+				duplicateWords.put(sortedWords[i], 1);
+			}
+		}
+	}
+
+	/**
+	 * Copy the edge words straight into <code>graph</code>, instead of creating edges. This factory can't create edges
+	 * afterwards.
+	 */
+	void loadEdges(OffHeapModuleGraph graph) throws IOException {
+		if (compactInput == null) {
+			while (input.ready(ENTRY_BYTE_COUNT))
+				graph.addEdge(input.readLong());
 		} else {
-			value = previousValue;
-			previousValue = null;
+			while (compactInput.ready())
+				graph.addEdge(compactInput.readEdge());
 		}
+	}
 
-		Edge<ModuleNode<?>> edge = existingEdges.get(value);
-		if (edge != null) {
-			Log.log("Error: duplicate edge 0x%x", value);
-			return edge;
+	Edge<ModuleNode<?>> createEdge() throws IOException {
+		long value = edgeWords[position++];
+
+		boolean isDuplicated = (duplicateWords != null) && (duplicateWords.get(value) != LongIntHashMap.NOT_FOUND);
+		if (isDuplicated) {
+			Edge<ModuleNode<?>> edge = duplicatedEdges.get(value);
+			if (edge != null) {
+				Log.log("Error: duplicate edge 0x%x", value);
+				return edge;
+			}
 		}
 
 		int fromNodeIndex = (int) (value & 0xfffffffL);
@@ -74,7 +135,7 @@ public class ModuleGraphEdgeFactory {
 				throw new InvalidGraphException("Edge (#%d)->(#%d) crosses anonymous subgraph partitions!",
 						fromNodeIndex, toNodeIndex);
 			}
-			previousValue = value;
+			position--; // the edge is created with the next subgraph
 			return null;
 		}
 		ModuleNode<?> fromNode = nodeList.get(fromNodeIndex - offset);
@@ -83,8 +144,9 @@ public class ModuleGraphEdgeFactory {
 		// if ((fromNode.getModule().unit.isAnonymous) && (type == EdgeType.CALL_CONTINUATION))
 		// throw new IllegalStateException("Anonymous edges may not be call continuations!");
 
-		edge = new Edge<ModuleNode<?>>(fromNode, toNode, type, ordinal);
-		existingEdges.put(value, edge);
+		Edge<ModuleNode<?>> edge = new Edge<ModuleNode<?>>(fromNode, toNode, type, ordinal);
+		if (isDuplicated)
+			duplicatedEdges.put(value, edge);
 
 		fromNode.addOutgoingEdge(edge);
 		toNode.addIncomingEdge(edge);
@@ -93,6 +155,14 @@ public class ModuleGraphEdgeFactory {
 	}
 
 	void close() throws IOException {
+		if (position < edgeWordCount)
+			Log.log("Warning: %d edges were decoded but not created.", edgeWordCount - position);
+
+		if (compactInput != null) {
+			compactInput.close();
+			return;
+		}
+
 		if (input.ready())
 			Log.log("Warning: input stream %s has %d bytes remaining.", input.description, input.available());
 
@@ -19,9 +19,12 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ExecutionNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ProcessExecutionModuleSet;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ApplicationGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.OffHeapModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleMetadataSequence;
 import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceDataSource;
+import edu.uci.plrg.cfi.x86.graph.io.modular.CompactGraphStreams;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDataSource;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceEncoding;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceStreamType;
 
 public class ModuleGraphLoadSession {
@@ -31,9 +34,20 @@ public class ModuleGraphLoadSession {
 	}
 
 	private final ModularTraceDataSource dataSource;
+	private final boolean memoryMapped;
 
 	public ModuleGraphLoadSession(ModularTraceDataSource dataSource) {
+		this(dataSource, false);
+	}
+
+	/**
+	 * @param memoryMapped
+	 *            read the raw module streams from memory mappings, which is faster when the same run is loaded
+	 *            repeatedly and its files stay in the page cache
+	 */
+	public ModuleGraphLoadSession(ModularTraceDataSource dataSource, boolean memoryMapped) {
 		this.dataSource = dataSource;
+		this.memoryMapped = memoryMapped;
 	}
 
 	public void loadNodes(ExecutionTraceDataSource dataSource, ExecutionNodeCollection collection,
@@ -73,6 +87,70 @@ public class ModuleGraphLoadSession {
 		return graphLoader.loadGraph();
 	}
 
+	/**
+	 * Load the nodes and edges of <code>module</code> into off-heap storage, without creating node or edge objects. The
+	 * metadata is not loaded.
+	 */
+	public OffHeapModuleGraph loadOffHeapGraph(ApplicationModule module, OffHeapModuleGraph.Storage storage)
+			throws IOException {
+		if (!dataSource.getReprsentedModules().contains(module))
+			return null;
+
+		if (module.isAnonymous)
+			throw new IllegalArgumentException("Cannot load the anonymous graphs off-heap, because their edge stream "
+					+ "is segmented by subgraph.");
+
+		Log.log("Loading off-heap graph %s from %s", module, dataSource.getDirectory().getName());
+		long start = System.currentTimeMillis();
+
+		OffHeapModuleGraph graph = new OffHeapModuleGraph(String.format("cluster %s loaded off-heap from %s",
+				module.filename, dataSource.getDirectory().getName()), module, storage);
+
+		ModuleGraphNodeFactory nodeFactory = createNodeFactory(module, null);
+		try {
+			while (nodeFactory.ready())
+				nodeFactory.loadNode(graph);
+		} finally {
+			nodeFactory.close();
+		}
+
+		ModuleGraphEdgeFactory edgeFactory = createEdgeFactory(module, null);
+		try {
+			edgeFactory.loadEdges(graph);
+		} finally {
+			edgeFactory.close();
+		}
+
+		try {
+			graph.completeLoading();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new InvalidGraphException(e);
+		}
+
+		Log.log("Cluster %s loaded off-heap (%d nodes, %d edges, %d bytes) in %f seconds.", module.name,
+				graph.getNodeCount(), graph.getEdgeCount(), graph.getOffHeapSize(),
+				(System.currentTimeMillis() - start) / 1000.);
+
+		return graph;
+	}
+
+	/**
+	 * @return true if the metadata stream of <code>module</code> has any content
+	 */
+	public boolean hasMetadata(ApplicationModule module) throws IOException {
+		LittleEndianInputStream input = openInput(module, ModularTraceStreamType.META);
+		if (input == null)
+			return false;
+
+		try {
+			return input.ready();
+		} finally {
+			input.close();
+		}
+	}
+
 	public ApplicationAnonymousGraphs loadAnonymousGraphs() throws IOException {
 		return loadAnonymousGraphs(null);
 	}
@@ -89,6 +167,31 @@ public class ModuleGraphLoadSession {
 		return graphs;
 	}
 
+	private ModuleGraphNodeFactory createNodeFactory(ApplicationModule module, GraphLoadEventListener listener)
+			throws IOException {
+		if (dataSource.getEncoding(module, ModularTraceStreamType.GRAPH_NODE) == ModularTraceEncoding.COMPACT) {
+			return new ModuleGraphNodeFactory(module, new CompactGraphStreams.NodeDecoder(
+					dataSource.getDataInputStream(module, ModularTraceStreamType.GRAPH_NODE)), listener);
+		}
+		return new ModuleGraphNodeFactory(module, openInput(module, ModularTraceStreamType.GRAPH_NODE), listener);
+	}
+
+	private ModuleGraphEdgeFactory createEdgeFactory(ApplicationModule module, List<ModuleNode<?>> nodeList)
+			throws IOException {
+		if (dataSource.getEncoding(module, ModularTraceStreamType.GRAPH_EDGE) == ModularTraceEncoding.COMPACT) {
+			return new ModuleGraphEdgeFactory(nodeList, new CompactGraphStreams.EdgeDecoder(
+					dataSource.getDataInputStream(module, ModularTraceStreamType.GRAPH_EDGE)));
+		}
+		return new ModuleGraphEdgeFactory(nodeList, openInput(module, ModularTraceStreamType.GRAPH_EDGE));
+	}
+
+	private LittleEndianInputStream openInput(ApplicationModule module, ModularTraceStreamType streamType)
+			throws IOException {
+		if (memoryMapped)
+			return dataSource.getMappedLittleEndianInputStream(module, streamType);
+		return dataSource.getLittleEndianInputStream(module, streamType);
+	}
+
 	class GraphLoader {
 		final ApplicationModule module;
 
@@ -112,6 +215,7 @@ public class ModuleGraphLoadSession {
 			try {
 				loadGraphNodes();
 				loadEdges();
+				builder.graph.freezeEdges();
 			} catch (IOException e) {
 				throw e;
 			} catch (Exception e) {
@@ -135,8 +239,7 @@ public class ModuleGraphLoadSession {
 		}
 
 		private void loadGraphNodes() throws IOException {
-			ModuleGraphNodeFactory nodeFactory = new ModuleGraphNodeFactory(module,
-					dataSource.getLittleEndianInputStream(module, ModularTraceStreamType.GRAPH_NODE), listener);
+			ModuleGraphNodeFactory nodeFactory = createNodeFactory(module, listener);
 			try {
 				while (nodeFactory.ready()) {
 					ModuleNode<?> node = nodeFactory.createNode();
@@ -153,8 +256,7 @@ public class ModuleGraphLoadSession {
 		}
 
 		private void loadEdges() throws IOException {
-			ModuleGraphEdgeFactory edgeFactory = new ModuleGraphEdgeFactory(nodeList,
-					dataSource.getLittleEndianInputStream(module, ModularTraceStreamType.GRAPH_EDGE));
+			ModuleGraphEdgeFactory edgeFactory = createEdgeFactory(module, nodeList);
 
 			try {
 				while (edgeFactory.ready()) {
@@ -178,7 +280,7 @@ public class ModuleGraphLoadSession {
 		}
 
 		private void loadMetadata() throws IOException {
-			LittleEndianInputStream input = dataSource.getLittleEndianInputStream(module, ModularTraceStreamType.META);
+			LittleEndianInputStream input = openInput(module, ModularTraceStreamType.META);
 			if ((input == null) || !input.ready())
 				return;
 
@@ -217,10 +319,8 @@ public class ModuleGraphLoadSession {
 		public AnonymousGraphLoader(GraphLoadEventListener listener) throws IOException {
 			this.listener = listener;
 
-			nodeFactory = new ModuleGraphNodeFactory(module, dataSource.getLittleEndianInputStream(module,
-					ModularTraceStreamType.GRAPH_NODE), listener);
-			edgeFactory = new ModuleGraphEdgeFactory(nodeList, dataSource.getLittleEndianInputStream(module,
-					ModularTraceStreamType.GRAPH_EDGE));
+			nodeFactory = createNodeFactory(module, listener);
+			edgeFactory = createEdgeFactory(module, nodeList);
 			edgeFactory.activateSegmentedLoading(subgraphNodeStartIndex);
 		}
 
@@ -272,6 +372,7 @@ public class ModuleGraphLoadSession {
 
 			subgraphNodeStartIndex.setVal(subgraphNodeStartIndex.getVal() + nodeList.size());
 			nodeList.clear();
+			graph.freezeEdges();
 
 			return graph;
 		}
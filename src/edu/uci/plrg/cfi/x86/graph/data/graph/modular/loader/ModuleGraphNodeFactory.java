@@ -10,6 +10,8 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBasicBlock;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.OffHeapModuleGraph;
+import edu.uci.plrg.cfi.x86.graph.io.modular.CompactGraphStreams;
 
 public class ModuleGraphNodeFactory {
 
@@ -17,29 +19,59 @@ public class ModuleGraphNodeFactory {
 
 	private final ApplicationModule module;
 	private final LittleEndianInputStream input;
+	private final CompactGraphStreams.NodeDecoder compactInput;
 
 	private final GraphLoadEventListener listener;
 
+	/* fields of the last node read by readNode() */
+	private long relativeTag;
+	private int instanceId;
+	private MetaNodeType type;
+	private long hash;
+
 	ModuleGraphNodeFactory(ApplicationModule module, LittleEndianInputStream input, GraphLoadEventListener listener) {
 		this.input = input;
+		this.compactInput = null;
+		this.module = module;
+		this.listener = listener;
+	}
+
+	ModuleGraphNodeFactory(ApplicationModule module, CompactGraphStreams.NodeDecoder compactInput,
+			GraphLoadEventListener listener) {
+		this.input = null;
+		this.compactInput = compactInput;
 		this.module = module;
 		this.listener = listener;
 	}
 
 	boolean ready() throws IOException {
+		if (compactInput != null)
+			return compactInput.ready();
 		return input.ready(ENTRY_BYTE_COUNT);
 	}
 
-	ModuleNode<?> createNode() throws IOException {
-		long first = input.readLong();
-		// int moduleIndex = (int) (first & 0xffffL); // TODO: no need to write this anymore
-		long relativeTag = ((first >> 0x10) & 0xffffffffL);
-		int instanceId = (int) ((first >> 0x30) & 0xffL);
+	private void readNode() throws IOException {
+		if (compactInput != null) {
+			compactInput.readNode();
+			relativeTag = compactInput.relativeTag;
+			instanceId = compactInput.instanceId;
+			type = MetaNodeType.values()[compactInput.typeOrdinal];
+			hash = compactInput.hash;
+		} else {
+			long first = input.readLong();
+			// int moduleIndex = (int) (first & 0xffffL); // TODO: no need to write this anymore
+			relativeTag = ((first >> 0x10) & 0xffffffffL);
+			instanceId = (int) ((first >> 0x30) & 0xffL);
+
+			type = MetaNodeType.values()[(int) ((first >> 0x38) & 0xffL)];
+
+			hash = input.readLong();
+		}
+	}
 
-		MetaNodeType type = MetaNodeType.values()[(int) ((first >> 0x38) & 0xffL)];
+	ModuleNode<?> createNode() throws IOException {
+		readNode();
 
-		long hash = input.readLong();
-		
 		ModuleNode<?> node = null;
 
 		switch (type) {
@@ -57,7 +89,17 @@ public class ModuleGraphNodeFactory {
 		return node;
 	}
 
+	void loadNode(OffHeapModuleGraph graph) throws IOException {
+		readNode();
+		graph.addNode(relativeTag, instanceId, type, hash);
+	}
+
 	void close() throws IOException {
+		if (compactInput != null) {
+			compactInput.close();
+			return;
+		}
+
 		if (input.ready())
 			Log.log("Warning: input stream %s has %d bytes remaining.", input.description, input.available());
 
@@ -36,6 +36,15 @@ public class AnonymousGraphWriter implements ModuleDataWriter.ModularData {
 		dataWriter = new ModuleDataWriter(this, dataSink);
 	}
 
+	/**
+	 * Write through the directory's writer of the anonymous module, which the directory closes. The module's files
+	 * must not be opened by a second writer, since each compact encoder keeps its own stream state.
+	 */
+	public void initialize(ModuleDataWriter.Directory directory) throws IOException {
+		directory.establishModuleWriters(this);
+		dataWriter = directory.getWriter(getModule());
+	}
+
 	public void writeGraph() throws IOException {
 		for (AnonymousGraph graph : graphs.getAllGraphs()) {
 			for (ModuleNode<?> entry : graph.getEntryPoints())
@@ -54,6 +63,10 @@ public class AnonymousGraphWriter implements ModuleDataWriter.ModularData {
 		dataWriter.flush();
 	}
 
+	public void close() throws IOException {
+		dataWriter.close();
+	}
+
 	private void writeNode(ModuleNode<?> node) throws IOException {
 		dataWriter.writeNode(node);
 		nodeIndexMap.put(node, nodeIndexMap.size());
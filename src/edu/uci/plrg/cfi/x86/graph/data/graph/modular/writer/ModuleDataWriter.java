@@ -2,6 +2,7 @@ package edu.uci.plrg.cfi.x86.graph.data.graph.modular.writer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,8 +23,11 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleSGE;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleSSC;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleUIB;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleUIBInterval;
+import edu.uci.plrg.cfi.x86.graph.io.modular.AsyncFileWriter;
+import edu.uci.plrg.cfi.x86.graph.io.modular.CompactGraphStreams;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDataSink;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDirectory;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceEncoding;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceStreamType;
 
 public class ModuleDataWriter {
@@ -54,7 +58,7 @@ public class ModuleDataWriter {
 
 		private final Map<ApplicationModule, ModuleDataWriter> outputsByModule = new HashMap<ApplicationModule, ModuleDataWriter>();
 
-		private Directory(String processName, ModularTraceDataSink dataSink) {
+		public Directory(String processName, ModularTraceDataSink dataSink) {
 			filenameFormat = String.format("%s.%%s.%%s.%%s", processName);
 			this.dataSink = dataSink;
 		}
@@ -63,46 +67,154 @@ public class ModuleDataWriter {
 			this(processName, new ModularTraceDirectory(directory));
 		}
 
+		public Directory(File directory, String processName, ModularTraceEncoding encoding) {
+			this(processName, new ModularTraceDirectory(directory).setOutputEncoding(encoding));
+		}
+
 		public Directory(File directory, String processName, Set<ModularTraceStreamType> requiredStreamTypes,
 				Set<ModularTraceStreamType> optionalStreamTypes) {
 			this(processName, new ModularTraceDirectory(directory, requiredStreamTypes, optionalStreamTypes));
 		}
 
 		public void establishModuleWriters(ModularData data) throws IOException {
+			establishModuleWriters(data, false);
+		}
+
+		/**
+		 * @param appendGraph
+		 *            append to the module's existing node and edge files instead of replacing them. The metadata file
+		 *            is always replaced.
+		 */
+		public synchronized void establishModuleWriters(ModularData data, boolean appendGraph) throws IOException {
 			ModuleDataWriter writer = getWriter(data.getModule());
 			if (writer == null) {
 				dataSink.addModule(data.getModule(), filenameFormat);
-				writer = new ModuleDataWriter(data, dataSink);
+				writer = new ModuleDataWriter(data, dataSink, appendGraph);
 				outputsByModule.put(data.getModule(), writer);
 			}
 		}
 
-		public ModuleDataWriter getWriter(ApplicationModule module) {
+		public synchronized ModuleDataWriter getWriter(ApplicationModule module) {
 			return outputsByModule.get(module);
 		}
 
-		public void flush() throws IOException {
+		public synchronized void flush() throws IOException {
 			for (ModuleDataWriter output : outputsByModule.values()) {
 				output.flush();
 			}
 		}
+
+		public synchronized void close() throws IOException {
+			for (ModuleDataWriter output : outputsByModule.values()) {
+				output.close();
+			}
+		}
+	}
+
+	/**
+	 * One stream of 64-bit words, written through either a <code>LittleEndianOutputStream</code> or an
+	 * <code>AsyncFileWriter</code>.
+	 */
+	interface WordOutput {
+		void writeLong(long word) throws IOException;
+
+		void flush() throws IOException;
+
+		void close() throws IOException;
 	}
 
-	final LittleEndianOutputStream nodeStream;
-	final LittleEndianOutputStream edgeStream;
-	final LittleEndianOutputStream metaStream;
+	/* in the compact encoding, nodes and edges are written to the encoders instead of these streams */
+	final WordOutput nodeStream;
+	final WordOutput edgeStream;
+	final WordOutput metaStream;
+	private final CompactGraphStreams.NodeEncoder compactNodes;
+	private final CompactGraphStreams.EdgeEncoder compactEdges;
 
 	private final ModularData data;
 
 	ModuleDataWriter(ModularData data, ModularTraceDataSink dataSink) throws IOException {
+		this(data, dataSink, false);
+	}
+
+	ModuleDataWriter(ModularData data, ModularTraceDataSink dataSink, boolean appendGraph) throws IOException {
 		this.data = data;
 
-		nodeStream = dataSink.getLittleEndianOutputStream(data.getModule(), ModularTraceStreamType.GRAPH_NODE);
-		edgeStream = dataSink.getLittleEndianOutputStream(data.getModule(), ModularTraceStreamType.GRAPH_EDGE);
-		metaStream = dataSink.getLittleEndianOutputStream(data.getModule(), ModularTraceStreamType.META);
+		if (dataSink.getEncoding(data.getModule(), ModularTraceStreamType.GRAPH_NODE) == ModularTraceEncoding.COMPACT) {
+			if (appendGraph)
+				throw new IllegalArgumentException(String.format(
+						"Cannot append to the compact graph of module %s: its encoding depends on the whole stream.",
+						data.getModule().name));
+			nodeStream = edgeStream = null;
+			compactNodes = new CompactGraphStreams.NodeEncoder(openOutputStream(dataSink,
+					ModularTraceStreamType.GRAPH_NODE));
+			compactEdges = new CompactGraphStreams.EdgeEncoder(openOutputStream(dataSink,
+					ModularTraceStreamType.GRAPH_EDGE));
+		} else {
+			nodeStream = openWordOutput(dataSink, ModularTraceStreamType.GRAPH_NODE, appendGraph);
+			edgeStream = openWordOutput(dataSink, ModularTraceStreamType.GRAPH_EDGE, appendGraph);
+			compactNodes = null;
+			compactEdges = null;
+		}
+		metaStream = openWordOutput(dataSink, ModularTraceStreamType.META, false);
+	}
+
+	private OutputStream openOutputStream(ModularTraceDataSink dataSink, ModularTraceStreamType streamType)
+			throws IOException {
+		OutputStream output = dataSink.getAsyncFileWriter(data.getModule(), streamType, false);
+		if (output == null)
+			output = dataSink.getDataOutputStream(data.getModule(), streamType);
+		return output;
+	}
+
+	private WordOutput openWordOutput(ModularTraceDataSink dataSink, ModularTraceStreamType streamType,
+			boolean append) throws IOException {
+		final AsyncFileWriter asyncOutput = dataSink.getAsyncFileWriter(data.getModule(), streamType, append);
+		if (asyncOutput != null) {
+			return new WordOutput() {
+				@Override
+				public void writeLong(long word) throws IOException {
+					asyncOutput.writeLong(word);
+				}
+
+				@Override
+				public void flush() throws IOException {
+					asyncOutput.flush();
+				}
+
+				@Override
+				public void close() throws IOException {
+					asyncOutput.close();
+				}
+			};
+		}
+
+		final LittleEndianOutputStream output = dataSink.getLittleEndianOutputStream(data.getModule(), streamType,
+				append);
+		return new WordOutput() {
+			@Override
+			public void writeLong(long word) throws IOException {
+				output.writeLong(word);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				output.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				output.close();
+			}
+		};
 	}
 
 	public void writeNode(NodeIdentifier node) throws IOException {
+		if (compactNodes != null) {
+			compactNodes.writeNode(node.getRelativeTag(), node.getInstanceId(), node.getType().ordinal(),
+					node.getHash());
+			return;
+		}
+
 		long word = 0; // data.getModuleIndex(node.getModule()); // obsolete
 		word |= ((long) node.getRelativeTag() & 0xffffffffL) << 0x10;
 		word |= ((long) node.getInstanceId()) << 0x30;
@@ -111,12 +223,27 @@ public class ModuleDataWriter {
 		nodeStream.writeLong(node.getHash());
 	}
 
+	public static long packEdge(int fromNodeIndex, int toNodeIndex, EdgeType type, int ordinal) {
+		long word = (long) fromNodeIndex;
+		word |= ((long) toNodeIndex) << 0x1c;
+		word |= ((long) type.ordinal()) << 0x38;
+		word |= ((long) ordinal) << 0x3c;
+		return word;
+	}
+
 	public void writeEdge(Edge edge) throws IOException {
-		long word = (long) data.getNodeIndex(edge.getFromNode());
-		word |= ((long) data.getNodeIndex(edge.getToNode())) << 0x1c;
-		word |= ((long) edge.getEdgeType().ordinal()) << 0x38;
-		word |= ((long) edge.getOrdinal()) << 0x3c;
-		edgeStream.writeLong(word);
+		writeEdge(packEdge(data.getNodeIndex(edge.getFromNode()), data.getNodeIndex(edge.getToNode()),
+				edge.getEdgeType(), edge.getOrdinal()));
+	}
+
+	/**
+	 * Write an edge already packed by <code>packEdge()</code>.
+	 */
+	public void writeEdge(long edgeWord) throws IOException {
+		if (compactEdges != null)
+			compactEdges.writeEdge(edgeWord);
+		else
+			edgeStream.writeLong(edgeWord);
 	}
 
 	public void writeMetadataHeader(boolean isMain) throws IOException {
@@ -214,14 +341,24 @@ public class ModuleDataWriter {
 	}
 
 	public void flush() throws IOException {
-		nodeStream.flush();
-		edgeStream.flush();
+		if (compactNodes != null) {
+			compactNodes.flush();
+			compactEdges.flush();
+		} else {
+			nodeStream.flush();
+			edgeStream.flush();
+		}
 		metaStream.flush();
 	}
 
 	public void close() throws IOException {
-		nodeStream.close();
-		edgeStream.close();
+		if (compactNodes != null) {
+			compactNodes.close();
+			compactEdges.close();
+		} else {
+			nodeStream.close();
+			edgeStream.close();
+		}
 		metaStream.close();
 	}
 }
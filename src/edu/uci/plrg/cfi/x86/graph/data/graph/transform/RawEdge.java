@@ -2,7 +2,6 @@ package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
 
 import java.util.Comparator;
 
-import edu.uci.plrg.cfi.common.log.Log;
 import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.writer.ModuleDataWriter;
 
@@ -17,7 +16,42 @@ public class RawEdge implements ModuleDataWriter.Edge {
 		}
 	}
 
+	static class OrderKeySorter implements Comparator<RawEdge> {
+		static OrderKeySorter INSTANCE = new OrderKeySorter();
+
+		@Override
+		public int compare(RawEdge first, RawEdge second) {
+			return Long.compare(first.getOrderKey(), second.getOrderKey());
+		}
+	}
+
+	/**
+	 * Convert an order key back to the packed edge word of <code>ModuleDataWriter.packEdge()</code>.
+	 */
+	static long getEdgeWord(long orderKey) {
+		return ModuleDataWriter.packEdge(getFromIndex(orderKey), getToIndex(orderKey), getEdgeType(orderKey),
+				getOrdinal(orderKey));
+	}
+
+	static int getFromIndex(long orderKey) {
+		return (int) ((orderKey ^ Long.MIN_VALUE) >>> 0x24);
+	}
+
+	static int getToIndex(long orderKey) {
+		return (int) (orderKey & 0xfffffffL);
+	}
+
+	static EdgeType getEdgeType(long orderKey) {
+		return EdgeType.values()[(int) ((orderKey >>> 0x1c) & 0xfL)];
+	}
+
+	static int getOrdinal(long orderKey) {
+		return (int) ((orderKey >>> 0x20) & 0xfL);
+	}
+
 	private int edgeIndex;
+	/* true if the edge was already written by an earlier append-mode transform */
+	private boolean isCheckpointed = false;
 	public final IndexedModuleNode fromNode;
 	public final IndexedModuleNode toNode;
 	public final EdgeType type;
@@ -28,9 +62,6 @@ public class RawEdge implements ModuleDataWriter.Edge {
 		this.toNode = toNode;
 		this.type = type;
 		this.ordinal = ordinal;
-		
-		if (type == EdgeType.UNEXPECTED_RETURN)
-			Log.log("Loaded UR %s", this);
 	}
 
 	@Override
@@ -71,6 +102,30 @@ public class RawEdge implements ModuleDataWriter.Edge {
 		this.edgeIndex = edgeIndex;
 	}
 
+	boolean isCheckpointed() {
+		return isCheckpointed;
+	}
+
+	void setCheckpointed() {
+		isCheckpointed = true;
+	}
+
+	/**
+	 * Key ordering the edges of a module by from-node index, then ordinal, type and to-node index, such that ascending
+	 * keys group the edges by ordinal within each from-node. The key carries every field of the written edge.
+	 */
+	long getOrderKey() {
+		long key = ((long) fromNode.index & 0xfffffffL) << 0x24;
+		key |= ((long) (ordinal & 0xf)) << 0x20;
+		key |= ((long) (type.ordinal() & 0xf)) << 0x1c;
+		key |= ((long) toNode.index & 0xfffffffL);
+		return key ^ Long.MIN_VALUE; // signed order of the keys follows the unsigned order of the fields
+	}
+
+	long getEdgeWord() {
+		return ModuleDataWriter.packEdge(fromNode.index, toNode.index, type, ordinal);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,287 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import edu.uci.plrg.cfi.common.log.Log;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+
+/**
+ * Out-of-core edge set for the raw graph transform. Edges are buffered per module as order keys (see
+ * <code>RawEdge.getOrderKey()</code>). When the buffers reach the memory budget, each one is sorted, deduplicated and
+ * written to a temporary run file. <code>merge()</code> then streams the distinct edges of a module in ascending order
+ * by external merge of its runs, so the edge set never has to fit on the heap. A module with more runs than
+ * <code>MAX_MERGE_FAN_IN</code> is merged in several passes, so that the number of open files stays bounded.
+ *
+ * The budget only covers the edge buffers. The node tables, deduplication maps and metadata queues of the transform
+ * are held on the heap regardless.
+ */
+class RawEdgeSpill {
+
+	interface EdgeVisitor {
+		void visitEdge(long edgeKey, int edgeIndex) throws IOException;
+	}
+
+	private static class ModuleEdges {
+		long buffer[] = new long[INITIAL_BUFFER_SIZE];
+		int size = 0;
+		final List<File> runs = new ArrayList<File>();
+	}
+
+	private static abstract class Run {
+		long current;
+
+		abstract boolean advance() throws IOException;
+
+		void close() throws IOException {
+		}
+	}
+
+	private static class BufferRun extends Run {
+		private final long buffer[];
+		private final int size;
+		private int position = 0;
+
+		BufferRun(long buffer[], int size) {
+			this.buffer = buffer;
+			this.size = size;
+		}
+
+		@Override
+		boolean advance() {
+			if (position == size)
+				return false;
+			current = buffer[position++];
+			return true;
+		}
+	}
+
+	private static class FileRun extends Run {
+		private final DataInputStream input;
+		private long remaining;
+
+		FileRun(File file) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_IO_BUFFER_SIZE));
+			remaining = file.length() / 8;
+		}
+
+		@Override
+		boolean advance() throws IOException {
+			if (remaining == 0)
+				return false;
+			current = input.readLong();
+			remaining--;
+			return true;
+		}
+
+		@Override
+		void close() throws IOException {
+			input.close();
+		}
+	}
+
+	private static class RunSorter implements Comparator<Run> {
+		static final RunSorter INSTANCE = new RunSorter();
+
+		@Override
+		public int compare(Run first, Run second) {
+			return Long.compare(first.current, second.current);
+		}
+	}
+
+	private static final int INITIAL_BUFFER_SIZE = 0x400;
+	private static final int RUN_IO_BUFFER_SIZE = 0x4000;
+	private static final int MAX_MERGE_FAN_IN = 0x40;
+
+	private final long budgetWords;
+	private final Map<ApplicationModule, ModuleEdges> edgesByModule = new HashMap<ApplicationModule, ModuleEdges>();
+	private long bufferedCapacity = 0L;
+	private File spillDir = null;
+	private int runCount = 0;
+
+	/**
+	 * @param memoryBudget
+	 *            maximum number of bytes to hold in edge buffers before spilling to disk. Other transform data is not
+	 *            counted.
+	 */
+	RawEdgeSpill(long memoryBudget) {
+		this.budgetWords = Math.max(INITIAL_BUFFER_SIZE, memoryBudget / 8);
+	}
+
+	void addEdge(ApplicationModule module, long edgeKey) throws IOException {
+		ModuleEdges edges = establishModuleEdges(module);
+		if (edges.size == edges.buffer.length) {
+			int growth = edges.buffer.length;
+			if ((bufferedCapacity + growth) > budgetWords) {
+				spill();
+			} else {
+				edges.buffer = Arrays.copyOf(edges.buffer, edges.buffer.length + growth);
+				bufferedCapacity += growth;
+			}
+		}
+		edges.buffer[edges.size++] = edgeKey;
+	}
+
+	/**
+	 * Visit each distinct edge of the module in ascending order of its key. The edge index passed to the visitor is
+	 * the position of the edge in that order.
+	 *
+	 * @return the number of distinct edges
+	 */
+	int merge(ApplicationModule module, EdgeVisitor visitor) throws IOException {
+		ModuleEdges edges = edgesByModule.get(module);
+		if (edges == null)
+			return 0;
+
+		// leave one input for the buffer
+		while (edges.runs.size() >= MAX_MERGE_FAN_IN)
+			mergeRunFiles(module, edges);
+
+		List<Run> runs = new ArrayList<Run>();
+		runs.add(new BufferRun(edges.buffer, sortAndDeduplicate(edges.buffer, edges.size)));
+		return mergeRuns(runs, edges.runs, visitor);
+	}
+
+	/**
+	 * Replace the first <code>MAX_MERGE_FAN_IN</code> run files of the module with one run file of their distinct
+	 * edges.
+	 */
+	private void mergeRunFiles(ApplicationModule module, ModuleEdges edges) throws IOException {
+		List<File> inputs = new ArrayList<File>(edges.runs.subList(0, MAX_MERGE_FAN_IN));
+		File run = createRunFile(module);
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run),
+				RUN_IO_BUFFER_SIZE));
+		try {
+			mergeRuns(new ArrayList<Run>(), inputs, new EdgeVisitor() {
+				@Override
+				public void visitEdge(long edgeKey, int edgeIndex) throws IOException {
+					output.writeLong(edgeKey);
+				}
+			});
+		} finally {
+			output.close();
+		}
+
+		edges.runs.subList(0, MAX_MERGE_FAN_IN).clear();
+		edges.runs.add(run);
+		for (File input : inputs)
+			input.delete();
+	}
+
+	/**
+	 * @return the number of distinct edges
+	 */
+	private static int mergeRuns(List<Run> runs, List<File> files, EdgeVisitor visitor) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size() + files.size() + 1, RunSorter.INSTANCE);
+		try {
+			for (File file : files)
+				runs.add(new FileRun(file));
+			for (Run run : runs) {
+				if (run.advance())
+					queue.add(run);
+			}
+
+			int edgeIndex = 0;
+			boolean first = true;
+			long previous = 0L;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				if (first || (run.current != previous)) {
+					previous = run.current;
+					first = false;
+					visitor.visitEdge(previous, edgeIndex++);
+				}
+				if (run.advance())
+					queue.add(run);
+			}
+			return edgeIndex;
+		} finally {
+			for (Run run : runs)
+				run.close();
+		}
+	}
+
+	void dispose() {
+		for (ModuleEdges edges : edgesByModule.values()) {
+			for (File run : edges.runs)
+				run.delete();
+		}
+		edgesByModule.clear();
+		if (spillDir != null) {
+			spillDir.delete();
+			spillDir = null;
+		}
+	}
+
+	private ModuleEdges establishModuleEdges(ApplicationModule module) {
+		ModuleEdges edges = edgesByModule.get(module);
+		if (edges == null) {
+			edges = new ModuleEdges();
+			edgesByModule.put(module, edges);
+			bufferedCapacity += INITIAL_BUFFER_SIZE;
+		}
+		return edges;
+	}
+
+	private void spill() throws IOException {
+		long spillCount = 0L;
+		for (Map.Entry<ApplicationModule, ModuleEdges> entry : edgesByModule.entrySet()) {
+			ModuleEdges edges = entry.getValue();
+			if (edges.size == 0)
+				continue;
+
+			int size = sortAndDeduplicate(edges.buffer, edges.size);
+			File run = createRunFile(entry.getKey());
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run),
+					RUN_IO_BUFFER_SIZE));
+			try {
+				for (int i = 0; i < size; i++)
+					output.writeLong(edges.buffer[i]);
+			} finally {
+				output.close();
+			}
+			edges.runs.add(run);
+			spillCount += size;
+
+			bufferedCapacity -= (edges.buffer.length - INITIAL_BUFFER_SIZE);
+			edges.buffer = new long[INITIAL_BUFFER_SIZE];
+			edges.size = 0;
+		}
+		Log.log("Spilled %d edges to %s", spillCount, spillDir.getAbsolutePath());
+	}
+
+	private File createRunFile(ApplicationModule module) throws IOException {
+		if (spillDir == null) {
+			spillDir = Files.createTempDirectory("raw-edge-spill").toFile();
+			spillDir.deleteOnExit();
+		}
+
+		File run = new File(spillDir, String.format("%s.%d.run", module.id, runCount++));
+		run.deleteOnExit();
+		return run;
+	}
+
+	private static int sortAndDeduplicate(long buffer[], int size) {
+		Arrays.sort(buffer, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if ((distinct == 0) || (buffer[i] != buffer[distinct - 1]))
+				buffer[distinct++] = buffer[i];
+		}
+		return distinct;
+	}
+}
@@ -0,0 +1,1337 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
+import edu.uci.plrg.cfi.common.log.Log;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.Edge;
+import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.ModuleGraph;
+import edu.uci.plrg.cfi.x86.graph.data.graph.anonymous.AnonymousGraphSetDistiller;
+import edu.uci.plrg.cfi.x86.graph.data.graph.anonymous.ApplicationAnonymousGraphs;
+import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ModuleInstance;
+import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ProcessExecutionGraph;
+import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ProcessExecutionModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.execution.loader.ProcessModuleLoader;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBasicBlock;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.writer.AnonymousGraphWriter;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.writer.ModuleDataWriter;
+import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceDataSource;
+import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceDirectory;
+import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
+import edu.uci.plrg.cfi.x86.graph.io.modular.AsyncFileWriter;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceArchive;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDirectory;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceEncoding;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceStreamType;
+import edu.uci.plrg.cfi.x86.graph.util.CrowdSafeTraceUtil;
+import edu.uci.plrg.cfi.x86.graph.util.Diagnostics;
+import edu.uci.plrg.cfi.x86.graph.util.LongIntHashMap;
+import edu.uci.plrg.cfi.x86.graph.util.LongObjectHashMap;
+
+/**
+ * Transforms a single execution trace directory into its modular graph form. All state of the transform is confined
+ * to the session, so sessions for different run directories can execute concurrently.
+ */
+class RawGraphTransformSession {
+
+	private enum MetadataType {
+		TIMEPOINT(0),
+		UIB(1),
+		INTERVAL(2),
+		SSC(3),
+		SGE(4);
+
+		final int id;
+
+		MetadataType(int id) {
+			this.id = id;
+		}
+
+		static MetadataType forId(int id) {
+			switch (id) {
+				case 0:
+					return TIMEPOINT;
+				case 1:
+					return UIB;
+				case 2:
+					return INTERVAL;
+				case 3:
+					return SSC;
+				case 4:
+					return SGE;
+			}
+			return null;
+		}
+	}
+
+	private static class UnexpectedIndirectBranches {
+		final Map<Integer, RawUnexpectedIndirectBranch> uibsByRawEdgeIndex = new HashMap<Integer, RawUnexpectedIndirectBranch>();
+
+		void add(RawUnexpectedIndirectBranch uib) {
+			uibsByRawEdgeIndex.remove(uib.rawEdgeIndex); // take only the last UIB per raw edge index
+			uibsByRawEdgeIndex.put(uib.rawEdgeIndex, uib);
+		}
+
+		List<RawUnexpectedIndirectBranch> sortAndMerge() {
+			RawUnexpectedIndirectBranch sorted[] = uibsByRawEdgeIndex.values().toArray(
+					new RawUnexpectedIndirectBranch[uibsByRawEdgeIndex.size()]);
+			Arrays.sort(sorted, RawUnexpectedIndirectBranch.ClusterEdgeIndexSorter.INSTANCE);
+
+			List<RawUnexpectedIndirectBranch> merged = new ArrayList<RawUnexpectedIndirectBranch>(sorted.length);
+			RawUnexpectedIndirectBranch match = null;
+			for (RawUnexpectedIndirectBranch uib : sorted) {
+				if ((match != null) && (match.getModuleEdgeIndex() == uib.getModuleEdgeIndex())) {
+					match.merge(uib);
+				} else {
+					// merge into a copy, leaving the collected UIBs intact for the checkpoint
+					match = new RawUnexpectedIndirectBranch(uib);
+					match.moduleEdge = uib.moduleEdge;
+					merged.add(match);
+				}
+			}
+			return merged;
+		}
+	}
+
+	private final File runDir;
+	private final File outputDir;
+	/* null unless edges are spilled to disk under a memory budget */
+	private final RawEdgeSpill edgeSpill;
+	private final int emissionThreadCount;
+	/* transform only the records appended since the last checkpoint, and save a new one */
+	private final boolean appendMode;
+	private final ModularTraceEncoding outputEncoding;
+	private final boolean archiveOutput;
+	private final AsyncFileWriter.SyncPolicy syncPolicy;
+	private final RawTransformReport report;
+
+	private final Diagnostics diagnostics = new Diagnostics();
+	private final Diagnostics.Category unknownNodeModules = diagnostics.category("unknown node module",
+			"Error: cannot find the module for node 0x%x-v%d (type %s)");
+	private final Diagnostics.Category missingEdgeNodes = diagnostics.category("missing edge nodes",
+			"Error: both nodes missing in edge (0x%x-v%d) -%s-%d-> (0x%x-v%d)");
+	private final Diagnostics.Category missingFromNodes = diagnostics.category("missing 'from' node",
+			"Error in module %s: missing 'from' node: (0x%x-v%d) -%s-%d-> (0x%x-v%d)");
+	private final Diagnostics.Category missingToNodes = diagnostics.category("missing 'to' node",
+			"Error in module %s: missing 'to' node: (0x%x-v%d) -%s-%d-> (0x%x-v%d)");
+	private final Diagnostics.Category highOrdinalEdges = diagnostics.category("high ordinal",
+			"Warning: high ordinal in %s edge (0x%x-v%d) -%s-%d-> (0x%x-v%d)");
+	private final Diagnostics.Category moduleCrossingEdges = diagnostics.category("module-crossing edge",
+			"Error! Intra-module edge from %s to %s crosses a module boundary (%s to %s)!");
+	private final Diagnostics.Category missingCrossModuleEdgeNodes = diagnostics.category(
+			"missing cross-module edge nodes", "Error: both nodes missing in cross-module %s edge 0x%x-v%d -> 0x%x-v%d");
+	private final Diagnostics.Category missingCrossModuleFromNodes = diagnostics.category(
+			"missing cross-module 'from' node",
+			"Error: missing 'from' node 0x%x-v%d in cross-module %s edge to %s(0x%x-v%d) ");
+	private final Diagnostics.Category missingCrossModuleToNodes = diagnostics.category(
+			"missing cross-module 'to' node",
+			"Error: missing 'to' node 0x%x-v%d in cross-module %s edge from %s 0x%x-v%d");
+	private final Diagnostics.Category highOrdinalCrossModuleEdges = diagnostics.category(
+			"high ordinal cross-module edge",
+			"Warning: high ordinal in cross-module edge %s(0x%x-v%d) -%s-%d-> %s(0x%x-v%d)");
+	private final Diagnostics.Category anonymousTagMappings = diagnostics.category("anonymous tag mapping",
+			"Mapping 0x%x-v%d => 0x%x for module %s (hash 0x%x)");
+	private final Diagnostics.Category unexpectedReturnEdges = diagnostics.category("unexpected return edge",
+			"Loaded UR %s");
+	private final Diagnostics.Category systemModuleEdges = diagnostics.category("edge into the system module",
+			"Creating an edge into the system module: %s");
+
+	private final ProcessModuleLoader executionModuleLoader = new ProcessModuleLoader();
+
+	private ExecutionTraceDataSource dataSource = null;
+	private ProcessExecutionModuleSet executionModules = null;
+	private ModuleDataWriter.Directory graphWriters = null;
+	/* null unless the output is archived */
+	private ModularTraceArchive outputArchive = null;
+	private File checkpointFile = null;
+	/* number of records transformed from each execution trace stream, including any from earlier checkpoints */
+	private final Map<ExecutionTraceStreamType, Long> recordCounts = new EnumMap<ExecutionTraceStreamType, Long>(
+			ExecutionTraceStreamType.class);
+	/* number of nodes and edges already in the modular graph files of each module, as of the restored checkpoint */
+	private final Map<ApplicationModule, Integer> checkpointNodeCounts = new HashMap<ApplicationModule, Integer>();
+	private final Map<ApplicationModule, Integer> checkpointEdgeCounts = new HashMap<ApplicationModule, Integer>();
+	private final Map<ApplicationModule, RawModuleData> nodesByModule = new HashMap<ApplicationModule, RawModuleData>();
+	/* using Map<RawEdge,RawEdge> to facilitate lookup */
+	private final Map<ApplicationModule, Map<RawEdge, RawEdge>> edgesByModule = new HashMap<ApplicationModule, Map<RawEdge, RawEdge>>();
+
+	private final Set<ApplicationModule> metadataModules = new HashSet<ApplicationModule>();
+	private final Map<ApplicationModule, UnexpectedIndirectBranches> uibsByModule = new HashMap<ApplicationModule, UnexpectedIndirectBranches>();
+	private final Map<ApplicationModule, Set<RawSuspiciousGencodeEntry>> sgesByModule = new HashMap<ApplicationModule, Set<RawSuspiciousGencodeEntry>>();
+	private final Map<ApplicationModule, Set<RawSuspiciousSystemCall>> sscsByModule = new HashMap<ApplicationModule, Set<RawSuspiciousSystemCall>>();
+
+	/* keyed by RawTag.key() */
+	private final LongObjectHashMap<IndexedModuleNode> nodesByRawTag = new LongObjectHashMap<IndexedModuleNode>();
+	private final LongIntHashMap fakeAnonymousModuleTags = new LongIntHashMap();
+	private int fakeAnonymousTagIndex = ModuleNode.FAKE_ANONYMOUS_TAG_START;
+	private final LongObjectHashMap<IndexedModuleNode> syscallSingletons = new LongObjectHashMap<IndexedModuleNode>();
+	private final Map<ApplicationModule, ModuleNode<?>> jitSingletons = new HashMap<ApplicationModule, ModuleNode<?>>();
+
+	private int mainModuleStartAddress;
+	private UUID executionId = UUID.randomUUID();
+	private ApplicationModule mainModule;
+	private final Map<RawUnexpectedIndirectBranchInterval.Key, RawUnexpectedIndirectBranchInterval> uibIntervals = new HashMap<RawUnexpectedIndirectBranchInterval.Key, RawUnexpectedIndirectBranchInterval>();
+	private final RawMetadataQueue<RawUnexpectedIndirectBranch> intraModuleUIBQueue = new RawMetadataQueue<RawUnexpectedIndirectBranch>();
+	private final RawMetadataQueue<RawUnexpectedIndirectBranch> crossModuleUIBQueue = new RawMetadataQueue<RawUnexpectedIndirectBranch>();
+	private final RawMetadataQueue<RawSuspiciousGencodeEntry> gencodeEntryQueue = new RawMetadataQueue<RawSuspiciousGencodeEntry>();
+	private final RawMetadataQueue<RawSuspiciousSystemCall> intraModuleSuspiciousSyscallQueue = new RawMetadataQueue<RawSuspiciousSystemCall>();
+	private final RawMetadataQueue<RawSuspiciousSystemCall> crossModuleSuspiciousSyscallQueue = new RawMetadataQueue<RawSuspiciousSystemCall>();
+
+	/**
+	 * @param edgeMemoryBudget
+	 *            number of bytes of edge buffers to hold in memory before spilling to disk, or 0 to hold all edges in
+	 *            memory. Node tables and metadata are not counted.
+	 * @param emissionThreadCount
+	 *            number of threads writing module graphs concurrently
+	 * @param appendMode
+	 *            resume from the checkpoint in the output directory, if any, and save a new one when done. Requires
+	 *            all edges to be held in memory.
+	 * @param outputEncoding
+	 *            encoding of the modular node and edge files. The compact encoding cannot be appended to.
+	 * @param archiveOutput
+	 *            write all module streams to a single <code>ModularTraceArchive</code> in the output directory, which
+	 *            cannot be appended to
+	 * @param syncPolicy
+	 *            sync policy of the <code>AsyncFileWriter</code>s that write the modular files
+	 */
+	RawGraphTransformSession(File runDir, File outputDir, long edgeMemoryBudget, int emissionThreadCount,
+			boolean appendMode, ModularTraceEncoding outputEncoding, boolean archiveOutput,
+			AsyncFileWriter.SyncPolicy syncPolicy) {
+		if (appendMode && (edgeMemoryBudget > 0L))
+			throw new IllegalArgumentException("Append mode cannot be combined with an edge memory budget!");
+		if (appendMode && (outputEncoding == ModularTraceEncoding.COMPACT))
+			throw new IllegalArgumentException("Append mode cannot be combined with the compact encoding!");
+		if (appendMode && archiveOutput)
+			throw new IllegalArgumentException("Append mode cannot be combined with an archive output!");
+
+		this.runDir = runDir;
+		this.outputDir = outputDir;
+		edgeSpill = (edgeMemoryBudget > 0L) ? new RawEdgeSpill(edgeMemoryBudget) : null;
+		this.emissionThreadCount = emissionThreadCount;
+		this.appendMode = appendMode;
+		this.outputEncoding = outputEncoding;
+		this.archiveOutput = archiveOutput;
+		this.syncPolicy = syncPolicy;
+		report = new RawTransformReport(runDir, outputDir);
+	}
+
+	void transform() throws IOException {
+		dataSource = new ExecutionTraceDirectory(runDir, ProcessExecutionGraph.EXECUTION_GRAPH_FILE_TYPES,
+				ProcessExecutionGraph.EXECUTION_GRAPH_REQUIRED_FILE_TYPES);
+
+		outputDir.mkdirs();
+		if (archiveOutput) {
+			outputArchive = new ModularTraceArchive(ModularTraceArchive.getFile(outputDir, dataSource.getProcessName()),
+					dataSource.getProcessName()).setOutputEncoding(outputEncoding).setAsyncOutput(syncPolicy);
+			graphWriters = new ModuleDataWriter.Directory(dataSource.getProcessName(), outputArchive);
+		} else {
+			graphWriters = new ModuleDataWriter.Directory(dataSource.getProcessName(), new ModularTraceDirectory(
+					outputDir).setOutputEncoding(outputEncoding).setAsyncOutput(syncPolicy));
+		}
+		if (appendMode)
+			checkpointFile = RawTransformCheckpoint.getFile(outputDir, dataSource.getProcessName());
+		Log.log("Transform %s to %s", runDir.getAbsolutePath(), outputDir.getAbsolutePath());
+		if (dataSource.hasStreamType(ExecutionTraceStreamType.XHASH)) {
+			CopyOption copyOptions[] = appendMode ? new CopyOption[] { StandardCopyOption.REPLACE_EXISTING }
+					: new CopyOption[0];
+			long hashLabelBytes = Files.copy(dataSource.getDataInputStream(ExecutionTraceStreamType.XHASH),
+					graphWriters.dataSink.getHashLabelPath(), copyOptions);
+			report.bytesWritten(ModularTraceStreamType.XHASH, hashLabelBytes);
+			if (outputArchive == null) {
+				// also compiles the label table in the output directory, for everything that loads it later
+				ApplicationModuleSet.getInstance().loadCrossModuleLabels(
+						graphWriters.dataSink.getHashLabelPath().toFile());
+			} else {
+				ApplicationModuleSet.getInstance().loadCrossModuleLabels(
+						dataSource.getDataInputStream(ExecutionTraceStreamType.XHASH));
+			}
+		}
+		try {
+			transformGraph();
+		} finally {
+			diagnostics.logSummary("Transform of " + runDir.getAbsolutePath());
+			if (edgeSpill != null)
+				edgeSpill.dispose();
+			if (outputArchive != null)
+				outputArchive.dispose();
+		}
+	}
+
+	private void transformGraph() throws IOException {
+		executionModules = executionModuleLoader.loadModules(dataSource);
+		executionModules.setDiagnostics(diagnostics);
+		if ((checkpointFile != null) && checkpointFile.exists())
+			restoreCheckpoint();
+
+		// decode all three graph streams ahead of the graph construction, each on its own reader thread
+		RawStreamPrefetcher nodeStream = null, edgeStream = null, crossModuleEdgeStream = null;
+		try {
+			nodeStream = startPrefetch(ExecutionTraceStreamType.GRAPH_NODE);
+			edgeStream = startPrefetch(ExecutionTraceStreamType.GRAPH_EDGE);
+			crossModuleEdgeStream = startPrefetch(ExecutionTraceStreamType.CROSS_MODULE_EDGE);
+
+			long metadataRecordCount = getRecordCount(ExecutionTraceStreamType.META);
+			long phaseStart = System.nanoTime();
+			loadMetadata(ExecutionTraceStreamType.META);
+			report.recordPhase(RawTransformReport.Phase.METADATA, System.nanoTime() - phaseStart,
+					getRecordCount(ExecutionTraceStreamType.META) - metadataRecordCount);
+
+			phaseStart = System.nanoTime();
+			transformNodes(nodeStream);
+			report.recordPhase(RawTransformReport.Phase.NODES, System.nanoTime() - phaseStart,
+					nodeStream.getRecordCount() - getRecordCount(ExecutionTraceStreamType.GRAPH_NODE));
+
+			phaseStart = System.nanoTime();
+			transformEdges(edgeStream);
+			report.recordPhase(RawTransformReport.Phase.EDGES, System.nanoTime() - phaseStart,
+					edgeStream.getRecordCount() - getRecordCount(ExecutionTraceStreamType.GRAPH_EDGE));
+
+			phaseStart = System.nanoTime();
+			transformCrossModuleEdges(crossModuleEdgeStream);
+			report.recordPhase(RawTransformReport.Phase.CROSS_MODULE_EDGES, System.nanoTime() - phaseStart,
+					crossModuleEdgeStream.getRecordCount() - getRecordCount(ExecutionTraceStreamType.CROSS_MODULE_EDGE));
+
+			recordCounts.put(ExecutionTraceStreamType.GRAPH_NODE, nodeStream.getRecordCount());
+			recordCounts.put(ExecutionTraceStreamType.GRAPH_EDGE, edgeStream.getRecordCount());
+			recordCounts.put(ExecutionTraceStreamType.CROSS_MODULE_EDGE, crossModuleEdgeStream.getRecordCount());
+		} finally {
+			if (nodeStream != null)
+				nodeStream.close();
+			if (edgeStream != null)
+				edgeStream.close();
+			if (crossModuleEdgeStream != null)
+				crossModuleEdgeStream.close();
+		}
+		report.moduleLookups(nodeStream.getModuleLookupCount(), nodeStream.getModuleLookupMissCount());
+		report.moduleLookups(edgeStream.getModuleLookupCount(), edgeStream.getModuleLookupMissCount());
+		report.moduleLookups(crossModuleEdgeStream.getModuleLookupCount(),
+				crossModuleEdgeStream.getModuleLookupMissCount());
+
+		Log.log("After transforming all elements, queues contains: %d intra-module, %d cross-module, %d gencode entry, %d suspicious system calls (intra-module), %d suspicious system calls (cross-module)",
+				intraModuleUIBQueue.remaining(), crossModuleUIBQueue.remaining(), gencodeEntryQueue.remaining(),
+				intraModuleSuspiciousSyscallQueue.remaining(), crossModuleSuspiciousSyscallQueue.remaining());
+
+		long phaseStart = System.nanoTime();
+		writeGraph();
+		report.recordPhase(RawTransformReport.Phase.GRAPH_EMISSION, System.nanoTime() - phaseStart, 0L);
+		phaseStart = System.nanoTime();
+		writeMetadata();
+		report.recordPhase(RawTransformReport.Phase.METADATA_EMISSION, System.nanoTime() - phaseStart, 0L);
+		graphWriters.close();
+		graphWriters.dataSink.finish();
+
+		if (checkpointFile != null)
+			saveCheckpoint();
+
+		writeReport();
+	}
+
+	private void writeReport() {
+		report.bytesWritten(ModularTraceStreamType.GRAPH_NODE,
+				graphWriters.dataSink.getBytesWritten(ModularTraceStreamType.GRAPH_NODE));
+		report.bytesWritten(ModularTraceStreamType.GRAPH_EDGE,
+				graphWriters.dataSink.getBytesWritten(ModularTraceStreamType.GRAPH_EDGE));
+		report.bytesWritten(ModularTraceStreamType.META,
+				graphWriters.dataSink.getBytesWritten(ModularTraceStreamType.META));
+		try {
+			report.write(dataSource.getProcessName(), appendMode);
+		} catch (IOException e) {
+			Log.log("Warning: failed to write the transform report %s: %s",
+					RawTransformReport.getFile(outputDir).getAbsolutePath(), e.getMessage());
+		}
+	}
+
+	private RawStreamPrefetcher startPrefetch(ExecutionTraceStreamType streamType) throws IOException {
+		long recordCount = getRecordCount(streamType);
+		InputStream input = dataSource.getDataInputStream(streamType);
+		RawTransformCheckpoint.skipRecords(input, streamType, recordCount);
+		return new RawStreamPrefetcher(input, streamType, executionModules, recordCount);
+	}
+
+	private long getRecordCount(ExecutionTraceStreamType streamType) {
+		Long recordCount = recordCounts.get(streamType);
+		return (recordCount == null) ? 0L : recordCount;
+	}
+
+	private void loadMetadata(ExecutionTraceStreamType streamType) throws IOException {
+		if (!dataSource.hasStreamType(streamType))
+			return;
+
+		RawGraphEntry.Cursor nodeEntry = new RawGraphEntry.Cursor(dataSource.getDataInputStream(streamType), 1);
+		if (!nodeEntry.advance())
+			throw new InvalidGraphException("Error: the metadata stream is missing its header!");
+
+		long mainModuleStartAddress = nodeEntry.first;
+		ModuleInstance mainModuleInstance = executionModules.getModule(mainModuleStartAddress, 0,
+				ExecutionTraceStreamType.GRAPH_NODE);
+		mainModule = ApplicationModuleSet.getInstance().modulesByName.get(mainModuleInstance.name);
+		establishModuleWriters(establishModuleData(mainModule));
+		// establishEdgeSet(mainModule);
+		Log.log("Main module is %s", mainModule);
+
+		// TODO: structure, new entry content, levels
+
+		long entryCount = getRecordCount(streamType); // entries following the header
+		for (long i = 0; i < entryCount; i++) {
+			if (!nodeEntry.advance())
+				throw new InvalidGraphException(
+						"Error: the %s stream is shorter than its checkpoint. Delete the checkpoint to transform the whole trace.",
+						streamType);
+		}
+
+		while (nodeEntry.advance()) {
+			entryCount++;
+			MetadataType type = MetadataType.forId((int) (nodeEntry.first & 0xff));
+			if (type == MetadataType.TIMEPOINT)
+				continue;
+
+			switch (type) {
+				case UIB:
+					RawUnexpectedIndirectBranch uib = RawUnexpectedIndirectBranch.parse(nodeEntry.first);
+
+					// Log.log("Loaded UIB #%d: %d traversals", uib.rawEdgeIndex, uib.getTraversalCount());
+
+					if (uib.isCrossModule)
+						crossModuleUIBQueue.add(uib.rawEdgeIndex, uib);
+					else
+						intraModuleUIBQueue.add(uib.rawEdgeIndex, uib);
+					break;
+				case INTERVAL:
+					RawUnexpectedIndirectBranchInterval interval = RawUnexpectedIndirectBranchInterval
+							.parse(nodeEntry.first);
+					uibIntervals.remove(interval.key); // extract the last interval per {type+span}
+					uibIntervals.put(interval.key, interval);
+					break;
+				case SSC:
+					RawSuspiciousSystemCall syscall = RawSuspiciousSystemCall.parse(nodeEntry.first);
+					if (syscall.isCrossModule)
+						crossModuleSuspiciousSyscallQueue.add(syscall.edgeIndex, syscall);
+					else
+						intraModuleSuspiciousSyscallQueue.add(syscall.edgeIndex, syscall);
+					break;
+				case SGE:
+					RawSuspiciousGencodeEntry gencodeEntry = RawSuspiciousGencodeEntry.parse(nodeEntry.first);
+					gencodeEntryQueue.add(gencodeEntry.edgeIndex, gencodeEntry);
+					break;
+			}
+		}
+		nodeEntry.close();
+		recordCounts.put(streamType, entryCount);
+
+		intraModuleUIBQueue.seal();
+		crossModuleUIBQueue.seal();
+		gencodeEntryQueue.seal();
+		crossModuleSuspiciousSyscallQueue.seal();
+		intraModuleSuspiciousSyscallQueue.seal();
+
+		Log.log("Queue sizes: %d IM, %d CM, %d GE", intraModuleUIBQueue.remaining(), crossModuleUIBQueue.remaining(),
+				gencodeEntryQueue.remaining());
+	}
+
+	private void transformNodes(RawStreamPrefetcher nodeEntry) throws IOException {
+
+		RawModuleData nodeData = establishModuleData(ModuleInstance.SYSTEM_MODULE);
+		ModuleNode<?> node = new ModuleBasicBlock(ApplicationModule.SYSTEM_MODULE, ModuleNode.PROCESS_ENTRY_SINGLETON,
+				0, ModuleNode.PROCESS_ENTRY_SINGLETON, MetaNodeType.SINGLETON);
+		IndexedModuleNode nodeId = nodeData.addNode(node);
+		long rawTag = RawTag.key(ModuleNode.PROCESS_ENTRY_SINGLETON, 0);
+		fakeAnonymousModuleTags.put(rawTag, ModuleNode.PROCESS_ENTRY_SINGLETON);
+		nodesByRawTag.put(rawTag, nodeId);
+		establishModuleWriters(nodesByModule.get(ApplicationModule.SYSTEM_MODULE));
+
+		node = new ModuleBasicBlock(ApplicationModule.SYSTEM_MODULE, ModuleNode.SYSTEM_SINGLETON, 0,
+				ModuleNode.SYSTEM_SINGLETON, MetaNodeType.SINGLETON);
+		nodeId = nodeData.addNode(node);
+		rawTag = RawTag.key(ModuleNode.SYSTEM_SINGLETON, 0);
+		fakeAnonymousModuleTags.put(rawTag, ModuleNode.SYSTEM_SINGLETON);
+		nodesByRawTag.put(rawTag, nodeId);
+
+		node = new ModuleBasicBlock(ApplicationModule.SYSTEM_MODULE, ModuleNode.CHILD_PROCESS_SINGLETON, 0,
+				ModuleNode.CHILD_PROCESS_SINGLETON, MetaNodeType.SINGLETON);
+		nodeId = nodeData.addNode(node);
+		rawTag = RawTag.key(ModuleNode.CHILD_PROCESS_SINGLETON, 0);
+		fakeAnonymousModuleTags.put(rawTag, ModuleNode.CHILD_PROCESS_SINGLETON);
+		nodesByRawTag.put(rawTag, nodeId);
+
+		while (nodeEntry.advance()) {
+			long absoluteTag = CrowdSafeTraceUtil.getTag(nodeEntry.first);
+			int tagVersion = CrowdSafeTraceUtil.getTagVersion(nodeEntry.first);
+			MetaNodeType nodeType = CrowdSafeTraceUtil.getNodeMetaType(nodeEntry.first);
+
+			ModuleInstance moduleInstance;
+			if (nodeType == MetaNodeType.SINGLETON) {
+				if ((absoluteTag == ModuleNode.PROCESS_ENTRY_SINGLETON) || (absoluteTag == ModuleNode.SYSTEM_SINGLETON)
+						|| (absoluteTag == ModuleNode.CHILD_PROCESS_SINGLETON)) {
+					moduleInstance = ModuleInstance.SYSTEM;
+				} else if ((absoluteTag >= ModuleNode.JIT_SINGLETON_START)
+						&& (absoluteTag < ModuleNode.JIT_SINGLETON_END)) {
+					moduleInstance = ModuleInstance.ANONYMOUS;
+				} else {
+					throw new InvalidGraphException("Error: unknown singleton with tag 0x%x!", absoluteTag);
+				}
+			} else if ((absoluteTag >= ModuleNode.JIT_SINGLETON_START) // FIXME: temporary hack
+					&& (absoluteTag < ModuleNode.JIT_SINGLETON_END)) {
+				moduleInstance = ModuleInstance.ANONYMOUS;
+			} else {
+				moduleInstance = nodeEntry.fromModule;
+			}
+			if (moduleInstance == null) {
+				if (unknownNodeModules.count())
+					unknownNodeModules.sample(absoluteTag, tagVersion, nodeType);
+				continue;
+			}
+
+			ApplicationModule module = ApplicationModuleSet.getInstance().modulesByName.get(moduleInstance.name);
+
+			int relativeTag;
+			ModuleBoundaryNode.HashLabel jitLabel = null;
+			ApplicationModule jitOwner = null;
+			boolean isNewJITSingleton = false;
+			if (module.isAnonymous) {
+				if ((absoluteTag == ModuleNode.PROCESS_ENTRY_SINGLETON) || (absoluteTag == ModuleNode.SYSTEM_SINGLETON)
+						|| (absoluteTag == ModuleNode.CHILD_PROCESS_SINGLETON)) {
+					module = ApplicationModule.SYSTEM_MODULE;
+					moduleInstance = ModuleInstance.SYSTEM;
+				} else {
+					module = ApplicationModule.ANONYMOUS_MODULE;
+					moduleInstance = ModuleInstance.ANONYMOUS;
+					if (nodeType == MetaNodeType.SINGLETON) {
+						if (!ApplicationModuleSet.getInstance().isToAnonymous(nodeEntry.second)) {
+							new InvalidGraphException("Error: cannot find the owner of black box with entry 0x%x!",
+									nodeEntry.second);
+						}
+
+						// TODO: removing extraneous nodes requires patching the data set for the whole
+						// anonymous module
+					}
+				}
+
+				long lookup = RawTag.key(absoluteTag, tagVersion);
+				int tag = fakeAnonymousModuleTags.get(lookup);
+				if (tag == LongIntHashMap.NOT_FOUND) {
+					tag = fakeAnonymousTagIndex++;
+					fakeAnonymousModuleTags.put(lookup, tag);
+					if (anonymousTagMappings.count())
+						anonymousTagMappings.sample(absoluteTag, tagVersion, tag, moduleInstance.filename,
+								nodeEntry.second);
+				}
+				relativeTag = tag;
+			} else {
+				relativeTag = (int) (absoluteTag - moduleInstance.start);
+			}
+
+			nodeData = establishModuleData(module);
+			// moduleModule = establishModuleData(module).moduleList.establishModule(moduleInstance.unit);
+			node = new ModuleBasicBlock(module, relativeTag, module.isAnonymous ? 0 : tagVersion, nodeEntry.second,
+					nodeType);
+			if (isNewJITSingleton)
+				jitSingletons.put(jitOwner, node);
+			nodeId = nodeData.addNode(node);
+
+			if (module.isAnonymous)
+				nodesByRawTag.put(RawTag.key(absoluteTag, tagVersion), nodeId);
+			else
+				establishModuleWriters(nodesByModule.get(module));
+		}
+	}
+
+	private void transformEdges(RawStreamPrefetcher edgeEntry) throws IOException {
+
+		long entryIndex = edgeEntry.getRecordCount() - 1L;
+		while (edgeEntry.advance()) {
+			entryIndex++;
+
+			long absoluteFromTag = CrowdSafeTraceUtil.getTag(edgeEntry.first);
+			int fromTagVersion = CrowdSafeTraceUtil.getTagVersion(edgeEntry.first);
+			IndexedModuleNode fromNodeId = identifyNode(absoluteFromTag, fromTagVersion, edgeEntry.fromModule);
+
+			EdgeType type = CrowdSafeTraceUtil.getTagEdgeType(edgeEntry.first);
+			int ordinal = CrowdSafeTraceUtil.getEdgeOrdinal(edgeEntry.first);
+
+			long absoluteToTag = CrowdSafeTraceUtil.getTag(edgeEntry.second);
+			int toTagVersion = CrowdSafeTraceUtil.getTagVersion(edgeEntry.second);
+			IndexedModuleNode toNodeId = identifyNode(absoluteToTag, toTagVersion, edgeEntry.toModule);
+
+			// if (type == EdgeType.UNEXPECTED_RETURN)
+			// Log.log("Loaded unexpected return from 0x%x to 0x%x", absoluteFromTag, absoluteToTag);
+
+			if (fromNodeId == null) {
+				if (toNodeId == null) {
+					if (missingEdgeNodes.count())
+						missingEdgeNodes.sample(absoluteFromTag, fromTagVersion, type.code, ordinal, absoluteToTag,
+								toTagVersion);
+				} else {
+					if (missingFromNodes.count())
+						missingFromNodes.sample(toNodeId.module.filename, absoluteFromTag, fromTagVersion, type.code,
+								ordinal, absoluteToTag, toTagVersion);
+				}
+				continue;
+			}
+
+			if (toNodeId == null) {
+				if (missingToNodes.count())
+					missingToNodes.sample(fromNodeId.module.filename, absoluteFromTag, fromTagVersion, type.code,
+							ordinal, absoluteToTag, toTagVersion);
+				continue;
+			}
+
+			if (type.isHighOrdinal(ordinal) && highOrdinalEdges.count())
+				highOrdinalEdges.sample(fromNodeId.module.filename, absoluteFromTag, fromTagVersion, type.code, ordinal,
+						absoluteToTag, toTagVersion);
+
+			if (fromNodeId.module == toNodeId.module) {
+				RawEdge edge;
+				if (fromNodeId.module.isAnonymous)
+					edge = addEdge(ApplicationModule.ANONYMOUS_MODULE, fromNodeId, toNodeId, type, ordinal);
+				else
+					edge = addEdge(fromNodeId.module, fromNodeId, toNodeId, type, ordinal);
+
+				RawUnexpectedIndirectBranch uib = intraModuleUIBQueue.pollLast(entryIndex);
+				RawSuspiciousSystemCall ssc;
+				while ((ssc = intraModuleSuspiciousSyscallQueue.poll(entryIndex)) != null) {
+					ssc.entryEdge = ssc.exitEdge = edge;
+					establishSSCs(fromNodeId.module).add(ssc);
+
+					// Log.log("SSC: raising edge: %s (index %d); next IM SSC edge index is %d",
+					// edge,
+					// ssc.edgeIndex,
+					// intraModuleSuspiciousSyscallQueue.isEmpty() ? 0 : intraModuleSuspiciousSyscallQueue
+					// .peekFirst().edgeIndex);
+				}
+
+				if (uib != null) {
+					uib.moduleEdge = edge;
+					establishUIBs(fromNodeId.module).add(uib);
+				}
+			} else {
+				if (moduleCrossingEdges.count())
+					moduleCrossingEdges.sample(fromNodeId.node, toNodeId.node, fromNodeId.module, toNodeId.module);
+				// throw new IllegalStateException(String.format(
+				// "Intra-module edge from %s to %s crosses a module boundary!", fromNodeId.node, toNodeId.node));
+			}
+		}
+	}
+
+	private void transformCrossModuleEdges(RawStreamPrefetcher edgeEntry) throws IOException {
+
+		long entryIndex = edgeEntry.getRecordCount() - 1L;
+		while (edgeEntry.advance()) {
+			entryIndex++;
+
+			long absoluteFromTag = CrowdSafeTraceUtil.getTag(edgeEntry.first);
+			int fromTagVersion = CrowdSafeTraceUtil.getTagVersion(edgeEntry.first);
+			EdgeType type = CrowdSafeTraceUtil.getTagEdgeType(edgeEntry.first);
+			int ordinal = CrowdSafeTraceUtil.getEdgeOrdinal(edgeEntry.first);
+			IndexedModuleNode fromNodeId = identifyNode(absoluteFromTag, fromTagVersion, edgeEntry.fromModule);
+
+			long absoluteToTag = CrowdSafeTraceUtil.getTag(edgeEntry.second);
+			int toTagVersion = CrowdSafeTraceUtil.getTagVersion(edgeEntry.second);
+			IndexedModuleNode toNodeId = identifyNode(absoluteToTag, toTagVersion, edgeEntry.toModule);
+
+			long hash = edgeEntry.third;
+
+			if (fromNodeId == null) {
+				if (toNodeId == null) {
+					if (missingCrossModuleEdgeNodes.count())
+						missingCrossModuleEdgeNodes.sample(type.code, absoluteFromTag, fromTagVersion, absoluteToTag,
+								toTagVersion);
+				} else {
+					if (missingCrossModuleFromNodes.count())
+						missingCrossModuleFromNodes.sample(absoluteFromTag, fromTagVersion, type.code,
+								toNodeId.module.filename, absoluteToTag, toTagVersion);
+				}
+				continue;
+			}
+
+			if (toNodeId == null) {
+				if (missingCrossModuleToNodes.count())
+					missingCrossModuleToNodes.sample(absoluteToTag, toTagVersion, type.code, fromNodeId.module.filename,
+							absoluteFromTag, fromTagVersion);
+				continue;
+			}
+
+			if (type.isHighOrdinal(ordinal) && highOrdinalCrossModuleEdges.count())
+				highOrdinalCrossModuleEdges.sample(fromNodeId.module.filename, absoluteFromTag, fromTagVersion,
+						type.code, ordinal, toNodeId.module.filename, absoluteToTag, toTagVersion);
+
+			if (fromNodeId.module == toNodeId.module) { // TODO: why is this possible? what about UIB?
+				addEdge(fromNodeId.module, fromNodeId, toNodeId, type, ordinal);
+			} else if (fromNodeId.module.isAnonymous && toNodeId.module.isAnonymous) {
+				addEdge(ApplicationModule.ANONYMOUS_MODULE, fromNodeId, toNodeId, type, ordinal);
+			} else {
+				ModuleBoundaryNode entry = new ModuleBoundaryNode(hash, MetaNodeType.MODULE_ENTRY);
+				IndexedModuleNode entryId = nodesByModule.get(toNodeId.module).addNode(entry);
+				RawEdge rawEntry = addEdge(toNodeId.module, entryId, toNodeId, type, type.moduleEntryOrdinal);
+
+				ModuleBoundaryNode exit = new ModuleBoundaryNode(hash, MetaNodeType.MODULE_EXIT);
+				IndexedModuleNode exitId = nodesByModule.get(fromNodeId.module).addNode(exit);
+				RawEdge rawExit = addEdge(fromNodeId.module, fromNodeId, exitId, type, ordinal);
+
+				if ((toNodeId.module == ApplicationModule.SYSTEM_MODULE) && systemModuleEdges.count())
+					systemModuleEdges.sample(rawExit);
+
+				RawUnexpectedIndirectBranch uib = crossModuleUIBQueue.pollLast(entryIndex);
+
+				if (uib != null) {
+					uib.moduleEdge = rawEntry;
+					establishUIBs(toNodeId.module).add(uib);
+
+					uib = new RawUnexpectedIndirectBranch(uib);
+					uib.moduleEdge = rawExit;
+					establishUIBs(fromNodeId.module).add(uib);
+				}
+
+				RawSuspiciousGencodeEntry gencodeEntry = gencodeEntryQueue.poll(entryIndex);
+				if (gencodeEntry != null) {
+					gencodeEntry.edge = rawExit;
+					establishSGEs(fromNodeId.module).add(gencodeEntry);
+				}
+				RawSuspiciousSystemCall ssc;
+				while ((ssc = crossModuleSuspiciousSyscallQueue.poll(entryIndex)) != null) {
+					ssc.entryEdge = rawEntry;
+					ssc.exitEdge = rawExit;
+					establishSSCs(fromNodeId.module).add(ssc);
+
+					// Log.log("SSC: raising edges: [%s] and [%s] (index %d); next CM SSC edge index: %d", rawEntry,
+					// rawExit, ssc.edgeIndex, crossModuleSuspiciousSyscallQueue.isEmpty() ? 0
+					// : crossModuleSuspiciousSyscallQueue.peekFirst().edgeIndex);
+				}
+			}
+		}
+	}
+
+	private RawModuleData establishModuleData(ApplicationModule module) {
+		RawModuleData data = nodesByModule.get(module);
+		if (data == null) {
+			data = new RawModuleData(module);
+			nodesByModule.put(module, data);
+		}
+		return data;
+	}
+
+	private void establishModuleWriters(ModuleDataWriter.ModularData data) throws IOException {
+		// the anonymous module is distilled from scratch each time, so it is always rewritten
+		ApplicationModule module = data.getModule();
+		graphWriters.establishModuleWriters(data,
+				checkpointNodeCounts.containsKey(module) && (module != ApplicationModule.ANONYMOUS_MODULE));
+	}
+
+	private static int getCheckpointCount(Map<ApplicationModule, Integer> checkpointCounts, ApplicationModule module) {
+		Integer count = checkpointCounts.get(module);
+		return (count == null) ? 0 : count;
+	}
+
+	private RawEdge addEdge(ApplicationModule module, IndexedModuleNode fromNode, IndexedModuleNode toNode,
+			EdgeType type, int ordinal) throws IOException {
+		if ((type == EdgeType.UNEXPECTED_RETURN) && unexpectedReturnEdges.count())
+			unexpectedReturnEdges.sample(new RawEdge(fromNode, toNode, type, ordinal));
+		if ((edgeSpill != null) && (module != ApplicationModule.ANONYMOUS_MODULE)) {
+			RawEdge edge = new RawEdge(fromNode, toNode, type, ordinal);
+			edgeSpill.addEdge(module, edge.getOrderKey()); // deduplicated during the merge in writeModuleData()
+			report.edgeSpilled();
+			return edge;
+		}
+
+		Map<RawEdge, RawEdge> moduleEdges = establishEdgeSet(module);
+		RawEdge edge = new RawEdge(fromNode, toNode, type, ordinal);
+		RawEdge existing = moduleEdges.get(edge);
+		report.edgeAdded(existing != null);
+		if (existing == null) {
+			moduleEdges.put(edge, edge);
+			return edge;
+		} else {
+			return existing;
+		}
+	}
+
+	private Map<RawEdge, RawEdge> establishEdgeSet(ApplicationModule module) {
+		Map<RawEdge, RawEdge> set = edgesByModule.get(module);
+		if (set == null) {
+			set = new HashMap<RawEdge, RawEdge>();
+			edgesByModule.put(module, set);
+		}
+		return set;
+	}
+
+	private UnexpectedIndirectBranches establishUIBs(ApplicationModule module) {
+		UnexpectedIndirectBranches uibs = uibsByModule.get(module);
+		if (uibs == null) {
+			uibs = new UnexpectedIndirectBranches();
+			uibsByModule.put(module, uibs);
+			metadataModules.add(module);
+		}
+		return uibs;
+	}
+
+	private Set<RawSuspiciousGencodeEntry> establishSGEs(ApplicationModule module) {
+		Set<RawSuspiciousGencodeEntry> sges = sgesByModule.get(module);
+		if (sges == null) {
+			sges = new HashSet<RawSuspiciousGencodeEntry>();
+			sgesByModule.put(module, sges);
+			metadataModules.add(module);
+		}
+		return sges;
+	}
+
+	private Set<RawSuspiciousSystemCall> establishSSCs(ApplicationModule module) {
+		Set<RawSuspiciousSystemCall> sscs = sscsByModule.get(module);
+		if (sscs == null) {
+			sscs = new HashSet<RawSuspiciousSystemCall>();
+			sscsByModule.put(module, sscs);
+			metadataModules.add(module);
+		}
+		return sscs;
+	}
+
+	/**
+	 * @param resolvedInstance
+	 *            the module instance containing the tag, as resolved by the stream prefetcher
+	 */
+	private IndexedModuleNode identifyNode(long absoluteTag, int tagVersion, ModuleInstance resolvedInstance) {
+		if ((absoluteTag >= ModuleNode.SYSCALL_SINGLETON_START) && (absoluteTag < ModuleNode.SYSCALL_SINGLETON_END)) {
+			IndexedModuleNode nodeId = syscallSingletons.get(absoluteTag);
+			if (nodeId == null) {
+				RawModuleData nodeData = establishModuleData(ApplicationModule.SYSTEM_MODULE);
+				ModuleBasicBlock node = new ModuleBasicBlock(ApplicationModule.SYSTEM_MODULE, absoluteTag, 0, 0L,
+						MetaNodeType.SINGLETON);
+				nodeId = nodeData.addNode(node);
+				syscallSingletons.put(absoluteTag, nodeId);
+			}
+			return nodeId;
+		}
+
+		ModuleInstance moduleInstance;
+		ApplicationModule module;
+		if ((absoluteTag == ModuleNode.PROCESS_ENTRY_SINGLETON) || (absoluteTag == ModuleNode.SYSTEM_SINGLETON)
+				|| (absoluteTag == ModuleNode.CHILD_PROCESS_SINGLETON)) {
+			moduleInstance = ModuleInstance.SYSTEM;
+			module = ApplicationModule.SYSTEM_MODULE;
+		} else if ((absoluteTag >= ModuleNode.JIT_SINGLETON_START) && (absoluteTag < ModuleNode.JIT_SINGLETON_END)) {
+			return nodesByRawTag.get(RawTag.key(absoluteTag, tagVersion));
+		} else {
+			moduleInstance = resolvedInstance;
+			if (moduleInstance == null)
+				return null;
+			if (moduleInstance.isAnonymous)
+				module = ApplicationModule.ANONYMOUS_MODULE;
+			else
+				module = ApplicationModuleSet.getInstance().modulesByName.get(moduleInstance.name);
+		}
+
+		// ApplicationModule moduleModule = nodesByModule.get(module).moduleList.getModule(moduleInstance.unit);
+
+		if (moduleInstance.isAnonymous) {
+			IndexedModuleNode node = nodesByRawTag.get(RawTag.key(absoluteTag, tagVersion));
+			return node;
+		}
+
+		long tag = (absoluteTag - moduleInstance.start);
+		RawModuleData moduleData = nodesByModule.get(module);
+		if (moduleData == null)
+			return null;
+		IndexedModuleNode node = moduleData.getNode(tag, tagVersion);
+		return node;
+	}
+
+	private void writeGraph() throws IOException {
+		// start with the anonymous module, since its distillation usually takes longest
+		List<ApplicationModule> modules = new ArrayList<ApplicationModule>(nodesByModule.keySet());
+		if (modules.remove(ApplicationModule.ANONYMOUS_MODULE))
+			modules.add(0, ApplicationModule.ANONYMOUS_MODULE);
+
+		if (emissionThreadCount == 1) {
+			for (ApplicationModule module : modules)
+				writeModuleGraph(module);
+			return;
+		}
+
+		ExecutorService writers = Executors.newFixedThreadPool(Math.min(emissionThreadCount, modules.size()));
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (final ApplicationModule module : modules) {
+				results.add(writers.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						writeModuleGraph(module);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> result : results) {
+				try {
+					result.get();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while writing the module graphs", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					throw new InvalidGraphException(e.getCause());
+				}
+			}
+		} finally {
+			writers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Rebuild and write the graph of one module. Modules are independent of each other at this point, so this may
+	 * run concurrently for different modules.
+	 */
+	private void writeModuleGraph(ApplicationModule module) throws IOException {
+		if (module != ApplicationModule.ANONYMOUS_MODULE) {
+			writeModuleData(module);
+			return;
+		}
+
+		ModuleNode<?> transformedNode, fromNode, toNode;
+		Edge<ModuleNode<?>> transformedEdge;
+		List<ModuleNode<?>> transformedNodes = new ArrayList<ModuleNode<?>>();
+		String name = "Raw graph loaded from " + dataSource.getDirectory().getAbsolutePath();
+
+		ModuleGraph<ModuleNode<?>> graph = new ModuleGraph<ModuleNode<?>>(name, module);
+
+		for (IndexedModuleNode node : nodesByModule.get(module).getSortedNodeList()) {
+			switch (node.getType()) {
+				case MODULE_ENTRY:
+				case MODULE_EXIT:
+					transformedNode = new ModuleBoundaryNode(node.getHash(), node.getType());
+					break;
+				default:
+					transformedNode = new ModuleBasicBlock(module, node.getRelativeTag(), node.getInstanceId(),
+							node.getHash(), node.getType());
+			}
+			transformedNodes.add(transformedNode);
+			graph.addNode(transformedNode);
+		}
+
+		Map<RawEdge, RawEdge> edgeList = edgesByModule.get(module);
+		for (RawEdge edge : edgeList.values()) {
+			fromNode = transformedNodes.get(edge.getFromNode().index);
+			toNode = transformedNodes.get(edge.getToNode().index);
+			transformedEdge = new Edge<ModuleNode<?>>(fromNode, toNode, edge.getEdgeType(), edge.getOrdinal());
+			fromNode.addOutgoingEdge(transformedEdge);
+			toNode.addIncomingEdge(transformedEdge);
+		}
+		graph.freezeEdges();
+
+		// the anonymous module is distilled into subgraphs, so it still goes through the graph model
+		long distillationStart = System.nanoTime();
+		ApplicationAnonymousGraphs anonymousGraphs = new ApplicationAnonymousGraphs();
+		anonymousGraphs.inflate(graph);
+		AnonymousGraphSetDistiller.distillGraphs(anonymousGraphs);
+		report.recordPhase(RawTransformReport.Phase.ANONYMOUS_DISTILLATION, System.nanoTime() - distillationStart, 0L);
+		AnonymousGraphWriter anonymousWriter = new AnonymousGraphWriter(anonymousGraphs);
+		anonymousWriter.initialize(graphWriters);
+		anonymousWriter.writeGraph();
+		// not setting edge indexes b/c there's no edge-specific metadata in the anonymous module
+	}
+
+	/**
+	 * Write the module's nodes and deduplicated edges straight from the raw module data, without materializing a
+	 * graph. Nodes are written in index order and edges in ascending order of <code>RawEdge.getOrderKey()</code>. Each
+	 * edge carrying metadata gets the index at which it was written.
+	 */
+	private void writeModuleData(ApplicationModule module) throws IOException {
+		RawModuleData nodeData = nodesByModule.get(module);
+		establishModuleWriters(nodeData);
+		final ModuleDataWriter writer = graphWriters.getWriter(module);
+
+		// in append mode, only the nodes and edges added since the checkpoint are written
+		int checkpointNodeCount = getCheckpointCount(checkpointNodeCounts, module);
+		for (IndexedModuleNode node : nodeData.getSortedNodeList()) {
+			if (node.index >= checkpointNodeCount)
+				writer.writeNode(node);
+		}
+
+		if (edgeSpill == null) {
+			Map<RawEdge, RawEdge> edgeSet = edgesByModule.get(module);
+			if (edgeSet == null)
+				return;
+
+			List<RawEdge> edges = new ArrayList<RawEdge>(edgeSet.size());
+			for (RawEdge edge : edgeSet.values()) {
+				if (!edge.isCheckpointed())
+					edges.add(edge);
+			}
+			Collections.sort(edges, RawEdge.OrderKeySorter.INSTANCE);
+			int edgeIndex = getCheckpointCount(checkpointEdgeCounts, module);
+			for (RawEdge edge : edges) {
+				writer.writeEdge(edge.getEdgeWord());
+				edge.setEdgeIndex(edgeIndex++);
+			}
+		} else {
+			final Map<Long, List<RawEdge>> metadataEdges = getMetadataEdges(module);
+			int distinctCount = edgeSpill.merge(module, new RawEdgeSpill.EdgeVisitor() {
+				@Override
+				public void visitEdge(long edgeKey, int edgeIndex) throws IOException {
+					writer.writeEdge(RawEdge.getEdgeWord(edgeKey));
+					List<RawEdge> edges = metadataEdges.get(edgeKey);
+					if (edges != null) {
+						for (RawEdge edge : edges)
+							edge.setEdgeIndex(edgeIndex);
+					}
+				}
+			});
+			report.spilledEdgesMerged(distinctCount);
+		}
+	}
+
+	/**
+	 * Spilled edges are not canonical, so find every edge instance that metadata refers to, by order key.
+	 */
+	private Map<Long, List<RawEdge>> getMetadataEdges(ApplicationModule module) {
+		List<RawEdge> edges = new ArrayList<RawEdge>();
+		UnexpectedIndirectBranches uibs = uibsByModule.get(module);
+		if (uibs != null) {
+			for (RawUnexpectedIndirectBranch uib : uibs.uibsByRawEdgeIndex.values())
+				edges.add(uib.moduleEdge);
+		}
+		Set<RawSuspiciousSystemCall> sscs = sscsByModule.get(module);
+		if (sscs != null) {
+			for (RawSuspiciousSystemCall ssc : sscs)
+				edges.add(ssc.exitEdge);
+		}
+		Set<RawSuspiciousGencodeEntry> sges = sgesByModule.get(module);
+		if (sges != null) {
+			for (RawSuspiciousGencodeEntry sge : sges)
+				edges.add(sge.edge);
+		}
+
+		Map<Long, List<RawEdge>> edgesByKey = new HashMap<Long, List<RawEdge>>();
+		for (RawEdge edge : edges) {
+			long edgeKey = edge.getOrderKey();
+			List<RawEdge> matches = edgesByKey.get(edgeKey);
+			if (matches == null) {
+				matches = new ArrayList<RawEdge>();
+				edgesByKey.put(edgeKey, matches);
+			}
+			matches.add(edge);
+		}
+		return edgesByKey;
+	}
+
+	/**
+	 * <pre>
+	private void writeNodes() throws IOException {
+		for (ApplicationModule module : nodesByModule.keySet()) {
+			ModuleDataWriter writer = graphWriters.getWriter(module);
+			for (IndexedModuleNode node : nodesByModule.get(module).getSortedNodeList()) {
+				writer.writeNode(node);
+			}
+		}
+	}
+
+	private void writeEdges() throws IOException {
+		for (Map.Entry<ApplicationModule, Map<RawEdge, RawEdge>> moduleEdgeList : edgesByModule.entrySet()) {
+			// List<RawEdge> orderedEdges = new ArrayList<RawEdge>(moduleEdgeList.getValue().values());
+			// Collections.sort(orderedEdges, RawEdge.EdgeIndexSorter.INSTANCE);
+			int edgeIndex = 0;
+			ModuleDataWriter writer = graphWriters.getWriter(moduleEdgeList.getKey());
+			for (RawEdge edge : moduleEdgeList.getValue().values()) {
+				edge.setEdgeIndex(edgeIndex++);
+				writer.writeEdge(edge);
+			}
+		}
+	}
+	 */
+
+	private void writeMetadata() throws IOException {
+		UnexpectedIndirectBranches uibsMain = null;
+		Set<RawSuspiciousGencodeEntry> sgesMain = null;
+		Set<RawSuspiciousSystemCall> sscsMain = null;
+		for (ApplicationModule module : metadataModules) {
+			UnexpectedIndirectBranches uibs = uibsByModule.get(module);
+			Set<RawSuspiciousGencodeEntry> sges = sgesByModule.get(module);
+			Set<RawSuspiciousSystemCall> sscs = sscsByModule.get(module);
+			if (module == mainModule) {
+				uibsMain = uibs;
+				sgesMain = sges;
+				sscsMain = sscs;
+				continue;
+			}
+
+			ModuleDataWriter writer = graphWriters.getWriter(module);
+			writer.writeMetadataHeader(false);
+			writer.writeSequenceMetadataHeader(1, true);
+			List<RawUnexpectedIndirectBranch> uibsSorted = null;
+			if (uibs != null)
+				uibsSorted = uibs.sortAndMerge();
+			writer.writeExecutionMetadataHeader(executionId, (uibsSorted == null) ? 0 : uibsSorted.size(), 0,
+					(sscs == null) ? 0 : sscs.size(), (sges == null) ? 0 : sges.size());
+			if (uibsSorted != null) {
+				for (RawUnexpectedIndirectBranch uib : uibsSorted)
+					writer.writeUIB(uib.getModuleEdgeIndex(), uib.isAdmitted(), uib.getTraversalCount(),
+							uib.getInstanceCount());
+			}
+			if (sscs != null) {
+				for (RawSuspiciousSystemCall ssc : sscs)
+					writer.writeSSC(ssc.sysnum, ssc.exitEdge.getEdgeIndex());
+			}
+			if (sges != null) {
+				for (RawSuspiciousGencodeEntry sge : sges)
+					writer.writeSGE(sge.edge.getEdgeIndex(), sge.uibCount, sge.suibCount);
+			}
+		}
+		if (mainModule != null) {
+			ModuleDataWriter writer = graphWriters.getWriter(mainModule);
+			// if (writer == null)
+			// writer = graphWriters.createMetadataWriter(mainModule);
+			writer.writeMetadataHeader(true);
+			writer.writeSequenceMetadataHeader(1, true);
+			List<RawUnexpectedIndirectBranch> uibsSorted = null;
+			if (uibsMain != null) {
+				uibsSorted = uibsMain.sortAndMerge();
+			}
+			writer.writeExecutionMetadataHeader(executionId, uibsSorted == null ? 0 : uibsSorted.size(),
+					uibIntervals.size(), (sscsMain == null) ? 0 : sscsMain.size(),
+					(sgesMain == null) ? 0 : sgesMain.size());
+			if (uibsSorted != null) {
+				for (RawUnexpectedIndirectBranch uib : uibsSorted)
+					writer.writeUIB(uib.getModuleEdgeIndex(), uib.isAdmitted(), uib.getTraversalCount(),
+							uib.getInstanceCount());
+			}
+			for (RawUnexpectedIndirectBranchInterval interval : uibIntervals.values()) {
+				writer.writeUIBInterval(interval.key.type.id, interval.key.span, interval.count,
+						interval.maxConsecutive);
+			}
+			if (sscsMain != null) {
+				for (RawSuspiciousSystemCall ssc : sscsMain)
+					writer.writeSSC(ssc.sysnum, ssc.exitEdge.getEdgeIndex());
+			}
+			if (sgesMain != null) {
+				for (RawSuspiciousGencodeEntry sge : sgesMain)
+					writer.writeSGE(sge.edge.getEdgeIndex(), sge.uibCount, sge.suibCount);
+			}
+		} else {
+			Log.log("Warning: main module not found!");
+		}
+	}
+
+	private void saveCheckpoint() throws IOException {
+		RawTransformCheckpoint.Writer checkpoint = new RawTransformCheckpoint.Writer(checkpointFile,
+				dataSource.getProcessName(), recordCounts, nodesByModule.keySet());
+		try {
+			DataOutputStream output = checkpoint.output;
+			output.writeLong(executionId.getMostSignificantBits());
+			output.writeLong(executionId.getLeastSignificantBits());
+			output.writeInt(fakeAnonymousTagIndex);
+
+			output.writeInt(nodesByModule.size());
+			for (Map.Entry<ApplicationModule, RawModuleData> entry : nodesByModule.entrySet()) {
+				checkpoint.writeModule(entry.getKey());
+				checkpoint.writeNodes(entry.getValue());
+				Map<RawEdge, RawEdge> edgeSet = edgesByModule.get(entry.getKey());
+				List<RawEdge> edges = (edgeSet == null) ? new ArrayList<RawEdge>() : new ArrayList<RawEdge>(
+						edgeSet.values());
+				Collections.sort(edges, RawEdge.EdgeIndexSorter.INSTANCE);
+				checkpoint.writeEdges(edges);
+			}
+
+			long keys[] = nodesByRawTag.keys();
+			output.writeInt(keys.length);
+			for (long key : keys) {
+				output.writeLong(key);
+				checkpoint.writeNodeReference(nodesByRawTag.get(key));
+			}
+			keys = syscallSingletons.keys();
+			output.writeInt(keys.length);
+			for (long key : keys) {
+				output.writeLong(key);
+				checkpoint.writeNodeReference(syscallSingletons.get(key));
+			}
+			keys = fakeAnonymousModuleTags.keys();
+			output.writeInt(keys.length);
+			for (long key : keys) {
+				output.writeLong(key);
+				output.writeInt(fakeAnonymousModuleTags.get(key));
+			}
+
+			output.writeInt(uibIntervals.size());
+			for (RawUnexpectedIndirectBranchInterval interval : uibIntervals.values()) {
+				output.writeInt(interval.key.type.id);
+				output.writeInt(interval.key.span);
+				output.writeInt(interval.count);
+				output.writeInt(interval.maxConsecutive);
+			}
+			output.writeInt(uibsByModule.size());
+			for (Map.Entry<ApplicationModule, UnexpectedIndirectBranches> entry : uibsByModule.entrySet()) {
+				checkpoint.writeModule(entry.getKey());
+				output.writeInt(entry.getValue().uibsByRawEdgeIndex.size());
+				for (RawUnexpectedIndirectBranch uib : entry.getValue().uibsByRawEdgeIndex.values()) {
+					output.writeInt(uib.rawEdgeIndex);
+					output.writeBoolean(uib.isCrossModule);
+					output.writeBoolean(uib.isAdmitted());
+					output.writeInt(uib.getTraversalCount());
+					checkpoint.writeEdgeReference(uib.moduleEdge);
+				}
+			}
+			output.writeInt(sscsByModule.size());
+			for (Map.Entry<ApplicationModule, Set<RawSuspiciousSystemCall>> entry : sscsByModule.entrySet()) {
+				checkpoint.writeModule(entry.getKey());
+				output.writeInt(entry.getValue().size());
+				for (RawSuspiciousSystemCall ssc : entry.getValue()) {
+					output.writeInt(ssc.sysnum);
+					output.writeInt(ssc.edgeIndex);
+					output.writeBoolean(ssc.isCrossModule);
+					checkpoint.writeEdgeReference(ssc.entryEdge);
+					checkpoint.writeEdgeReference(ssc.exitEdge);
+				}
+			}
+			output.writeInt(sgesByModule.size());
+			for (Map.Entry<ApplicationModule, Set<RawSuspiciousGencodeEntry>> entry : sgesByModule.entrySet()) {
+				checkpoint.writeModule(entry.getKey());
+				output.writeInt(entry.getValue().size());
+				for (RawSuspiciousGencodeEntry sge : entry.getValue()) {
+					output.writeInt(sge.edgeIndex);
+					output.writeInt(sge.uibCount);
+					output.writeInt(sge.suibCount);
+					checkpoint.writeEdgeReference(sge.edge);
+				}
+			}
+
+			checkpoint.commit();
+		} catch (IOException e) {
+			checkpoint.abort();
+			throw e;
+		}
+		Log.log("Saved transform checkpoint %s", checkpointFile.getAbsolutePath());
+	}
+
+	/**
+	 * Restore the state of the previous append-mode transform. The graph files of each checkpointed module then
+	 * already contain its restored nodes and edges, so only the ones added by this transform will be appended.
+	 */
+	private void restoreCheckpoint() throws IOException {
+		RawTransformCheckpoint.Reader checkpoint = new RawTransformCheckpoint.Reader(checkpointFile,
+				dataSource.getProcessName(), nodesByModule);
+		try {
+			DataInputStream input = checkpoint.input;
+			recordCounts.putAll(checkpoint.recordCounts);
+			executionId = new UUID(input.readLong(), input.readLong());
+			fakeAnonymousTagIndex = input.readInt();
+
+			int moduleCount = input.readInt();
+			for (int i = 0; i < moduleCount; i++) {
+				ApplicationModule module = checkpoint.readModule();
+				RawModuleData nodeData = establishModuleData(module);
+				checkpoint.readNodes(nodeData);
+				checkpointNodeCounts.put(module, nodeData.getNodeCount());
+
+				List<RawEdge> edges = checkpoint.readEdges(nodeData);
+				if (!edges.isEmpty()) {
+					Map<RawEdge, RawEdge> edgeSet = establishEdgeSet(module);
+					for (int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
+						RawEdge edge = edges.get(edgeIndex);
+						edge.setEdgeIndex(edgeIndex);
+						edge.setCheckpointed();
+						edgeSet.put(edge, edge);
+					}
+				}
+				checkpointEdgeCounts.put(module, edges.size());
+			}
+
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				long key = input.readLong();
+				nodesByRawTag.put(key, checkpoint.readNodeReference());
+			}
+			count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				long key = input.readLong();
+				syscallSingletons.put(key, checkpoint.readNodeReference());
+			}
+			count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				long key = input.readLong();
+				fakeAnonymousModuleTags.put(key, input.readInt());
+			}
+
+			count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				RawUnexpectedIndirectBranchInterval interval = new RawUnexpectedIndirectBranchInterval(
+						RawUnexpectedIndirectBranchInterval.Type.forId(input.readInt()), input.readInt(),
+						input.readInt(), input.readInt());
+				uibIntervals.put(interval.key, interval);
+			}
+			moduleCount = input.readInt();
+			for (int i = 0; i < moduleCount; i++) {
+				UnexpectedIndirectBranches uibs = establishUIBs(checkpoint.readModule());
+				count = input.readInt();
+				for (int j = 0; j < count; j++) {
+					RawUnexpectedIndirectBranch uib = new RawUnexpectedIndirectBranch(input.readInt(),
+							input.readBoolean(), input.readBoolean(), input.readInt());
+					uib.moduleEdge = readEdgeReference(checkpoint);
+					uibs.add(uib);
+				}
+			}
+			moduleCount = input.readInt();
+			for (int i = 0; i < moduleCount; i++) {
+				Set<RawSuspiciousSystemCall> sscs = establishSSCs(checkpoint.readModule());
+				count = input.readInt();
+				for (int j = 0; j < count; j++) {
+					RawSuspiciousSystemCall ssc = new RawSuspiciousSystemCall(input.readInt(), input.readInt(),
+							input.readBoolean());
+					ssc.entryEdge = readEdgeReference(checkpoint);
+					ssc.exitEdge = readEdgeReference(checkpoint);
+					sscs.add(ssc);
+				}
+			}
+			moduleCount = input.readInt();
+			for (int i = 0; i < moduleCount; i++) {
+				Set<RawSuspiciousGencodeEntry> sges = establishSGEs(checkpoint.readModule());
+				count = input.readInt();
+				for (int j = 0; j < count; j++) {
+					RawSuspiciousGencodeEntry sge = new RawSuspiciousGencodeEntry(input.readInt(), input.readInt(),
+							input.readInt());
+					sge.edge = readEdgeReference(checkpoint);
+					sges.add(sge);
+				}
+			}
+		} finally {
+			checkpoint.close();
+		}
+		Log.log("Resuming from checkpoint %s after %d nodes, %d edges and %d cross-module edges",
+				checkpointFile.getAbsolutePath(), getRecordCount(ExecutionTraceStreamType.GRAPH_NODE),
+				getRecordCount(ExecutionTraceStreamType.GRAPH_EDGE),
+				getRecordCount(ExecutionTraceStreamType.CROSS_MODULE_EDGE));
+	}
+
+	private RawEdge readEdgeReference(RawTransformCheckpoint.Reader checkpoint) throws IOException {
+		RawEdge edge = checkpoint.readEdgeReference();
+		Map<RawEdge, RawEdge> edgeSet = edgesByModule.get(edge.fromNode.module);
+		RawEdge restored = (edgeSet == null) ? null : edgeSet.get(edge);
+		if (restored == null)
+			throw new InvalidGraphException("Error: checkpoint %s refers to an edge that it does not contain: %s",
+					checkpointFile.getAbsolutePath(), edge);
+		return restored;
+	}
+}
@@ -0,0 +1,86 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.util.Arrays;
+
+/**
+ * Correlates raw metadata entries with the trace edge at which each one was raised. Entries are collected as parallel
+ * arrays of edge index and item, sorted once by <code>seal()</code>, and then consumed by a cursor as the edge stream
+ * advances. Entries raised on the same edge keep the order in which they were added.
+ *
+ * An instance holds only the state of one transform session and is confined to the thread running that session.
+ */
+class RawMetadataQueue<ItemType> {
+
+	private static final int INITIAL_CAPACITY = 0x40;
+
+	private int edgeIndexes[] = new int[INITIAL_CAPACITY];
+	private Object items[] = new Object[INITIAL_CAPACITY];
+	private int size = 0;
+	private int cursor = 0;
+	private boolean isSealed = false;
+
+	void add(int edgeIndex, ItemType item) {
+		if (isSealed)
+			throw new IllegalStateException("Cannot add metadata to a sealed queue!");
+
+		if (size == edgeIndexes.length) {
+			edgeIndexes = Arrays.copyOf(edgeIndexes, size << 1);
+			items = Arrays.copyOf(items, size << 1);
+		}
+		edgeIndexes[size] = edgeIndex;
+		items[size] = item;
+		size++;
+	}
+
+	/**
+	 * Sort the entries by edge index. Sorting packed (edge index, position) words keeps the sort primitive and stable.
+	 */
+	void seal() {
+		long order[] = new long[size];
+		for (int i = 0; i < size; i++)
+			order[i] = (((long) edgeIndexes[i]) << 0x20) | i;
+		Arrays.sort(order);
+
+		int sortedIndexes[] = new int[size];
+		Object sortedItems[] = new Object[size];
+		for (int i = 0; i < size; i++) {
+			int position = (int) (order[i] & 0xffffffffL);
+			sortedIndexes[i] = edgeIndexes[position];
+			sortedItems[i] = items[position];
+		}
+		edgeIndexes = sortedIndexes;
+		items = sortedItems;
+		isSealed = true;
+	}
+
+	/**
+	 * Take the entry at the head of the queue, if it was raised on the edge at <code>edgeIndex</code>. An entry whose
+	 * edge was never transformed (e.g., the edge was dropped as invalid) stays at the head and holds back the entries
+	 * behind it, which are then reported by <code>remaining()</code> at the end of the transform.
+	 *
+	 * @return the entry, or null if there are no more for that edge
+	 */
+	@SuppressWarnings("unchecked")
+	ItemType poll(long edgeIndex) {
+		if ((cursor < size) && (edgeIndexes[cursor] == edgeIndex)) {
+			ItemType item = (ItemType) items[cursor];
+			items[cursor++] = null;
+			return item;
+		}
+		return null;
+	}
+
+	/**
+	 * Take all entries raised on the edge at <code>edgeIndex</code>, keeping only the last one.
+	 */
+	ItemType pollLast(long edgeIndex) {
+		ItemType last = null;
+		for (ItemType item = poll(edgeIndex); item != null; item = poll(edgeIndex))
+			last = item;
+		return last;
+	}
+
+	int remaining() {
+		return size - cursor;
+	}
+}
@@ -1,25 +1,25 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
 import edu.uci.plrg.cfi.x86.graph.data.graph.NodeIdentifier;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.writer.ModuleDataWriter;
+import edu.uci.plrg.cfi.x86.graph.util.LongIntHashMap;
+import edu.uci.plrg.cfi.x86.graph.util.LongObjectHashMap;
 
 public class RawModuleData implements ModuleDataWriter.ModularData {
 
 	private final ApplicationModule module;
 
-	private final Map<ModuleNode.Key, IndexedModuleNode> nodesByKey = new HashMap<ModuleNode.Key, IndexedModuleNode>();
-	private final Map<Long, IndexedModuleNode> entryPointHashes = new HashMap<Long, IndexedModuleNode>();
-	private final Map<Long, IndexedModuleNode> exitPointHashes = new HashMap<Long, IndexedModuleNode>();
+	/* basic blocks of this module, by packed (relative tag, instance id) key => index in the nodeList */
+	private final LongIntHashMap nodeIndexesByKey = new LongIntHashMap();
+	private final LongObjectHashMap<IndexedModuleNode> entryPointHashes = new LongObjectHashMap<IndexedModuleNode>();
+	private final LongObjectHashMap<IndexedModuleNode> exitPointHashes = new LongObjectHashMap<IndexedModuleNode>();
 
 	private final List<IndexedModuleNode> nodeList = new ArrayList<IndexedModuleNode>();
-	private final Map<IndexedModuleNode, Integer> nodeIndexMap = new HashMap<IndexedModuleNode, Integer>();
 
 	RawModuleData(ApplicationModule module) {
 		this.module = module;
@@ -35,13 +35,14 @@ public class RawModuleData implements ModuleDataWriter.ModularData {
 				existing = exitPointHashes.get(node.getHash());
 				break;
 			default:
-				existing = nodesByKey.get(node.getKey());
+				int index = nodeIndexesByKey.get(nodeKey(node.getRelativeTag(), node.getInstanceId()));
+				if (index != LongIntHashMap.NOT_FOUND)
+					existing = nodeList.get(index);
 		}
 		if (existing != null)
 			return existing;
 
 		IndexedModuleNode rawNode = new IndexedModuleNode(module, node, nodeList.size());
-		nodeIndexMap.put(rawNode, nodeList.size());
 		nodeList.add(rawNode);
 		switch (node.getType()) {
 			case MODULE_ENTRY:
@@ -51,7 +52,7 @@ public class RawModuleData implements ModuleDataWriter.ModularData {
 				exitPointHashes.put(node.getHash(), rawNode);
 				break;
 			default:
-				nodesByKey.put(node.getKey(), rawNode);
+				nodeIndexesByKey.put(nodeKey(node.getRelativeTag(), node.getInstanceId()), rawNode.index);
 		}
 		return rawNode;
 	}
@@ -61,17 +62,29 @@ public class RawModuleData implements ModuleDataWriter.ModularData {
 		return module;
 	}
 
-	IndexedModuleNode getNode(ModuleNode.Key key) {
-		return nodesByKey.get(key);
+	IndexedModuleNode getNode(long relativeTag, int instanceId) {
+		int index = nodeIndexesByKey.get(nodeKey(relativeTag, instanceId));
+		if (index == LongIntHashMap.NOT_FOUND)
+			return null;
+		return nodeList.get(index);
+	}
+
+	IndexedModuleNode getNodeAt(int index) {
+		return nodeList.get(index);
+	}
+
+	int getNodeCount() {
+		return nodeList.size();
 	}
 
 	@Override
 	public int getNodeIndex(NodeIdentifier node) {
-		Integer index = nodeIndexMap.get(node);
-		if (index == null) {
+		if (!(node instanceof IndexedModuleNode))
 			return 0;
-		}
-		return index;
+		IndexedModuleNode indexedNode = (IndexedModuleNode) node;
+		if (!indexedNode.module.name.equals(module.name) || (indexedNode.index >= nodeList.size()))
+			return 0;
+		return indexedNode.index;
 	}
 
 	public Iterable<IndexedModuleNode> getSortedNodeList() {
@@ -79,6 +92,10 @@ public class RawModuleData implements ModuleDataWriter.ModularData {
 	}
 
 	int size() {
-		return nodesByKey.size();
+		return nodeIndexesByKey.size();
+	}
+
+	private static long nodeKey(long relativeTag, int instanceId) {
+		return (relativeTag & 0xffffffffL) | (((long) instanceId) << 0x20);
 	}
 }
@@ -0,0 +1,240 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
+import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ModuleInstance;
+import edu.uci.plrg.cfi.x86.graph.data.graph.execution.ProcessExecutionModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
+import edu.uci.plrg.cfi.x86.graph.util.CrowdSafeTraceUtil;
+
+/**
+ * Decodes a raw trace stream on a dedicated reader thread, ahead of the consumer. Records are handed over in
+ * recycled batches through a bounded queue, along with the module instance of each record's tags wherever the
+ * transform would otherwise look it up in the <code>ProcessExecutionModuleSet</code>. The consumer iterates with
+ * <code>advance()</code> exactly as with a <code>RawGraphEntry.Cursor</code>.
+ */
+class RawStreamPrefetcher implements Runnable {
+
+	private static class Batch {
+		final long first[] = new long[BATCH_SIZE];
+		final long second[] = new long[BATCH_SIZE];
+		final long third[] = new long[BATCH_SIZE];
+		final ModuleInstance fromModules[] = new ModuleInstance[BATCH_SIZE];
+		final ModuleInstance toModules[] = new ModuleInstance[BATCH_SIZE];
+		int size;
+		boolean isLast;
+	}
+
+	private static final int BATCH_SIZE = 0x1000;
+	private static final int QUEUE_DEPTH = 8;
+
+	private final RawGraphEntry.Cursor input;
+	private final ExecutionTraceStreamType streamType;
+	private final ProcessExecutionModuleSet executionModules;
+	private final long firstEntryIndex;
+	private final Thread thread;
+
+	private final BlockingQueue<Batch> filledBatches = new ArrayBlockingQueue<Batch>(QUEUE_DEPTH);
+	private final BlockingQueue<Batch> emptyBatches = new ArrayBlockingQueue<Batch>(QUEUE_DEPTH + 2);
+	/* queued after a reader failure, to wake the consumer; the failure itself is in <code>error</code> */
+	private final Batch failureBatch = new Batch();
+
+	/* set by the reader thread before it queues the failure batch */
+	private volatile Throwable error = null;
+
+	private Batch batch = null;
+	private int position = 0;
+	private long recordCount;
+
+	/* written only by the reader thread */
+	private long moduleLookupCount = 0L;
+	private long moduleLookupMissCount = 0L;
+
+	long first, second, third;
+	/* null if the tag needs no module lookup, or if the lookup failed */
+	ModuleInstance fromModule, toModule;
+
+	/**
+	 * @param firstEntryIndex
+	 *            index of the first record in <code>input</code>, which is positioned after any records that were
+	 *            already transformed
+	 */
+	RawStreamPrefetcher(InputStream input, ExecutionTraceStreamType streamType,
+			ProcessExecutionModuleSet executionModules, long firstEntryIndex) {
+		this.input = new RawGraphEntry.Cursor(input, streamType.entryWordCount);
+		this.streamType = streamType;
+		this.executionModules = executionModules;
+		this.firstEntryIndex = firstEntryIndex;
+		recordCount = firstEntryIndex;
+
+		for (int i = 0; i < (QUEUE_DEPTH + 2); i++)
+			emptyBatches.add(new Batch());
+
+		thread = new Thread(this, "prefetch-" + streamType.name().toLowerCase());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	boolean advance() throws IOException {
+		while ((batch == null) || (position == batch.size)) {
+			if (batch != null) {
+				if (batch.isLast)
+					return false;
+				emptyBatches.add(batch);
+			}
+			checkError();
+			try {
+				batch = filledBatches.take();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while waiting for " + streamType + " records", e);
+			}
+			position = 0;
+			checkError();
+		}
+
+		first = batch.first[position];
+		second = batch.second[position];
+		third = batch.third[position];
+		fromModule = batch.fromModules[position];
+		toModule = batch.toModules[position];
+		position++;
+		recordCount++;
+		return true;
+	}
+
+	private void checkError() throws IOException {
+		Throwable t = error;
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t != null)
+			throw new InvalidGraphException(t);
+	}
+
+	/**
+	 * @return the number of records in the stream up to and including the current one
+	 */
+	long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Only valid once the prefetcher has been closed.
+	 */
+	long getModuleLookupCount() {
+		return moduleLookupCount;
+	}
+
+	/**
+	 * Only valid once the prefetcher has been closed.
+	 */
+	long getModuleLookupMissCount() {
+		return moduleLookupMissCount;
+	}
+
+	void close() {
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		long entryIndex = firstEntryIndex;
+		try {
+			while (true) {
+				Batch next = emptyBatches.take();
+				next.size = 0;
+				next.isLast = false;
+				while (next.size < BATCH_SIZE) {
+					if (!input.advance()) {
+						next.isLast = true;
+						break;
+					}
+					decode(next, next.size++, entryIndex++);
+				}
+				boolean isLast = next.isLast;
+				filledBatches.put(next);
+				if (isLast)
+					break;
+			}
+		} catch (InterruptedException e) {
+			// closed by the consumer
+		} catch (Throwable t) {
+			error = t;
+			try {
+				filledBatches.put(failureBatch);
+			} catch (InterruptedException e) {
+				// closed by the consumer, which no longer needs the failure
+			}
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+				// nothing to do while closing
+			}
+		}
+	}
+
+	private void decode(Batch next, int index, long entryIndex) {
+		next.first[index] = input.first;
+		next.second[index] = input.second;
+		next.third[index] = input.third;
+
+		switch (streamType) {
+			case GRAPH_NODE:
+				next.fromModules[index] = lookupNodeModule(input.first, entryIndex);
+				next.toModules[index] = null;
+				break;
+			default:
+				next.fromModules[index] = lookupEdgeModule(input.first, entryIndex);
+				next.toModules[index] = lookupEdgeModule(input.second, entryIndex);
+		}
+	}
+
+	/**
+	 * Mirrors the conditions under which <code>transformNodes()</code> resolves the module of a node.
+	 */
+	private ModuleInstance lookupNodeModule(long annotatedTag, long entryIndex) {
+		long absoluteTag = CrowdSafeTraceUtil.getTag(annotatedTag);
+		if ((CrowdSafeTraceUtil.getNodeMetaType(annotatedTag) == MetaNodeType.SINGLETON) || isJITTag(absoluteTag))
+			return null;
+		return lookupModule(absoluteTag, entryIndex);
+	}
+
+	/**
+	 * Mirrors the conditions under which <code>identifyNode()</code> resolves the module of an edge endpoint.
+	 */
+	private ModuleInstance lookupEdgeModule(long annotatedTag, long entryIndex) {
+		long absoluteTag = CrowdSafeTraceUtil.getTag(annotatedTag);
+		if (((absoluteTag >= ModuleNode.SYSCALL_SINGLETON_START) && (absoluteTag < ModuleNode.SYSCALL_SINGLETON_END))
+				|| isSystemSingletonTag(absoluteTag) || isJITTag(absoluteTag))
+			return null;
+		return lookupModule(absoluteTag, entryIndex);
+	}
+
+	private ModuleInstance lookupModule(long absoluteTag, long entryIndex) {
+		ModuleInstance module = executionModules.getModule(absoluteTag, entryIndex, streamType);
+		moduleLookupCount++;
+		if (module == null)
+			moduleLookupMissCount++;
+		return module;
+	}
+
+	static boolean isSystemSingletonTag(long absoluteTag) {
+		return (absoluteTag == ModuleNode.PROCESS_ENTRY_SINGLETON) || (absoluteTag == ModuleNode.SYSTEM_SINGLETON)
+				|| (absoluteTag == ModuleNode.CHILD_PROCESS_SINGLETON);
+	}
+
+	static boolean isJITTag(long absoluteTag) {
+		return (absoluteTag >= ModuleNode.JIT_SINGLETON_START) && (absoluteTag < ModuleNode.JIT_SINGLETON_END);
+	}
+}
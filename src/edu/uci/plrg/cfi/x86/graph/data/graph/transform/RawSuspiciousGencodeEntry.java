@@ -1,18 +1,7 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
 
-import java.util.Comparator;
-
 public class RawSuspiciousGencodeEntry {
 
-	static class ExecutionEdgeIndexSorter implements Comparator<RawSuspiciousGencodeEntry> {
-		static ExecutionEdgeIndexSorter INSTANCE = new ExecutionEdgeIndexSorter();
-
-		@Override
-		public int compare(RawSuspiciousGencodeEntry first, RawSuspiciousGencodeEntry second) {
-			return first.edgeIndex - second.edgeIndex;
-		}
-	}
-
 	public static RawSuspiciousGencodeEntry parse(long rawData) {
 		int suibCount = (int) ((rawData >> 8) & 0xffffL);
 		int uibCount = (int) ((rawData >> 0x18) & 0xffffL);
@@ -26,7 +15,7 @@ public class RawSuspiciousGencodeEntry {
 
 	RawEdge edge;
 
-	private RawSuspiciousGencodeEntry(int edgeIndex, int uibCount, int suibCount) {
+	RawSuspiciousGencodeEntry(int edgeIndex, int uibCount, int suibCount) {
 		this.edgeIndex = edgeIndex;
 		this.uibCount = uibCount;
 		this.suibCount = suibCount;
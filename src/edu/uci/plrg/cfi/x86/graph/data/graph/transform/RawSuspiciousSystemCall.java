@@ -1,18 +1,7 @@
 package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
 
-import java.util.Comparator;
-
 public class RawSuspiciousSystemCall {
 
-	static class ExecutionEdgeIndexSorter implements Comparator<RawSuspiciousSystemCall> {
-		static ExecutionEdgeIndexSorter INSTANCE = new ExecutionEdgeIndexSorter();
-
-		@Override
-		public int compare(RawSuspiciousSystemCall first, RawSuspiciousSystemCall second) {
-			return first.edgeIndex - second.edgeIndex;
-		}
-	}
-
 	public static RawSuspiciousSystemCall parse(long rawData) {
 		// old format
 		// int suibCount = (int) ((rawData >> 8) & 0xffffL);
@@ -34,7 +23,7 @@ public class RawSuspiciousSystemCall {
 	RawEdge entryEdge;
 	RawEdge exitEdge;
 
-	private RawSuspiciousSystemCall(int sysnum, int edgeIndex, boolean isCrossModule) {
+	RawSuspiciousSystemCall(int sysnum, int edgeIndex, boolean isCrossModule) {
 		this.sysnum = sysnum;
 		this.edgeIndex = edgeIndex;
 		this.isCrossModule = isCrossModule;
@@ -0,0 +1,268 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uci.plrg.cfi.common.exception.InvalidGraphException;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBasicBlock;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
+
+/**
+ * State of an append-mode transform, saved next to the modular output. It records how many records of each execution
+ * trace stream have been transformed, along with the node tables, edge sets and metadata needed to continue the
+ * transform from there. Modules are written once in a table at the head of the file and referenced by position.
+ */
+class RawTransformCheckpoint {
+
+	static class Writer {
+		final DataOutputStream output;
+
+		private final File file;
+		private final File tempFile;
+		private final Map<ApplicationModule, Integer> moduleIds = new HashMap<ApplicationModule, Integer>();
+
+		Writer(File file, String processName, Map<ExecutionTraceStreamType, Long> recordCounts,
+				Collection<ApplicationModule> modules) throws IOException {
+			this.file = file;
+			tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), IO_BUFFER_SIZE));
+
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeUTF(processName);
+			output.writeInt(recordCounts.size());
+			for (Map.Entry<ExecutionTraceStreamType, Long> recordCount : recordCounts.entrySet()) {
+				output.writeUTF(recordCount.getKey().name());
+				output.writeLong(recordCount.getValue());
+			}
+			output.writeInt(modules.size());
+			for (ApplicationModule module : modules) {
+				moduleIds.put(module, moduleIds.size());
+				output.writeUTF(module.name);
+			}
+		}
+
+		void writeModule(ApplicationModule module) throws IOException {
+			Integer id = moduleIds.get(module);
+			if (id == null)
+				throw new IllegalArgumentException(String.format("Module %s is not in the checkpoint module table!",
+						module.name));
+			output.writeInt(id);
+		}
+
+		void writeNodes(RawModuleData nodeData) throws IOException {
+			output.writeInt(nodeData.getNodeCount());
+			for (IndexedModuleNode node : nodeData.getSortedNodeList()) {
+				output.writeByte(node.getType().ordinal());
+				output.writeInt(node.getRelativeTag());
+				output.writeInt(node.getInstanceId());
+				output.writeLong(node.getHash());
+			}
+		}
+
+		void writeNodeReference(IndexedModuleNode node) throws IOException {
+			writeModule(node.module);
+			output.writeInt(node.index);
+		}
+
+		/**
+		 * Write the edges of one module in the order given, which is taken as their edge index order on restore.
+		 */
+		void writeEdges(List<RawEdge> edges) throws IOException {
+			output.writeInt(edges.size());
+			for (RawEdge edge : edges)
+				output.writeLong(edge.getOrderKey());
+		}
+
+		void writeEdgeReference(RawEdge edge) throws IOException {
+			writeModule(edge.fromNode.module);
+			output.writeLong(edge.getOrderKey());
+		}
+
+		/**
+		 * Replace the previous checkpoint, if any, only once this one is complete.
+		 */
+		void commit() throws IOException {
+			output.close();
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		void abort() {
+			try {
+				output.close();
+			} catch (IOException e) {
+				// nothing to do while discarding
+			}
+			tempFile.delete();
+		}
+	}
+
+	static class Reader {
+		final DataInputStream input;
+		final Map<ExecutionTraceStreamType, Long> recordCounts = new EnumMap<ExecutionTraceStreamType, Long>(
+				ExecutionTraceStreamType.class);
+
+		private final File file;
+		private final Map<ApplicationModule, RawModuleData> nodesByModule;
+		private final List<ApplicationModule> modules = new ArrayList<ApplicationModule>();
+
+		Reader(File file, String processName, Map<ApplicationModule, RawModuleData> nodesByModule)
+				throws IOException {
+			this.file = file;
+			this.nodesByModule = nodesByModule;
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+
+			try {
+				if ((input.readInt() != MAGIC) || (input.readInt() != VERSION))
+					throw new InvalidGraphException("Error: %s is not a transform checkpoint of this version!",
+							file.getAbsolutePath());
+				String checkpointProcessName = input.readUTF();
+				if (!checkpointProcessName.equals(processName))
+					throw new InvalidGraphException("Error: checkpoint %s is for process %s, not %s!",
+							file.getAbsolutePath(), checkpointProcessName, processName);
+
+				int streamCount = input.readInt();
+				for (int i = 0; i < streamCount; i++)
+					recordCounts.put(ExecutionTraceStreamType.valueOf(input.readUTF()), input.readLong());
+
+				int moduleCount = input.readInt();
+				for (int i = 0; i < moduleCount; i++) {
+					String name = input.readUTF();
+					ApplicationModule module = ApplicationModuleSet.getInstance().modulesByName.get(name);
+					if (module == null)
+						throw new InvalidGraphException(
+								"Error: checkpoint %s refers to module %s, which is not loaded in the execution trace!",
+								file.getAbsolutePath(), name);
+					modules.add(module);
+				}
+			} catch (IOException e) {
+				input.close();
+				throw e;
+			} catch (RuntimeException e) {
+				input.close();
+				throw e;
+			}
+		}
+
+		ApplicationModule readModule() throws IOException {
+			int id = input.readInt();
+			if ((id < 0) || (id >= modules.size()))
+				throw new InvalidGraphException("Error: checkpoint %s refers to unknown module #%d!",
+						file.getAbsolutePath(), id);
+			return modules.get(id);
+		}
+
+		/**
+		 * Add the checkpointed nodes to <code>nodeData</code>, which must be empty so that each node takes back its
+		 * original index.
+		 */
+		void readNodes(RawModuleData nodeData) throws IOException {
+			ApplicationModule module = nodeData.getModule();
+			int nodeCount = input.readInt();
+			for (int i = 0; i < nodeCount; i++) {
+				MetaNodeType type = MetaNodeType.values()[input.readByte()];
+				int relativeTag = input.readInt();
+				int instanceId = input.readInt();
+				long hash = input.readLong();
+
+				ModuleNode<?> node;
+				switch (type) {
+					case MODULE_ENTRY:
+					case MODULE_EXIT:
+						node = new ModuleBoundaryNode(hash, type);
+						break;
+					default:
+						node = new ModuleBasicBlock(module, relativeTag, instanceId, hash, type);
+				}
+				if (nodeData.addNode(node).index != i)
+					throw new InvalidGraphException("Error: checkpoint %s contains a duplicate node in module %s!",
+							file.getAbsolutePath(), module.name);
+			}
+		}
+
+		IndexedModuleNode readNodeReference() throws IOException {
+			ApplicationModule module = readModule();
+			return getNode(nodesByModule.get(module), input.readInt());
+		}
+
+		List<RawEdge> readEdges(RawModuleData nodeData) throws IOException {
+			int edgeCount = input.readInt();
+			List<RawEdge> edges = new ArrayList<RawEdge>(edgeCount);
+			for (int i = 0; i < edgeCount; i++)
+				edges.add(createEdge(nodeData, input.readLong()));
+			return edges;
+		}
+
+		/**
+		 * @return a new edge equal to the referenced one, to be resolved against the module's edge set
+		 */
+		RawEdge readEdgeReference() throws IOException {
+			ApplicationModule module = readModule();
+			return createEdge(nodesByModule.get(module), input.readLong());
+		}
+
+		void close() throws IOException {
+			input.close();
+		}
+
+		private RawEdge createEdge(RawModuleData nodeData, long orderKey) {
+			return new RawEdge(getNode(nodeData, RawEdge.getFromIndex(orderKey)), getNode(nodeData,
+					RawEdge.getToIndex(orderKey)), RawEdge.getEdgeType(orderKey), RawEdge.getOrdinal(orderKey));
+		}
+
+		private IndexedModuleNode getNode(RawModuleData nodeData, int index) {
+			if ((nodeData == null) || (index >= nodeData.getNodeCount()))
+				throw new InvalidGraphException("Error: checkpoint %s refers to a node that it does not contain!",
+						file.getAbsolutePath());
+			return nodeData.getNodeAt(index);
+		}
+	}
+
+	private static final int MAGIC = 0x52544350;
+	private static final int VERSION = 1;
+	private static final int IO_BUFFER_SIZE = 0x10000;
+
+	static File getFile(File outputDir, String processName) {
+		return new File(outputDir, String.format("%s.transform-checkpoint.dat", processName));
+	}
+
+	/**
+	 * Position <code>input</code> after the records of <code>streamType</code> that were already transformed.
+	 */
+	static void skipRecords(InputStream input, ExecutionTraceStreamType streamType, long recordCount)
+			throws IOException {
+		long remaining = recordCount * streamType.entryWordCount * 8L;
+		while (remaining > 0L) {
+			long skipped = input.skip(remaining);
+			if (skipped <= 0L) {
+				if (input.read() < 0)
+					throw new InvalidGraphException(
+							"Error: the %s stream is shorter than its checkpoint. Delete the checkpoint to transform the whole trace.",
+							streamType);
+				skipped = 1L;
+			}
+			remaining -= skipped;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.uci.plrg.cfi.x86.graph.io.execution.ExecutionTraceStreamType;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceStreamType;
+
+/**
+ * Throughput of one transform session, written as JSON next to the output directory when the session completes.
+ * Decoding phases are timed from the consumer's side, so their rates include any wait on the stream prefetchers. Their
+ * byte counts are the size of the decoded records, which for a compressed trace is larger than what was read from disk.
+ *
+ * Ingest counters are only updated by the thread running the session. The counters updated during graph emission
+ * are synchronized, and everything is read after the emission threads have been joined.
+ */
+class RawTransformReport {
+
+	enum Phase {
+		METADATA("metadata", ExecutionTraceStreamType.META),
+		NODES("nodes", ExecutionTraceStreamType.GRAPH_NODE),
+		EDGES("edges", ExecutionTraceStreamType.GRAPH_EDGE),
+		CROSS_MODULE_EDGES("crossModuleEdges", ExecutionTraceStreamType.CROSS_MODULE_EDGE),
+		ANONYMOUS_DISTILLATION("anonymousDistillation", null),
+		GRAPH_EMISSION("graphEmission", null),
+		METADATA_EMISSION("metadataEmission", null);
+
+		final String id;
+		final ExecutionTraceStreamType streamType;
+
+		private Phase(String id, ExecutionTraceStreamType streamType) {
+			this.id = id;
+			this.streamType = streamType;
+		}
+	}
+
+	private static class PhaseStatistics {
+		long elapsedNanos;
+		long recordCount;
+	}
+
+	private final File runDir;
+	private final File outputDir;
+	private final long startTime = System.nanoTime();
+	private final Map<Phase, PhaseStatistics> phases = new EnumMap<Phase, PhaseStatistics>(Phase.class);
+	private final Map<ModularTraceStreamType, Long> bytesWritten = new EnumMap<ModularTraceStreamType, Long>(
+			ModularTraceStreamType.class);
+
+	private long edgeAddCount = 0L;
+	private long duplicateEdgeCount = 0L;
+	private long spilledEdgeAddCount = 0L;
+	private long distinctSpilledEdgeCount = 0L;
+	private long moduleLookupCount = 0L;
+	private long moduleLookupMissCount = 0L;
+
+	RawTransformReport(File runDir, File outputDir) {
+		this.runDir = runDir;
+		this.outputDir = outputDir;
+	}
+
+	static File getFile(File outputDir) {
+		File absoluteDir = outputDir.getAbsoluteFile();
+		return new File(absoluteDir.getParentFile(), absoluteDir.getName() + ".transform-report.json");
+	}
+
+	/**
+	 * @param recordCount
+	 *            number of trace records decoded in the phase, or 0 if it does not decode a trace stream
+	 */
+	synchronized void recordPhase(Phase phase, long elapsedNanos, long recordCount) {
+		PhaseStatistics statistics = phases.get(phase);
+		if (statistics == null) {
+			statistics = new PhaseStatistics();
+			phases.put(phase, statistics);
+		}
+		statistics.elapsedNanos += elapsedNanos;
+		statistics.recordCount += recordCount;
+	}
+
+	void edgeAdded(boolean isDuplicate) {
+		edgeAddCount++;
+		if (isDuplicate)
+			duplicateEdgeCount++;
+	}
+
+	/**
+	 * Spilled edges are deduplicated when merged, see <code>spilledEdgesMerged()</code>.
+	 */
+	void edgeSpilled() {
+		edgeAddCount++;
+		spilledEdgeAddCount++;
+	}
+
+	synchronized void spilledEdgesMerged(int distinctCount) {
+		distinctSpilledEdgeCount += distinctCount;
+	}
+
+	void moduleLookups(long lookupCount, long missCount) {
+		moduleLookupCount += lookupCount;
+		moduleLookupMissCount += missCount;
+	}
+
+	void bytesWritten(ModularTraceStreamType streamType, long byteCount) {
+		Long total = bytesWritten.get(streamType);
+		bytesWritten.put(streamType, (total == null) ? byteCount : (total + byteCount));
+	}
+
+	synchronized void write(String processName, boolean appendMode) throws IOException {
+		long elapsedNanos = System.nanoTime() - startTime;
+		long duplicateCount = duplicateEdgeCount + (spilledEdgeAddCount - distinctSpilledEdgeCount);
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"process\": ").append(quote(processName)).append(",\n");
+		json.append("  \"runDirectory\": ").append(quote(runDir.getAbsolutePath())).append(",\n");
+		json.append("  \"outputDirectory\": ").append(quote(outputDir.getAbsolutePath())).append(",\n");
+		json.append("  \"appendMode\": ").append(appendMode).append(",\n");
+		json.append("  \"wallTimeMs\": ").append(toMillis(elapsedNanos)).append(",\n");
+
+		json.append("  \"phases\": {");
+		boolean first = true;
+		for (Map.Entry<Phase, PhaseStatistics> entry : phases.entrySet()) {
+			Phase phase = entry.getKey();
+			PhaseStatistics statistics = entry.getValue();
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    ").append(quote(phase.id)).append(": { \"wallTimeMs\": ")
+					.append(toMillis(statistics.elapsedNanos));
+			if (phase.streamType != null) {
+				long decodedByteCount = statistics.recordCount * phase.streamType.entryWordCount * 8L;
+				json.append(", \"records\": ").append(statistics.recordCount);
+				json.append(", \"decodedBytes\": ").append(decodedByteCount);
+				json.append(", \"recordsPerSecond\": ").append(
+						perSecond(statistics.recordCount, statistics.elapsedNanos));
+				json.append(", \"decodedBytesPerSecond\": ").append(
+						perSecond(decodedByteCount, statistics.elapsedNanos));
+			}
+			json.append(" }");
+		}
+		json.append("\n  },\n");
+
+		json.append("  \"edgeDedupe\": { \"edgesAdded\": ").append(edgeAddCount);
+		json.append(", \"duplicates\": ").append(duplicateCount);
+		json.append(", \"hitRate\": ").append(ratio(duplicateCount, edgeAddCount)).append(" },\n");
+
+		json.append("  \"moduleLookups\": { \"lookups\": ").append(moduleLookupCount);
+		json.append(", \"misses\": ").append(moduleLookupMissCount).append(" },\n");
+
+		json.append("  \"bytesWritten\": {");
+		first = true;
+		for (ModularTraceStreamType streamType : ModularTraceStreamType.values()) {
+			Long byteCount = bytesWritten.get(streamType);
+			json.append(first ? " " : ", ");
+			first = false;
+			json.append(quote(streamType.name())).append(": ").append((byteCount == null) ? 0L : byteCount);
+		}
+		json.append(" }\n");
+		json.append("}\n");
+
+		Writer output = new OutputStreamWriter(new FileOutputStream(getFile(outputDir)), "UTF-8");
+		try {
+			output.write(json.toString());
+		} finally {
+			output.close();
+		}
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String perSecond(long count, long nanos) {
+		return (nanos == 0L) ? "0" : String.format(Locale.ROOT, "%.1f", count / (nanos / 1e9));
+	}
+
+	private static String ratio(long count, long total) {
+		return (total == 0L) ? "0" : String.format(Locale.ROOT, "%.4f", count / (double) total);
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '"') || (c == '\\'))
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -7,15 +7,6 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 
 public class RawUnexpectedIndirectBranch {
 
-	static class ExecutionEdgeIndexSorter implements Comparator<RawUnexpectedIndirectBranch> {
-		static ExecutionEdgeIndexSorter INSTANCE = new ExecutionEdgeIndexSorter();
-
-		@Override
-		public int compare(RawUnexpectedIndirectBranch first, RawUnexpectedIndirectBranch second) {
-			return first.rawEdgeIndex - second.rawEdgeIndex;
-		}
-	}
-
 	static class ClusterEdgeIndexSorter implements Comparator<RawUnexpectedIndirectBranch> {
 		static ClusterEdgeIndexSorter INSTANCE = new ClusterEdgeIndexSorter();
 
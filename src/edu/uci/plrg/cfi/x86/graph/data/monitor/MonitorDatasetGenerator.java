@@ -22,6 +22,7 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.ModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
+import edu.uci.plrg.cfi.x86.graph.data.graph.NodeHashMap;
 import edu.uci.plrg.cfi.x86.graph.data.graph.NodeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.OrdinalEdgeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBasicBlock;
@@ -132,7 +133,7 @@ public class MonitorDatasetGenerator {
 	public MonitorDatasetGenerator(File clusterDataDirectory, File outputFile, File alarmConfigFile) throws IOException {
 		this.clusterDataDirectory = clusterDataDirectory;
 
-		dataSource = new ModularTraceDirectory(clusterDataDirectory).loadExistingFiles();
+		dataSource = ModularTraceDirectory.loadDataSource(clusterDataDirectory);
 		loadSession = new ModuleGraphLoadSession(dataSource);
 
 		OrderByModuleName nameOrder = new OrderByModuleName();
@@ -155,9 +156,9 @@ public class MonitorDatasetGenerator {
 			anonymousNodesBySortedHash = null;
 		} else {
 			anonymousNodesBySortedHash = new TreeMap<Long, NodeList<ModuleNode<?>>>(new OrderByHash());
-			for (Long hash : anonymousGraph.getGraphData().nodesByHash.keySet()) {
-				anonymousNodesBySortedHash.put(hash, anonymousGraph.getGraphData().nodesByHash.get(hash));
-			}
+			NodeHashMap<ModuleNode<?>>.Cursor cursor = anonymousGraph.getGraphData().nodesByHash.cursor();
+			while (cursor.nextHash())
+				anonymousNodesBySortedHash.put(cursor.getHash(), cursor.getNodes());
 		}
 
 		if (alarmConfigFile == null)
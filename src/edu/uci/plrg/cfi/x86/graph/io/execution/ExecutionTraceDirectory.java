@@ -1,5 +1,6 @@
 package edu.uci.plrg.cfi.x86.graph.io.execution;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -9,11 +10,45 @@ import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
 import edu.uci.plrg.cfi.common.io.TraceDataSourceException;
 
+/**
+ * Each stream may also be stored compressed, as a gzip file (".gz", which may consist of several concatenated gzip
+ * members), as a raw deflate stream without a header (".deflate") or as a zlib stream (".zz"). A compressed stream
+ * is decoded on the fly by a <code>ReadAheadInputStream</code>, so it never needs to be decompressed to disk.
+ */
 public class ExecutionTraceDirectory implements ExecutionTraceDataSource {
+
+	private enum Compression {
+		NONE(""),
+		GZIP(".gz"),
+		DEFLATE(".deflate"),
+		ZLIB(".zz");
+
+		final String suffix;
+
+		private Compression(String suffix) {
+			this.suffix = suffix;
+		}
+
+		static Compression forFile(File file) {
+			for (Compression compression : values()) {
+				if ((compression != NONE) && file.getName().endsWith(compression.suffix))
+					return compression;
+			}
+			return NONE;
+		}
+
+		static String stripSuffix(String filename) {
+			return filename.substring(0, filename.length() - forFile(new File(filename)).suffix.length());
+		}
+	}
+
 	private static class FilePatterns {
 		final Map<ExecutionTraceStreamType, String> patterns = new EnumMap<ExecutionTraceStreamType, String>(
 				ExecutionTraceStreamType.class);
@@ -30,6 +65,8 @@ public class ExecutionTraceDirectory implements ExecutionTraceDataSource {
 
 	private static final FilePatterns FILE_PATTERNS = new FilePatterns();
 
+	private static final int DECODER_BUFFER_SIZE = 0x10000;
+
 	private final File directory;
 	private final int processId;
 	private final String processName;
@@ -75,7 +112,7 @@ public class ExecutionTraceDirectory implements ExecutionTraceDataSource {
 		}
 
 		ExecutionTraceStreamType anyType = files.keySet().iterator().next();
-		String runSignature = files.get(anyType).getName();
+		String runSignature = Compression.stripSuffix(files.get(anyType).getName());
 		processName = runSignature.substring(0, runSignature.indexOf(anyType.id) - 1).replace('.', '-');
 		runSignature = runSignature.substring(runSignature.indexOf('.', runSignature.indexOf(anyType.id)));
 
@@ -107,7 +144,7 @@ public class ExecutionTraceDirectory implements ExecutionTraceDataSource {
 
 	@Override
 	public InputStream getDataInputStream(ExecutionTraceStreamType streamType) throws IOException {
-		return new FileInputStream(files.get(streamType));
+		return openFile(files.get(streamType));
 	}
 
 	@Override
@@ -115,7 +152,42 @@ public class ExecutionTraceDirectory implements ExecutionTraceDataSource {
 		File file = files.get(streamType);
 		if (file == null)
 			return null;
-		return new LittleEndianInputStream(new FileInputStream(file), "file:" + file.getAbsolutePath());
+		return new LittleEndianInputStream(openFile(file), "file:" + file.getAbsolutePath());
+	}
+
+	private InputStream openFile(File file) throws IOException {
+		Compression compression = Compression.forFile(file);
+		InputStream input = new FileInputStream(file);
+		try {
+			switch (compression) {
+				case NONE:
+					return input;
+				case GZIP:
+					input = new GZIPInputStream(new BufferedInputStream(input, DECODER_BUFFER_SIZE),
+							DECODER_BUFFER_SIZE);
+					break;
+				case DEFLATE:
+					input = new InflaterInputStream(new BufferedInputStream(input, DECODER_BUFFER_SIZE), new Inflater(
+							true), DECODER_BUFFER_SIZE) {
+						@Override
+						public void close() throws IOException {
+							try {
+								super.close();
+							} finally {
+								inf.end(); // not ended by the stream, since it was not created by the stream
+							}
+						}
+					};
+					break;
+				case ZLIB:
+					input = new InflaterInputStream(new BufferedInputStream(input, DECODER_BUFFER_SIZE));
+					break;
+			}
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		return new ReadAheadInputStream(input, file.getName());
 	}
 
 	@Override
@@ -0,0 +1,186 @@
+package edu.uci.plrg.cfi.x86.graph.io.execution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on a dedicated thread, ahead of the consumer, so that an expensive source such as a
+ * decompressor runs in parallel with whatever consumes its bytes. The bytes are handed over in recycled blocks through
+ * a bounded queue. An error in the reader thread is thrown from every read after the bytes preceding it, so that a
+ * truncated or corrupt source never looks like a clean end of the stream.
+ *
+ * Every block but the last is filled completely, and the block size is a multiple of every raw trace record size, so
+ * a record never spans two blocks. Since <code>available()</code> waits for the next block when the current one is
+ * exhausted, it only returns 0 at the end of the stream, and a positive value always covers at least one whole record
+ * (as long as the consumer reads whole records). This keeps <code>LittleEndianInputStream.ready()</code> reliable.
+ */
+public class ReadAheadInputStream extends InputStream implements Runnable {
+
+	private static class Block {
+		final byte data[] = new byte[BLOCK_SIZE];
+		int size;
+		boolean isLast;
+		IOException error;
+	}
+
+	/* multiple of 48, which is divisible by each record size of 8, 16 and 24 bytes */
+	private static final int BLOCK_SIZE = 0x30000;
+	private static final int QUEUE_DEPTH = 4;
+
+	private final InputStream source;
+	private final String description;
+	private final Thread thread;
+
+	private final BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<Block>(QUEUE_DEPTH);
+	private final BlockingQueue<Block> emptyBlocks = new ArrayBlockingQueue<Block>(QUEUE_DEPTH + 2);
+
+	private Block block = null;
+	private int position = 0;
+	private boolean isClosed = false;
+	private IOException error = null;
+
+	public ReadAheadInputStream(InputStream source, String description) {
+		this.source = source;
+		this.description = description;
+
+		for (int i = 0; i < (QUEUE_DEPTH + 2); i++)
+			emptyBlocks.add(new Block());
+
+		thread = new Thread(this, "read-ahead-" + description);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBlock())
+			return -1;
+		return block.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		if (!nextBlock())
+			return -1;
+
+		length = Math.min(length, block.size - position);
+		System.arraycopy(block.data, position, bytes, offset, length);
+		position += length;
+		return length;
+	}
+
+	@Override
+	public long skip(long count) throws IOException {
+		long skipCount = 0L;
+		while ((skipCount < count) && nextBlock()) {
+			int blockSkipCount = (int) Math.min(count - skipCount, block.size - position);
+			position += blockSkipCount;
+			skipCount += blockSkipCount;
+		}
+		return skipCount;
+	}
+
+	/**
+	 * Waits for the next block if the current one is exhausted, and returns 0 only at the end of the stream.
+	 */
+	@Override
+	public int available() throws IOException {
+		if (!nextBlock())
+			return 0;
+		return block.size - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (isClosed)
+			return;
+
+		isClosed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		block = null;
+	}
+
+	/**
+	 * @return false at the end of the stream
+	 */
+	private boolean nextBlock() throws IOException {
+		if (isClosed)
+			throw new IOException(String.format("Attempt to read %s after it was closed", description));
+		if (error != null)
+			throw error;
+
+		while ((block == null) || (position == block.size)) {
+			if (block != null) {
+				if (block.isLast)
+					return false;
+				emptyBlocks.add(block);
+			}
+			try {
+				block = filledBlocks.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting to read " + description);
+			}
+			position = 0;
+			if ((block.size == 0) && (block.error != null)) {
+				error = block.error;
+				throw error;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		Block next = null;
+		try {
+			while (true) {
+				next = emptyBlocks.take();
+				next.size = 0;
+				next.isLast = false;
+				try {
+					while (next.size < BLOCK_SIZE) {
+						int count = source.read(next.data, next.size, BLOCK_SIZE - next.size);
+						if (count < 0) {
+							next.isLast = true;
+							break;
+						}
+						next.size += count;
+					}
+				} catch (Exception e) { // including runtime errors of a decoder, which would otherwise stall the reader
+					if (next.size > 0) {
+						/* hand over the bytes that were read, then the error in a block of its own */
+						filledBlocks.put(next);
+						next = emptyBlocks.take();
+						next.size = 0;
+					}
+					next.isLast = true;
+					next.error = new IOException(String.format("Failed to read %s: %s", description, e.getMessage()),
+							e);
+				}
+				boolean isLast = next.isLast;
+				filledBlocks.put(next);
+				next = null;
+				if (isLast)
+					break;
+			}
+		} catch (InterruptedException e) {
+			// closed by the consumer
+		} finally {
+			try {
+				source.close();
+			} catch (IOException e) {
+				// nothing to do while closing
+			}
+		}
+	}
+}
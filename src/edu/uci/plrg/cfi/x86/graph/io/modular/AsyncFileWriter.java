@@ -0,0 +1,305 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a file through its <code>FileChannel</code> from direct buffers, which are handed to a background
+ * <code>Flusher</code> as they fill up, so that the writing thread does not wait on the disk. The writers of one sink
+ * share its flusher. The number of buffers waiting to be written is bounded, so a writer blocks when the disk falls
+ * behind.
+ *
+ * An error in the flush thread is thrown from the next call on the writer that caused it. Writers are not thread-safe.
+ */
+public class AsyncFileWriter extends OutputStream {
+
+	public enum SyncPolicy {
+		/* leave it to the OS to write the file to the disk */
+		NONE,
+		/* fsync when the writer is closed */
+		CLOSE,
+		/* fsync on every flush, and when the writer is closed */
+		FLUSH;
+	}
+
+	private static final int BUFFER_SIZE = 0x10000;
+	private static final int QUEUE_DEPTH = 0x20;
+	private static final int MAX_FREE_BUFFERS = QUEUE_DEPTH * 2;
+
+	private static class Task {
+		final AsyncFileWriter writer;
+		/* null for a task that only syncs or closes */
+		final ByteBuffer buffer;
+		final boolean sync;
+		final boolean close;
+		final CountDownLatch completion;
+
+		Task(AsyncFileWriter writer, ByteBuffer buffer) {
+			this.writer = writer;
+			this.buffer = buffer;
+			sync = close = false;
+			completion = null;
+		}
+
+		Task(AsyncFileWriter writer, boolean sync, boolean close) {
+			this.writer = writer;
+			this.buffer = null;
+			this.sync = sync;
+			this.close = close;
+			completion = new CountDownLatch(1);
+		}
+	}
+
+	/**
+	 * Background thread that writes the buffers of a group of writers, in the order each writer filled them. Each sink
+	 * has its own, so that concurrent transforms write to the disk independently. The thread is started when a writer
+	 * is opened and exits once the last open writer has been closed.
+	 */
+	public static class Flusher implements Runnable {
+		private final String name;
+		private final BlockingQueue<Task> tasks = new ArrayBlockingQueue<Task>(QUEUE_DEPTH);
+		private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicInteger freeBufferCount = new AtomicInteger();
+
+		/* guarded by this */
+		private int openWriterCount = 0;
+		private boolean isRunning = false;
+
+		public Flusher(String name) {
+			this.name = name;
+		}
+
+		synchronized void writerOpened() {
+			openWriterCount++;
+			if (!isRunning) {
+				isRunning = true;
+				Thread thread = new Thread(this, "async-file-writer:" + name);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		/**
+		 * @return true if the thread should exit
+		 */
+		private synchronized boolean writerClosed() {
+			openWriterCount--;
+			if ((openWriterCount == 0) && tasks.isEmpty()) {
+				isRunning = false;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * For a writer that closed its channel without submitting its close task.
+		 */
+		synchronized void writerAbandoned() {
+			openWriterCount--;
+		}
+
+		ByteBuffer takeBuffer() {
+			ByteBuffer buffer = freeBuffers.poll();
+			if (buffer == null)
+				return ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			freeBufferCount.decrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+
+		void submit(Task task) throws IOException {
+			try {
+				tasks.put(task);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting to write " + task.writer.description);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Task task;
+				try {
+					task = tasks.take();
+				} catch (InterruptedException e) {
+					continue; // only the writers can stop this thread, by closing
+				}
+
+				AsyncFileWriter writer = task.writer;
+				try {
+					if (writer.error == null) {
+						if (task.buffer != null) {
+							while (task.buffer.hasRemaining())
+								writer.bytesWritten += writer.channel.write(task.buffer);
+						}
+						if (task.sync)
+							writer.channel.force(false);
+					}
+				} catch (IOException e) {
+					writer.error = e;
+				} finally {
+					if (task.buffer != null) {
+						if (freeBufferCount.incrementAndGet() <= MAX_FREE_BUFFERS)
+							freeBuffers.add(task.buffer);
+						else
+							freeBufferCount.decrementAndGet();
+					}
+					if (task.close) {
+						try {
+							writer.channel.close();
+						} catch (IOException e) {
+							if (writer.error == null)
+								writer.error = e;
+						}
+					}
+					if (task.completion != null)
+						task.completion.countDown();
+				}
+				if (task.close && writerClosed())
+					return;
+			}
+		}
+	}
+
+	public final String description;
+
+	private final FileChannel channel;
+	private final SyncPolicy syncPolicy;
+	private final Flusher flusher;
+
+	/* null until the first write after a flush */
+	private ByteBuffer buffer = null;
+	private boolean isClosed = false;
+
+	/* written only by the flush thread */
+	private volatile IOException error = null;
+	private volatile long bytesWritten = 0L;
+
+	/**
+	 * @param channel
+	 *            positioned where the writer should begin, which becomes owned by the writer
+	 */
+	public AsyncFileWriter(FileChannel channel, SyncPolicy syncPolicy, Flusher flusher, String description) {
+		this.channel = channel;
+		this.syncPolicy = syncPolicy;
+		this.flusher = flusher;
+		this.description = description;
+		flusher.writerOpened();
+	}
+
+	public void writeLong(long word) throws IOException {
+		if ((buffer == null) || (buffer.remaining() < 8))
+			nextBuffer();
+		buffer.putLong(word);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if ((buffer == null) || !buffer.hasRemaining())
+			nextBuffer();
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if ((buffer == null) || !buffer.hasRemaining())
+				nextBuffer();
+			int chunkLength = Math.min(length, buffer.remaining());
+			buffer.put(bytes, offset, chunkLength);
+			offset += chunkLength;
+			length -= chunkLength;
+		}
+	}
+
+	/**
+	 * @return the number of bytes written to the file so far, which excludes any still waiting in buffers
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Wait until everything written so far has been written to the file, and to the disk if the sync policy is
+	 * <code>FLUSH</code>.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (isClosed)
+			return;
+
+		complete(new Task(this, syncPolicy == SyncPolicy.FLUSH, false));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (isClosed)
+			return;
+
+		isClosed = true;
+		Task task = new Task(this, syncPolicy != SyncPolicy.NONE, true);
+		/* the channel is closed even when a pending error keeps the last buffer from being submitted */
+		try {
+			submitBuffer();
+		} finally {
+			try {
+				flusher.submit(task);
+			} catch (InterruptedIOException e) {
+				flusher.writerAbandoned();
+				channel.close();
+				throw e;
+			}
+			await(task);
+		}
+		checkError();
+	}
+
+	private void nextBuffer() throws IOException {
+		checkOpen();
+		submitBuffer();
+		buffer = flusher.takeBuffer();
+	}
+
+	private void submitBuffer() throws IOException {
+		checkError();
+		if (buffer != null) {
+			buffer.flip();
+			flusher.submit(new Task(this, buffer));
+			buffer = null;
+		}
+	}
+
+	private void complete(Task task) throws IOException {
+		submitBuffer();
+		flusher.submit(task);
+		await(task);
+		checkError();
+	}
+
+	private void await(Task task) throws IOException {
+		try {
+			task.completion.await();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting to write " + description);
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (isClosed)
+			throw new IOException(String.format("Attempt to write to %s after it was closed", description));
+	}
+
+	private void checkError() throws IOException {
+		if (error != null)
+			throw new IOException(String.format("Failed to write %s: %s", description, error.getMessage()), error);
+	}
+}
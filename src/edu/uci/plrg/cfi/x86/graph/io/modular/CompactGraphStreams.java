@@ -0,0 +1,223 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import edu.uci.plrg.cfi.x86.graph.util.LongIntHashMap;
+
+/**
+ * Variable-length encoding of the modular node and edge streams (<code>ModularTraceEncoding.COMPACT</code>). Both
+ * streams are plain sequences of records without a header, so they are decoded from the start of the file.
+ *
+ * <pre>
+ * node: varint (instanceId << 4 | type << 1 | isHashReference)
+ *       zigzag varint (relativeTag - previous relativeTag)
+ *       varint hash dictionary index, if isHashReference, otherwise 8 byte little-endian hash
+ * edge: zigzag varint (fromIndex - previous fromIndex)
+ *       zigzag varint (toIndex - fromIndex)
+ *       1 byte (ordinal << 4 | type)
+ * </pre>
+ *
+ * Each distinct hash is written in full once, and later occurrences refer to it by its order of first appearance.
+ * Edges are smallest when written in order of their 'from' node, as the writers do, but any order can be encoded.
+ */
+public class CompactGraphStreams {
+
+	private static final int IO_BUFFER_SIZE = 0x10000;
+	private static final int TYPE_MASK = 0x7;
+
+	public static class NodeEncoder {
+		private final OutputStream output;
+		private final LongIntHashMap hashIndexes = new LongIntHashMap();
+		private long previousTag = 0L;
+
+		public NodeEncoder(OutputStream output) {
+			this.output = new BufferedOutputStream(output, IO_BUFFER_SIZE);
+		}
+
+		public void writeNode(int relativeTag, int instanceId, int typeOrdinal, long hash) throws IOException {
+			if ((typeOrdinal & ~TYPE_MASK) != 0)
+				throw new IllegalArgumentException("Node type #" + typeOrdinal + " cannot be compactly encoded!");
+
+			int hashIndex = hashIndexes.get(hash);
+			writeVarint(output, (((long) instanceId & 0xffL) << 4) | (typeOrdinal << 1)
+					| ((hashIndex == LongIntHashMap.NOT_FOUND) ? 0 : 1));
+			long tag = ((long) relativeTag) & 0xffffffffL;
+			writeVarint(output, zigzag(tag - previousTag));
+			previousTag = tag;
+			if (hashIndex == LongIntHashMap.NOT_FOUND) {
+				hashIndexes.put(hash, hashIndexes.size());
+				for (int i = 0; i < 8; i++)
+					output.write((int) (hash >>> (i << 3)));
+			} else {
+				writeVarint(output, hashIndex);
+			}
+		}
+
+		public void flush() throws IOException {
+			output.flush();
+		}
+
+		public void close() throws IOException {
+			output.close();
+		}
+	}
+
+	public static class NodeDecoder {
+		private final InputStream input;
+		private long hashes[] = new long[0x100];
+		private int hashCount = 0;
+		private long previousTag = 0L;
+
+		/* unsigned 32-bit value */
+		public long relativeTag;
+		public int instanceId;
+		public int typeOrdinal;
+		public long hash;
+
+		public NodeDecoder(InputStream input) {
+			this.input = new BufferedInputStream(input, IO_BUFFER_SIZE);
+		}
+
+		public boolean ready() throws IOException {
+			return CompactGraphStreams.ready(input);
+		}
+
+		public void readNode() throws IOException {
+			long header = readVarint(input);
+			instanceId = (int) (header >>> 4);
+			typeOrdinal = (int) ((header >>> 1) & TYPE_MASK);
+			previousTag += unzigzag(readVarint(input));
+			relativeTag = previousTag & 0xffffffffL;
+			if ((header & 1L) == 0L) {
+				hash = 0L;
+				for (int i = 0; i < 8; i++)
+					hash |= ((long) readByte(input)) << (i << 3);
+				if (hashCount == hashes.length)
+					hashes = Arrays.copyOf(hashes, hashCount << 1);
+				hashes[hashCount++] = hash;
+			} else {
+				long hashIndex = readVarint(input);
+				if (hashIndex >= hashCount)
+					throw new IOException("Compact node stream refers to unknown hash #" + hashIndex);
+				hash = hashes[(int) hashIndex];
+			}
+		}
+
+		public int available() throws IOException {
+			return input.available();
+		}
+
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+
+	public static class EdgeEncoder {
+		private final OutputStream output;
+		private long previousFromIndex = 0L;
+
+		public EdgeEncoder(OutputStream output) {
+			this.output = new BufferedOutputStream(output, IO_BUFFER_SIZE);
+		}
+
+		/**
+		 * @param edgeWord
+		 *            an edge packed by <code>ModuleDataWriter.packEdge()</code>
+		 */
+		public void writeEdge(long edgeWord) throws IOException {
+			long fromIndex = edgeWord & 0xfffffffL;
+			long toIndex = (edgeWord >>> 0x1c) & 0xfffffffL;
+			writeVarint(output, zigzag(fromIndex - previousFromIndex));
+			writeVarint(output, zigzag(toIndex - fromIndex));
+			output.write((int) (edgeWord >>> 0x38));
+			previousFromIndex = fromIndex;
+		}
+
+		public void flush() throws IOException {
+			output.flush();
+		}
+
+		public void close() throws IOException {
+			output.close();
+		}
+	}
+
+	public static class EdgeDecoder {
+		private final InputStream input;
+		private long previousFromIndex = 0L;
+
+		public EdgeDecoder(InputStream input) {
+			this.input = new BufferedInputStream(input, IO_BUFFER_SIZE);
+		}
+
+		public boolean ready() throws IOException {
+			return CompactGraphStreams.ready(input);
+		}
+
+		/**
+		 * @return the edge in the word format of <code>ModuleDataWriter.packEdge()</code>
+		 */
+		public long readEdge() throws IOException {
+			long fromIndex = previousFromIndex + unzigzag(readVarint(input));
+			long toIndex = fromIndex + unzigzag(readVarint(input));
+			long typeAndOrdinal = readByte(input);
+			previousFromIndex = fromIndex;
+			return fromIndex | (toIndex << 0x1c) | (typeAndOrdinal << 0x38);
+		}
+
+		public int available() throws IOException {
+			return input.available();
+		}
+
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+
+	private static boolean ready(InputStream input) throws IOException {
+		input.mark(1);
+		int next = input.read();
+		input.reset();
+		return next >= 0;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1L);
+	}
+
+	private static void writeVarint(OutputStream output, long value) throws IOException {
+		while ((value & ~0x7fL) != 0L) {
+			output.write((int) ((value & 0x7fL) | 0x80L));
+			value >>>= 7;
+		}
+		output.write((int) value);
+	}
+
+	private static long readVarint(InputStream input) throws IOException {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int next = readByte(input);
+			value |= ((long) (next & 0x7f)) << shift;
+			if ((next & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint in compact graph stream");
+	}
+
+	private static int readByte(InputStream input) throws IOException {
+		int next = input.read();
+		if (next < 0)
+			throw new EOFException("Compact graph stream ends in the middle of a record");
+		return next;
+	}
+}
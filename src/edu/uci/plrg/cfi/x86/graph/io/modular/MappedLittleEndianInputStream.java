@@ -0,0 +1,124 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
+
+/**
+ * <code>LittleEndianInputStream</code> over a read-only mapping of a file region, so that words are read directly
+ * from the page cache instead of through a buffer refilled by a read call. The file is closed as soon as it is mapped,
+ * and the mapping is released when the stream is garbage collected.
+ */
+public class MappedLittleEndianInputStream extends LittleEndianInputStream {
+
+	/**
+	 * Byte view of the same mapping, for any inherited method that reads through the underlying stream.
+	 */
+	private static class MappedInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		MappedInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public long skip(long count) {
+			int skipCount = (int) Math.max(0L, Math.min(count, buffer.remaining()));
+			buffer.position(buffer.position() + skipCount);
+			return skipCount;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * @return a stream over <code>length</code> bytes of <code>file</code> starting at <code>offset</code>, or null if
+	 *         the region is too large to be mapped as one buffer
+	 */
+	public static MappedLittleEndianInputStream map(File file, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			return null;
+
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return new MappedLittleEndianInputStream(buffer, "mapped:" + file.getAbsolutePath());
+		} finally {
+			input.close();
+		}
+	}
+
+	public static MappedLittleEndianInputStream map(File file) throws IOException {
+		return map(file, 0L, file.length());
+	}
+
+	private final ByteBuffer buffer;
+
+	private MappedLittleEndianInputStream(ByteBuffer buffer, String description) {
+		super(new MappedInputStream(buffer), description);
+		this.buffer = buffer;
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		if (buffer.remaining() < 8)
+			throw new IOException(String.format("Attempt to read a long from %s with only %d bytes remaining",
+					description, buffer.remaining()));
+		return buffer.getLong();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		if (buffer.remaining() < 4)
+			throw new IOException(String.format("Attempt to read an int from %s with only %d bytes remaining",
+					description, buffer.remaining()));
+		return buffer.getInt();
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		return buffer.hasRemaining();
+	}
+
+	@Override
+	public boolean ready(int byteCount) throws IOException {
+		return buffer.remaining() >= byteCount;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer.position(buffer.limit());
+	}
+}
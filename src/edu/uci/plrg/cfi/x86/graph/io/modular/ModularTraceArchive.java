@@ -0,0 +1,515 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+import edu.uci.plrg.cfi.common.io.TraceDataSourceException;
+import edu.uci.plrg.cfi.common.log.Log;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+
+/**
+ * Alternative to <code>ModularTraceDirectory</code> that holds all the module streams of a run in one file, so that a
+ * run with hundreds of modules can be listed and read without a file per stream. Each stream is a contiguous segment
+ * of the archive, located by an index at the end of the file:
+ *
+ * <pre>
+ * header:  8 byte magic
+ * body:    stream segments
+ * index:   UTF process name, int segment count,
+ *          for each segment: UTF module id ("" for the hash labels), UTF stream type, UTF encoding, long offset, long length
+ * trailer: long index offset, 8 byte magic
+ * </pre>
+ *
+ * The header, index and trailer are big-endian. Opening one module's stream takes a single open and seek. The hash
+ * labels are stored as the compiled table of <code>HashLabelTable</code>, marked <code>COMPACT</code> in the index, so
+ * that opening the archive does not parse them; archives that store the text labels as <code>RAW</code> are still read.
+ *
+ * As a sink, the streams are spooled to a temporary directory beside the archive while the modules are written, and
+ * are assembled into the archive by <code>commit()</code>. The archive cannot be appended to.
+ */
+public class ModularTraceArchive implements ModularTraceDataSource, ModularTraceDataSink {
+
+	public static final String FILENAME_SUFFIX = ".modular.arc";
+
+	private static final long MAGIC = 0x4346494d4f444131L; // "CFIMODA1"
+	private static final int TRAILER_SIZE = 16;
+	private static final int IO_BUFFER_SIZE = 0x10000;
+	private static final EnumSet<ModularTraceStreamType> CFG_STREAM_TYPES = EnumSet.of(
+			ModularTraceStreamType.GRAPH_NODE, ModularTraceStreamType.GRAPH_EDGE, ModularTraceStreamType.META);
+
+	private static class Segment {
+		final ModularTraceEncoding encoding;
+		final long offset;
+		final long length;
+
+		Segment(ModularTraceEncoding encoding, long offset, long length) {
+			this.encoding = encoding;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static class SegmentIndex {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream entries = new DataOutputStream(bytes);
+		int segmentCount = 0;
+
+		void add(String moduleId, ModularTraceStreamType streamType, ModularTraceEncoding encoding, long offset,
+				long length) throws IOException {
+			entries.writeUTF(moduleId);
+			entries.writeUTF(streamType.name());
+			entries.writeUTF(encoding.name());
+			entries.writeLong(offset);
+			entries.writeLong(length);
+			segmentCount++;
+		}
+	}
+
+	public static File getFile(File directory, String processName) {
+		return new File(directory, processName + FILENAME_SUFFIX);
+	}
+
+	/**
+	 * @return the archive in <code>directory</code>, or null if it does not contain exactly one
+	 */
+	public static File findArchive(File directory) {
+		File archives[] = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(FILENAME_SUFFIX);
+			}
+		});
+		if ((archives == null) || (archives.length != 1))
+			return null;
+		return archives[0];
+	}
+
+	private final File file;
+
+	/* reading */
+	private String processName;
+	private final Map<ApplicationModule, Map<ModularTraceStreamType, Segment>> segmentsByModule = new LinkedHashMap<ApplicationModule, Map<ModularTraceStreamType, Segment>>();
+
+	/* writing */
+	private File spoolDirectory = null;
+	private ModularTraceEncoding outputEncoding = ModularTraceEncoding.RAW;
+	/* null unless the output is written asynchronously */
+	private AsyncFileWriter.SyncPolicy asyncSyncPolicy = null;
+	private AsyncFileWriter.Flusher asyncFlusher = null;
+	private final Map<ApplicationModule, Map<ModularTraceStreamType, File>> spoolFilesByModule = new LinkedHashMap<ApplicationModule, Map<ModularTraceStreamType, File>>();
+	private final Map<ModularTraceStreamType, List<AsyncFileWriter>> asyncWritersByType = new EnumMap<ModularTraceStreamType, List<AsyncFileWriter>>(
+			ModularTraceStreamType.class);
+	private final Map<ModularTraceStreamType, List<CountingOutputStream>> outputsByType = new EnumMap<ModularTraceStreamType, List<CountingOutputStream>>(
+			ModularTraceStreamType.class);
+
+	/**
+	 * Open an existing archive with <code>loadExistingFiles()</code>.
+	 */
+	public ModularTraceArchive(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Create an archive, which is written when <code>commit()</code> is called.
+	 */
+	public ModularTraceArchive(File file, String processName) throws IOException {
+		this.file = file;
+		this.processName = processName;
+		spoolDirectory = Files.createTempDirectory(file.getAbsoluteFile().getParentFile().toPath(),
+				processName + ".modular-spool").toFile();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public File getDirectory() {
+		return file.getAbsoluteFile().getParentFile();
+	}
+
+	/**
+	 * Write the streams of modules added from now on in <code>encoding</code>, wherever the stream type supports it.
+	 */
+	public ModularTraceArchive setOutputEncoding(ModularTraceEncoding encoding) {
+		outputEncoding = encoding;
+		return this;
+	}
+
+	/**
+	 * Write all streams from now on through <code>AsyncFileWriter</code>s with <code>syncPolicy</code>.
+	 */
+	public ModularTraceArchive setAsyncOutput(AsyncFileWriter.SyncPolicy syncPolicy) {
+		asyncSyncPolicy = syncPolicy;
+		if ((syncPolicy != null) && (asyncFlusher == null))
+			asyncFlusher = new AsyncFileWriter.Flusher(file.getName());
+		return this;
+	}
+
+	/**
+	 * Read the index of the archive, and load its hash labels, if any.
+	 */
+	public ModularTraceArchive loadExistingFiles() throws IOException {
+		long indexOffset;
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			if ((input.length() < (8 + TRAILER_SIZE)) || (input.readLong() != MAGIC))
+				throw new TraceDataSourceException(String.format("File %s is not a modular trace archive",
+						file.getAbsolutePath()));
+			input.seek(input.length() - TRAILER_SIZE);
+			indexOffset = input.readLong();
+			if ((input.readLong() != MAGIC) || (indexOffset < 8L) || (indexOffset > (input.length() - TRAILER_SIZE)))
+				throw new TraceDataSourceException(String.format(
+						"Modular trace archive %s is incomplete: the index is missing", file.getAbsolutePath()));
+			input.seek(indexOffset);
+
+			Segment hashLabels = null;
+			DataInputStream index = new DataInputStream(new BufferedInputStream(Channels.newInputStream(input
+					.getChannel())));
+			processName = index.readUTF();
+			int segmentCount = index.readInt();
+			for (int i = 0; i < segmentCount; i++) {
+				String moduleId = index.readUTF();
+				ModularTraceStreamType streamType = ModularTraceStreamType.valueOf(index.readUTF());
+				ModularTraceEncoding encoding = ModularTraceEncoding.valueOf(index.readUTF());
+				Segment segment = new Segment(encoding, index.readLong(), index.readLong());
+
+				if (streamType == ModularTraceStreamType.XHASH) {
+					hashLabels = segment;
+					continue;
+				}
+
+				ApplicationModule module = ApplicationModuleSet.getInstance().establishModuleByFileSystemName(
+						moduleId);
+				Map<ModularTraceStreamType, Segment> segments = segmentsByModule.get(module);
+				if (segments == null) {
+					segments = new EnumMap<ModularTraceStreamType, Segment>(ModularTraceStreamType.class);
+					segmentsByModule.put(module, segments);
+				}
+				segments.put(streamType, segment);
+			}
+
+			if (hashLabels != null) {
+				if (hashLabels.encoding == ModularTraceEncoding.COMPACT)
+					ApplicationModuleSet.getInstance().loadCrossModuleLabels(file, hashLabels.offset,
+							hashLabels.length);
+				else
+					ApplicationModuleSet.getInstance().loadCrossModuleLabels(openSegment(hashLabels));
+			}
+		} finally {
+			input.close();
+		}
+
+		for (Map.Entry<ApplicationModule, Map<ModularTraceStreamType, Segment>> segments : new ArrayList<Map.Entry<ApplicationModule, Map<ModularTraceStreamType, Segment>>>(
+				segmentsByModule.entrySet())) {
+			if (!segments.getValue().keySet().containsAll(CFG_STREAM_TYPES)) {
+				Set<ModularTraceStreamType> requiredTypes = EnumSet.copyOf(CFG_STREAM_TYPES);
+				requiredTypes.removeAll(segments.getValue().keySet());
+				Log.log("Error! Archive %s contains some but not all streams for cluster %s.\n\tMissing types are %s.\n\tSkipping this cluster.",
+						file.getAbsolutePath(), segments.getKey().name, requiredTypes);
+				segmentsByModule.remove(segments.getKey());
+			}
+		}
+
+		return this;
+	}
+
+	@Override
+	public String parseTraceName() {
+		if (processName == null)
+			throw new IllegalStateException("Archive has not been loaded, so it has no name.");
+		return processName;
+	}
+
+	@Override
+	public Collection<ApplicationModule> getReprsentedModules() {
+		return Collections.unmodifiableSet(segmentsByModule.keySet());
+	}
+
+	@Override
+	public boolean hasDataInputStream(ApplicationModule module, ModularTraceStreamType streamType) {
+		return getSegment(module, streamType) != null;
+	}
+
+	@Override
+	public InputStream getDataInputStream(ApplicationModule module, ModularTraceStreamType streamType)
+			throws IOException {
+		Segment segment = getSegment(module, streamType);
+		if (segment == null)
+			return null;
+
+		return openSegment(segment);
+	}
+
+	@Override
+	public LittleEndianInputStream getLittleEndianInputStream(ApplicationModule module,
+			ModularTraceStreamType streamType) throws IOException {
+		Segment segment = getSegment(module, streamType);
+		if (segment == null)
+			return null;
+
+		return new LittleEndianInputStream(openSegment(segment), String.format("archive:%s#%s.%s",
+				file.getAbsolutePath(), module.id, streamType.id));
+	}
+
+	@Override
+	public LittleEndianInputStream getMappedLittleEndianInputStream(ApplicationModule module,
+			ModularTraceStreamType streamType) throws IOException {
+		Segment segment = getSegment(module, streamType);
+		if (segment == null)
+			return null;
+
+		LittleEndianInputStream input = MappedLittleEndianInputStream.map(file, segment.offset, segment.length);
+		if (input == null)
+			return getLittleEndianInputStream(module, streamType);
+		return input;
+	}
+
+	@Override
+	public ModularTraceEncoding getEncoding(ApplicationModule module, ModularTraceStreamType streamType) {
+		if (spoolDirectory != null)
+			return streamType.supports(outputEncoding) ? outputEncoding : ModularTraceEncoding.RAW;
+
+		Segment segment = getSegment(module, streamType);
+		return (segment == null) ? ModularTraceEncoding.RAW : segment.encoding;
+	}
+
+	private Segment getSegment(ApplicationModule module, ModularTraceStreamType streamType) {
+		Map<ModularTraceStreamType, Segment> segments = segmentsByModule.get(module);
+		if (segments == null)
+			return null;
+		return segments.get(streamType);
+	}
+
+	private InputStream openSegment(Segment segment) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			input.getChannel().position(segment.offset);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		return ByteStreams.limit(input, segment.length);
+	}
+
+	/**
+	 * The file name format is ignored, since the streams are identified by the index.
+	 */
+	@Override
+	public synchronized void addModule(ApplicationModule module, String filenameFormat) {
+		checkWritable();
+
+		Map<ModularTraceStreamType, File> files = new EnumMap<ModularTraceStreamType, File>(
+				ModularTraceStreamType.class);
+		for (ModularTraceStreamType streamType : CFG_STREAM_TYPES)
+			files.put(streamType, new File(spoolDirectory, String.format("%s.%s", module.id, streamType.id)));
+		spoolFilesByModule.put(module, files);
+	}
+
+	@Override
+	public OutputStream getDataOutputStream(ApplicationModule module, ModularTraceStreamType streamType)
+			throws IOException {
+		return openSpool(module, streamType);
+	}
+
+	@Override
+	public LittleEndianOutputStream getLittleEndianOutputStream(ApplicationModule module,
+			ModularTraceStreamType streamType) throws IOException {
+		return getLittleEndianOutputStream(module, streamType, false);
+	}
+
+	@Override
+	public LittleEndianOutputStream getLittleEndianOutputStream(ApplicationModule module,
+			ModularTraceStreamType streamType, boolean append) throws IOException {
+		if (append)
+			throw new IllegalArgumentException(String.format("Cannot append to the %s stream of module %s in archive %s",
+					streamType, module.name, file.getAbsolutePath()));
+		return new LittleEndianOutputStream(openSpool(module, streamType), String.format("archive:%s#%s.%s",
+				file.getAbsolutePath(), module.id, streamType.id));
+	}
+
+	/**
+	 * Each output stream keeps its own count, so that concurrent writers do not share a counter.
+	 */
+	private synchronized OutputStream openSpool(ApplicationModule module, ModularTraceStreamType streamType)
+			throws IOException {
+		checkWritable();
+
+		CountingOutputStream output = new CountingOutputStream(new FileOutputStream(spoolFilesByModule.get(module)
+				.get(streamType)));
+		List<CountingOutputStream> outputs = outputsByType.get(streamType);
+		if (outputs == null) {
+			outputs = new ArrayList<CountingOutputStream>();
+			outputsByType.put(streamType, outputs);
+		}
+		outputs.add(output);
+		return output;
+	}
+
+	@Override
+	public synchronized AsyncFileWriter getAsyncFileWriter(ApplicationModule module,
+			ModularTraceStreamType streamType, boolean append) throws IOException {
+		checkWritable();
+		if (asyncSyncPolicy == null)
+			return null;
+		if (append)
+			throw new IllegalArgumentException(String.format("Cannot append to the %s stream of module %s in archive %s",
+					streamType, module.name, file.getAbsolutePath()));
+
+		// the spool is temporary, so only the archive itself is synced, by commit()
+		AsyncFileWriter writer = new AsyncFileWriter(new FileOutputStream(spoolFilesByModule.get(module).get(
+				streamType)).getChannel(), AsyncFileWriter.SyncPolicy.NONE, asyncFlusher, String.format(
+				"archive:%s#%s.%s", file.getAbsolutePath(), module.id, streamType.id));
+		List<AsyncFileWriter> writers = asyncWritersByType.get(streamType);
+		if (writers == null) {
+			writers = new ArrayList<AsyncFileWriter>();
+			asyncWritersByType.put(streamType, writers);
+		}
+		writers.add(writer);
+		return writer;
+	}
+
+	@Override
+	public synchronized long getBytesWritten(ModularTraceStreamType streamType) {
+		long byteCount = 0L;
+		List<CountingOutputStream> outputs = outputsByType.get(streamType);
+		if (outputs != null) {
+			for (CountingOutputStream output : outputs)
+				byteCount += output.getCount();
+		}
+		List<AsyncFileWriter> asyncWriters = asyncWritersByType.get(streamType);
+		if (asyncWriters != null) {
+			for (AsyncFileWriter asyncWriter : asyncWriters)
+				byteCount += asyncWriter.getBytesWritten();
+		}
+		return byteCount;
+	}
+
+	@Override
+	public Path getHashLabelPath() throws IOException {
+		checkWritable();
+		return new File(spoolDirectory, ModularTraceStreamType.XHASH.id).toPath();
+	}
+
+	/**
+	 * Assemble the spooled streams into the archive, replacing any previous archive at the same path. All writers must
+	 * have been flushed, and nothing more can be written.
+	 */
+	public synchronized void commit() throws IOException {
+		checkWritable();
+
+		for (List<CountingOutputStream> outputs : outputsByType.values()) {
+			for (OutputStream output : outputs)
+				output.close();
+		}
+		for (List<AsyncFileWriter> writers : asyncWritersByType.values()) {
+			for (AsyncFileWriter writer : writers)
+				writer.close();
+		}
+
+		File partialFile = new File(file.getPath() + ".partial");
+		FileOutputStream fileOutput = new FileOutputStream(partialFile);
+		CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fileOutput, IO_BUFFER_SIZE));
+		DataOutputStream output = new DataOutputStream(counter);
+		try {
+			output.writeLong(MAGIC);
+
+			SegmentIndex index = new SegmentIndex();
+			for (Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>> files : spoolFilesByModule.entrySet()) {
+				for (Map.Entry<ModularTraceStreamType, File> spoolFile : files.getValue().entrySet()) {
+					if (!spoolFile.getValue().exists())
+						continue;
+					long offset = counter.getCount();
+					Files.copy(spoolFile.getValue().toPath(), output);
+					index.add(files.getKey().id, spoolFile.getKey(), getEncoding(files.getKey(), spoolFile.getKey()),
+							offset, counter.getCount() - offset);
+				}
+			}
+			File hashLabelFile = getHashLabelPath().toFile();
+			if (hashLabelFile.exists()) {
+				long offset = counter.getCount();
+				ApplicationModuleSet.getInstance().compileCrossModuleLabels(hashLabelFile, output);
+				index.add("", ModularTraceStreamType.XHASH, ModularTraceEncoding.COMPACT, offset, counter.getCount()
+						- offset);
+			}
+
+			long indexOffset = counter.getCount();
+			output.writeUTF(processName);
+			output.writeInt(index.segmentCount);
+			index.bytes.writeTo(output);
+			output.writeLong(indexOffset);
+			output.writeLong(MAGIC);
+			if ((asyncSyncPolicy != null) && (asyncSyncPolicy != AsyncFileWriter.SyncPolicy.NONE)) {
+				output.flush();
+				fileOutput.getChannel().force(true);
+			}
+		} finally {
+			output.close();
+		}
+
+		Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		dispose();
+	}
+
+	@Override
+	public void finish() throws IOException {
+		commit();
+	}
+
+	/**
+	 * Delete the spooled streams, if the archive has not been committed.
+	 */
+	public synchronized void dispose() {
+		if (spoolDirectory == null)
+			return;
+
+		File spoolFiles[] = spoolDirectory.listFiles();
+		if (spoolFiles != null) {
+			for (File spoolFile : spoolFiles)
+				spoolFile.delete();
+		}
+		spoolDirectory.delete();
+		spoolDirectory = null;
+	}
+
+	private void checkWritable() {
+		if (spoolDirectory == null)
+			throw new IllegalStateException(String.format("Modular trace archive %s is not open for writing",
+					file.getAbsolutePath()));
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ": " + file.getAbsolutePath();
+	}
+}
@@ -16,5 +16,29 @@ public interface ModularTraceDataSink {
 	LittleEndianOutputStream getLittleEndianOutputStream(ApplicationModule cluster, ModularTraceStreamType streamType)
 			throws IOException;
 
+	LittleEndianOutputStream getLittleEndianOutputStream(ApplicationModule cluster, ModularTraceStreamType streamType,
+			boolean append) throws IOException;
+
+	/**
+	 * @return an asynchronous writer of the stream, or null if the sink is not configured to write asynchronously
+	 */
+	AsyncFileWriter getAsyncFileWriter(ApplicationModule module, ModularTraceStreamType streamType, boolean append)
+			throws IOException;
+
 	public Path getHashLabelPath() throws IOException;
+
+	/**
+	 * @return the encoding in which <code>streamType</code> is written for <code>module</code>
+	 */
+	ModularTraceEncoding getEncoding(ApplicationModule module, ModularTraceStreamType streamType);
+
+	/**
+	 * Complete the output once all streams have been written and flushed.
+	 */
+	void finish() throws IOException;
+
+	/**
+	 * @return the number of bytes written so far to all output streams of <code>streamType</code>
+	 */
+	long getBytesWritten(ModularTraceStreamType streamType);
 }
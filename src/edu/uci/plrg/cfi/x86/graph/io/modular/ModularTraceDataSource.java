@@ -22,4 +22,13 @@ public interface ModularTraceDataSource {
 
 	LittleEndianInputStream getLittleEndianInputStream(ApplicationModule module, ModularTraceStreamType streamType)
 			throws IOException;
+
+	/**
+	 * Like <code>getLittleEndianInputStream()</code>, but reading from a memory mapping of the stream wherever it can
+	 * be mapped.
+	 */
+	LittleEndianInputStream getMappedLittleEndianInputStream(ApplicationModule module,
+			ModularTraceStreamType streamType) throws IOException;
+
+	ModularTraceEncoding getEncoding(ApplicationModule module, ModularTraceStreamType streamType);
 }
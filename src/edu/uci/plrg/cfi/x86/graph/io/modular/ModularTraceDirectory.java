@@ -1,6 +1,10 @@
 package edu.uci.plrg.cfi.x86.graph.io.modular;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -8,19 +12,25 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.io.CountingOutputStream;
+
 import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
 import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
 import edu.uci.plrg.cfi.common.io.TraceDataSourceException;
@@ -35,13 +45,23 @@ public class ModularTraceDirectory implements ModularTraceDataSource, ModularTra
 	private static final EnumSet<ModularTraceStreamType> CFG_STREAM_TYPES = EnumSet.of(
 			ModularTraceStreamType.GRAPH_NODE, ModularTraceStreamType.GRAPH_EDGE, ModularTraceStreamType.META);
 	private static final String XHASH_FILENAME = "xhash.tab";
+	private static final String MANIFEST_FILENAME = "modular-trace.manifest";
+	private static final long MANIFEST_MAGIC = 0x4346494d4f444d31L; // "CFIMODM1"
 
-	private final Map<ApplicationModule, Map<ModularTraceStreamType, File>> filesByModule = new HashMap<ApplicationModule, Map<ModularTraceStreamType, File>>();
+	private final Map<ApplicationModule, Map<ModularTraceStreamType, File>> filesByModule = new ConcurrentHashMap<ApplicationModule, Map<ModularTraceStreamType, File>>();
+	private final Map<ModularTraceStreamType, List<AsyncFileWriter>> asyncWritersByType = new EnumMap<ModularTraceStreamType, List<AsyncFileWriter>>(
+			ModularTraceStreamType.class);
+	private final Map<ModularTraceStreamType, List<CountingOutputStream>> outputsByType = new EnumMap<ModularTraceStreamType, List<CountingOutputStream>>(
+			ModularTraceStreamType.class);
 
 	private final File directory;
 	private final Set<ModularTraceStreamType> streamTypes;
 	private final Set<ModularTraceStreamType> requiredStreamTypes;
 	private final Set<ModularTraceStreamType> optionalStreamTypes;
+	private ModularTraceEncoding outputEncoding = ModularTraceEncoding.RAW;
+	/* null unless the output is written asynchronously */
+	private AsyncFileWriter.SyncPolicy asyncSyncPolicy = null;
+	private AsyncFileWriter.Flusher asyncFlusher = null;
 
 	private final Map<ModularTraceStreamType, Pattern> filePatterns = new EnumMap<ModularTraceStreamType, Pattern>(
 			ModularTraceStreamType.class);
@@ -65,25 +85,90 @@ public class ModularTraceDirectory implements ModularTraceDataSource, ModularTra
 		this.optionalStreamTypes = optionalStreamTypes;
 	}
 
+	/**
+	 * @return the modular trace archive in <code>directory</code>, if it has one, or otherwise the modular trace files
+	 *         in <code>directory</code>
+	 */
+	public static ModularTraceDataSource loadDataSource(File directory) throws IOException {
+		if (!new File(directory, MANIFEST_FILENAME).exists()) {
+			File archive = ModularTraceArchive.findArchive(directory);
+			if (archive != null)
+				return new ModularTraceArchive(archive).loadExistingFiles();
+		}
+		return new ModularTraceDirectory(directory).loadExistingFiles();
+	}
+
 	@Override
 	public File getDirectory() {
 		return directory;
 	}
 
+	/**
+	 * Write the streams of modules added from now on in <code>encoding</code>, wherever the stream type supports it.
+	 */
+	public ModularTraceDirectory setOutputEncoding(ModularTraceEncoding encoding) {
+		outputEncoding = encoding;
+		return this;
+	}
+
+	/**
+	 * Write all streams from now on through <code>AsyncFileWriter</code>s with <code>syncPolicy</code>.
+	 */
+	public ModularTraceDirectory setAsyncOutput(AsyncFileWriter.SyncPolicy syncPolicy) {
+		asyncSyncPolicy = syncPolicy;
+		if ((syncPolicy != null) && (asyncFlusher == null))
+			asyncFlusher = new AsyncFileWriter.Flusher(directory.getName());
+		return this;
+	}
+
+	/**
+	 * Find the modular trace files of the directory from its manifest, if it has a valid one, or otherwise by listing
+	 * the directory.
+	 */
 	public ModularTraceDirectory loadExistingFiles() throws IOException {
+		if (!loadManifest())
+			scanFiles();
+
+		for (Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>> files : new ArrayList<Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>>>(
+				filesByModule.entrySet())) {
+			for (ModularTraceStreamType streamType : requiredStreamTypes) {
+				if (!files.getValue().containsKey(streamType)) {
+					Set<ModularTraceStreamType> requiredTypes = EnumSet.copyOf(requiredStreamTypes);
+					requiredTypes.removeAll(files.getValue().keySet());
+					Log.log("Error! Directory %s contains some but not all files for cluster %s.\n\tMissing types are %s.\n\tSkipping this cluster.",
+							directory.getAbsolutePath(), files.getKey().name, requiredTypes);
+					filesByModule.remove(files.getKey());
+				}
+			}
+		}
+
+		return this;
+	}
+
+	private void scanFiles() throws IOException {
 		File[] ls = directory.listFiles();
 
 		if ((ls == null) || (ls.length == 0)) {
 			throw new IllegalStateException(String.format("No files in run directory %s", directory.getAbsolutePath()));
 		}
 
-		String sample = ls[0].getName();
-		if (sample.endsWith("transform-graphs.log") && (ls.length > 1))
-			sample = ls[1].getName();
+		String sample = null;
+		for (File file : ls) {
+			if (!(file.getName().endsWith("transform-graphs.log") || file.getName().startsWith(MANIFEST_FILENAME) || file
+					.getName().startsWith(XHASH_FILENAME))) {
+				sample = file.getName();
+				break;
+			}
+		}
+		if (sample == null)
+			sample = ls[0].getName();
 		String processName = sample.substring(0, sample.indexOf('.'));
 		for (ModularTraceStreamType streamType : streamTypes) {
-			filePatterns.put(streamType, Pattern.compile(String.format("%s\\.(.*)\\.%s\\.%s", processName,
-					streamType.id, streamType.extension)));
+			String extensions = streamType.extension;
+			if (streamType.compactExtension != null)
+				extensions += "|" + streamType.compactExtension;
+			filePatterns.put(streamType, Pattern.compile(String.format("%s\\.(.*)\\.%s\\.(?:%s)", processName,
+					streamType.id, extensions)));
 		}
 
 		for (File file : ls) {
@@ -91,7 +176,7 @@ public class ModularTraceDirectory implements ModularTraceDataSource, ModularTra
 				continue;
 
 			if (file.getName().equals(XHASH_FILENAME)) {
-				ApplicationModuleSet.getInstance().loadCrossModuleLabels(new FileInputStream(file));
+				ApplicationModuleSet.getInstance().loadCrossModuleLabels(file);
 				continue;
 			}
 
@@ -114,21 +199,126 @@ public class ModularTraceDirectory implements ModularTraceDataSource, ModularTra
 				}
 			}
 		}
+	}
 
-		for (Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>> files : new ArrayList<Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>>>(
-				filesByModule.entrySet())) {
-			for (ModularTraceStreamType streamType : requiredStreamTypes) {
-				if (!files.getValue().containsKey(streamType)) {
-					Set<ModularTraceStreamType> requiredTypes = EnumSet.copyOf(requiredStreamTypes);
-					requiredTypes.removeAll(files.getValue().keySet());
-					Log.log("Error! Directory %s contains some but not all files for cluster %s.\n\tMissing types are %s.\n\tSkipping this cluster.",
-							directory.getAbsolutePath(), files.getKey().name, requiredTypes);
-					filesByModule.remove(files.getKey());
+	/**
+	 * Modules are only registered once the whole manifest has been read, so a corrupt manifest leaves no trace of
+	 * itself before the directory is scanned. A manifest is also stale if any file it lists is missing or has changed
+	 * size since it was written.
+	 *
+	 * @return false if the directory has no manifest, or if it cannot be read or is stale
+	 */
+	private boolean loadManifest() throws IOException {
+		File manifestFile = new File(directory, MANIFEST_FILENAME);
+		if (!manifestFile.exists())
+			return false;
+
+		boolean hasHashLabels;
+		Map<String, Map<ModularTraceStreamType, File>> filesByModuleName = new LinkedHashMap<String, Map<ModularTraceStreamType, File>>();
+		DataInputStream manifest = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+		try {
+			if (manifest.readLong() != MANIFEST_MAGIC) {
+				Log.log("Warning: ignoring the manifest %s, which has an unknown format", manifestFile.getAbsolutePath());
+				return false;
+			}
+			manifest.readUTF(); // process name, for reference
+			hasHashLabels = manifest.readBoolean();
+			int moduleCount = manifest.readInt();
+			for (int i = 0; i < moduleCount; i++) {
+				String moduleName = manifest.readUTF();
+				Map<ModularTraceStreamType, File> files = new EnumMap<ModularTraceStreamType, File>(
+						ModularTraceStreamType.class);
+				int fileCount = manifest.readInt();
+				for (int j = 0; j < fileCount; j++) {
+					ModularTraceStreamType streamType = ModularTraceStreamType.valueOf(manifest.readUTF());
+					File file = new File(directory, manifest.readUTF());
+					long size = manifest.readLong();
+					if (!streamTypes.contains(streamType))
+						continue;
+					if (!file.exists() || (file.length() != size)) {
+						Log.log("Warning: the manifest %s is stale: %s %s. Scanning the directory instead.",
+								manifestFile.getAbsolutePath(), file.getName(), file.exists() ? String.format(
+										"has %d bytes instead of %d", file.length(), size) : "is missing");
+						return false;
+					}
+					files.put(streamType, file);
 				}
+				if (!files.isEmpty())
+					filesByModuleName.put(moduleName, files);
 			}
+		} catch (IOException e) {
+			Log.log("Warning: failed to read the manifest %s (%s). Scanning the directory instead.",
+					manifestFile.getAbsolutePath(), e);
+			return false;
+		} catch (IllegalArgumentException e) {
+			Log.log("Warning: failed to read the manifest %s (%s). Scanning the directory instead.",
+					manifestFile.getAbsolutePath(), e);
+			return false;
+		} finally {
+			manifest.close();
+		}
+		if (hasHashLabels && !new File(directory, XHASH_FILENAME).exists()) {
+			Log.log("Warning: the manifest %s is stale: %s is missing. Scanning the directory instead.",
+					manifestFile.getAbsolutePath(), XHASH_FILENAME);
+			return false;
 		}
 
-		return this;
+		for (Map.Entry<String, Map<ModularTraceStreamType, File>> files : filesByModuleName.entrySet()) {
+			ApplicationModule module = ApplicationModuleSet.getInstance().establishModuleByFileSystemName(
+					files.getKey());
+			filesByModule.put(module, files.getValue());
+		}
+		if (hasHashLabels)
+			ApplicationModuleSet.getInstance().loadCrossModuleLabels(new File(directory, XHASH_FILENAME));
+		return true;
+	}
+
+	/**
+	 * Record the files written so far in a manifest, which <code>loadExistingFiles()</code> uses instead of listing
+	 * the directory. Any manifest is deleted when the next module is added to this sink, so a directory is never left
+	 * with a manifest that is missing files.
+	 */
+	@Override
+	public synchronized void finish() throws IOException {
+		String processName = null;
+		Map<ApplicationModule, Map<ModularTraceStreamType, File>> existingFiles = new LinkedHashMap<ApplicationModule, Map<ModularTraceStreamType, File>>();
+		for (Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>> files : filesByModule.entrySet()) {
+			Map<ModularTraceStreamType, File> moduleFiles = new EnumMap<ModularTraceStreamType, File>(
+					ModularTraceStreamType.class);
+			for (Map.Entry<ModularTraceStreamType, File> file : files.getValue().entrySet()) {
+				if (file.getValue().exists())
+					moduleFiles.put(file.getKey(), file.getValue());
+			}
+			if (!moduleFiles.isEmpty()) {
+				existingFiles.put(files.getKey(), moduleFiles);
+				if (processName == null) {
+					String filename = moduleFiles.values().iterator().next().getName();
+					processName = filename.substring(0, filename.indexOf('.'));
+				}
+			}
+		}
+
+		File manifestFile = new File(directory, MANIFEST_FILENAME);
+		File partialFile = new File(directory, MANIFEST_FILENAME + ".partial");
+		DataOutputStream manifest = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partialFile)));
+		try {
+			manifest.writeLong(MANIFEST_MAGIC);
+			manifest.writeUTF((processName == null) ? "" : processName);
+			manifest.writeBoolean(new File(directory, XHASH_FILENAME).exists());
+			manifest.writeInt(existingFiles.size());
+			for (Map.Entry<ApplicationModule, Map<ModularTraceStreamType, File>> files : existingFiles.entrySet()) {
+				manifest.writeUTF(files.getKey().id);
+				manifest.writeInt(files.getValue().size());
+				for (Map.Entry<ModularTraceStreamType, File> file : files.getValue().entrySet()) {
+					manifest.writeUTF(file.getKey().name());
+					manifest.writeUTF(file.getValue().getName());
+					manifest.writeLong(file.getValue().length());
+				}
+			}
+		} finally {
+			manifest.close();
+		}
+		Files.move(partialFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 	}
 
 	@Override
@@ -149,11 +339,15 @@ public class ModularTraceDirectory implements ModularTraceDataSource, ModularTra
 
 	@Override
 	public void addModule(ApplicationModule module, String filenameFormat) {
+		File manifestFile = new File(directory, MANIFEST_FILENAME);
+		if (manifestFile.exists() && !manifestFile.delete())
+			Log.log("Warning: failed to delete the stale manifest %s", manifestFile.getAbsolutePath());
+
 		Map<ModularTraceStreamType, File> files = new EnumMap<ModularTraceStreamType, File>(
 				ModularTraceStreamType.class);
 		for (ModularTraceStreamType streamType : streamTypes) {
-			files.put(streamType,
-					new File(directory, String.format(filenameFormat, module.id, streamType.id, streamType.extension)));
+			files.put(streamType, new File(directory, String.format(filenameFormat, module.id, streamType.id,
+					streamType.getExtension(outputEncoding))));
 		}
 		filesByModule.put(module, files);
 	}
@@ -191,33 +385,98 @@ public class ModularTraceDirectory implements ModularTraceDataSource, ModularTra
 		return new LittleEndianInputStream(new FileInputStream(file), "file:" + file.getAbsolutePath());
 	}
 
+	@Override
+	public LittleEndianInputStream getMappedLittleEndianInputStream(ApplicationModule module,
+			ModularTraceStreamType streamType) throws IOException {
+		if (!filesByModule.containsKey(module))
+			return null;
+
+		LittleEndianInputStream input = MappedLittleEndianInputStream.map(filesByModule.get(module).get(streamType));
+		if (input == null)
+			return getLittleEndianInputStream(module, streamType);
+		return input;
+	}
+
+	@Override
+	public ModularTraceEncoding getEncoding(ApplicationModule module, ModularTraceStreamType streamType) {
+		Map<ModularTraceStreamType, File> files = filesByModule.get(module);
+		if ((files == null) || !files.containsKey(streamType) || (streamType.compactExtension == null))
+			return ModularTraceEncoding.RAW;
+		return files.get(streamType).getName().endsWith("." + streamType.compactExtension) ? ModularTraceEncoding.COMPACT
+				: ModularTraceEncoding.RAW;
+	}
+
 	@Override
 	public OutputStream getDataOutputStream(ApplicationModule module, ModularTraceStreamType streamType)
 			throws IOException {
-		return new FileOutputStream(filesByModule.get(module).get(streamType));
+		return countOutput(streamType, new FileOutputStream(filesByModule.get(module).get(streamType)));
 	}
 
 	@Override
 	public LittleEndianOutputStream getLittleEndianOutputStream(ApplicationModule module,
 			ModularTraceStreamType streamType) throws IOException {
+		return getLittleEndianOutputStream(module, streamType, false);
+	}
+
+	@Override
+	public LittleEndianOutputStream getLittleEndianOutputStream(ApplicationModule module,
+			ModularTraceStreamType streamType, boolean append) throws IOException {
 		File file = filesByModule.get(module).get(streamType);
-		return new LittleEndianOutputStream(new FileOutputStream(file), "file:" + file.getAbsolutePath());
+		return new LittleEndianOutputStream(countOutput(streamType, new FileOutputStream(file, append)), "file:"
+				+ file.getAbsolutePath());
 	}
 
 	@Override
-	public Path getHashLabelPath() throws IOException {
-		return Paths.get(new File(directory, XHASH_FILENAME).getAbsolutePath());
+	public synchronized AsyncFileWriter getAsyncFileWriter(ApplicationModule module,
+			ModularTraceStreamType streamType, boolean append) throws IOException {
+		if (asyncSyncPolicy == null)
+			return null;
+
+		File file = filesByModule.get(module).get(streamType);
+		AsyncFileWriter writer = new AsyncFileWriter(new FileOutputStream(file, append).getChannel(),
+				asyncSyncPolicy, asyncFlusher, "file:" + file.getAbsolutePath());
+		List<AsyncFileWriter> writers = asyncWritersByType.get(streamType);
+		if (writers == null) {
+			writers = new ArrayList<AsyncFileWriter>();
+			asyncWritersByType.put(streamType, writers);
+		}
+		writers.add(writer);
+		return writer;
 	}
 
-	private boolean matches(String filename, ApplicationModule module, ModularTraceStreamType streamType) {
-		return matches(filename, ".*", module, streamType);
+	@Override
+	public synchronized long getBytesWritten(ModularTraceStreamType streamType) {
+		long byteCount = 0L;
+		List<CountingOutputStream> outputs = outputsByType.get(streamType);
+		if (outputs != null) {
+			for (CountingOutputStream output : outputs)
+				byteCount += output.getCount();
+		}
+		List<AsyncFileWriter> asyncWriters = asyncWritersByType.get(streamType);
+		if (asyncWriters != null) {
+			for (AsyncFileWriter asyncWriter : asyncWriters)
+				byteCount += asyncWriter.getBytesWritten();
+		}
+		return byteCount;
 	}
 
-	private boolean matches(String filename, String processName, ApplicationModule module,
-			ModularTraceStreamType streamType) {
-		return Pattern.matches(
-				String.format("%s\\.%s\\.%s\\.%s", processName, module.id, streamType.id, streamType.extension),
-				filename);
+	/**
+	 * Each output stream keeps its own count, so that concurrent writers do not share a counter.
+	 */
+	private synchronized OutputStream countOutput(ModularTraceStreamType streamType, OutputStream output) {
+		CountingOutputStream countingOutput = new CountingOutputStream(output);
+		List<CountingOutputStream> outputs = outputsByType.get(streamType);
+		if (outputs == null) {
+			outputs = new ArrayList<CountingOutputStream>();
+			outputsByType.put(streamType, outputs);
+		}
+		outputs.add(countingOutput);
+		return countingOutput;
+	}
+
+	@Override
+	public Path getHashLabelPath() throws IOException {
+		return Paths.get(new File(directory, XHASH_FILENAME).getAbsolutePath());
 	}
 
 	@Override
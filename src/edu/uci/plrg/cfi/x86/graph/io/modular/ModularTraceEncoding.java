@@ -0,0 +1,11 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+/**
+ * On-disk encoding of the modular graph streams. <code>RAW</code> is the fixed-width little-endian format, and
+ * <code>COMPACT</code> is the variable-length format of <code>CompactGraphStreams</code>, which is only available for
+ * the node and edge streams.
+ */
+public enum ModularTraceEncoding {
+	RAW,
+	COMPACT;
+}
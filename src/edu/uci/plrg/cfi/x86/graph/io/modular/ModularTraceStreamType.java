@@ -1,16 +1,31 @@
 package edu.uci.plrg.cfi.x86.graph.io.modular;
 
 public enum ModularTraceStreamType {
-	GRAPH_NODE("graph-node", "dat"),
-	GRAPH_EDGE("graph-edge", "dat"),
-	META("meta", "dat"),
-	XHASH("xhash", "tab");
+	GRAPH_NODE("graph-node", "dat", "cdat"),
+	GRAPH_EDGE("graph-edge", "dat", "cdat"),
+	META("meta", "dat", null),
+	XHASH("xhash", "tab", null);
 
 	public final String id;
 	public final String extension;
+	/* null if the stream is only written in the raw encoding */
+	public final String compactExtension;
 
-	private ModularTraceStreamType(String id, String extension) {
+	private ModularTraceStreamType(String id, String extension, String compactExtension) {
 		this.id = id;
 		this.extension = extension;
+		this.compactExtension = compactExtension;
+	}
+
+	public boolean supports(ModularTraceEncoding encoding) {
+		return (encoding == ModularTraceEncoding.RAW) || (compactExtension != null);
+	}
+
+	/**
+	 * @return the file extension of this stream in <code>encoding</code>, falling back to the raw encoding if this
+	 *         stream does not support it
+	 */
+	public String getExtension(ModularTraceEncoding encoding) {
+		return (encoding == ModularTraceEncoding.COMPACT) && (compactExtension != null) ? compactExtension : extension;
 	}
 }
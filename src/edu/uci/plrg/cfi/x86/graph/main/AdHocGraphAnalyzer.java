@@ -193,7 +193,7 @@ public class AdHocGraphAnalyzer {
 
 		ModuleGraph<?> mainGraph = null;
 
-		ModularTraceDataSource dataSource = new ModularTraceDirectory(directory).loadExistingFiles();
+		ModularTraceDataSource dataSource = ModularTraceDirectory.loadDataSource(directory);
 		ModuleGraphLoadSession loadSession = new ModuleGraphLoadSession(dataSource);
 		LoadListener listener = new LoadListener();
 		for (ApplicationModule module : dataSource.getReprsentedModules()) {
@@ -13,6 +13,7 @@ import edu.uci.plrg.cfi.common.util.ArgumentStack;
 import edu.uci.plrg.cfi.common.util.OptionArgumentMap;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
 import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.OffHeapModuleGraph;
 
 public class CommonMergeOptions {
 
@@ -70,6 +71,18 @@ public class CommonMergeOptions {
 		}
 	}
 
+	/**
+	 * Parse the value of an option that selects off-heap storage for the module graphs.
+	 */
+	public static OffHeapModuleGraph.Storage parseOffHeapStorage(String value) {
+		try {
+			return OffHeapModuleGraph.Storage.valueOf(value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format(
+					"Unknown off-heap storage (-o) '%s'. Expected one of 'direct' or 'mapped'.", value));
+		}
+	}
+
 	public boolean includeModule(ApplicationModule module) {
 		if (explicitModuleNames.isEmpty()) {
 			return !(excludedModuleNames.contains(module.name) || excludedModuleNames.contains(module.filename));
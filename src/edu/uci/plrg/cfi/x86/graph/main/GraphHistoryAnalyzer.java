@@ -23,9 +23,9 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.ModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
 import edu.uci.plrg.cfi.x86.graph.data.graph.NodeHashMap;
-import edu.uci.plrg.cfi.x86.graph.data.graph.NodeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.OrdinalEdgeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.OffHeapModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.loader.ModuleGraphLoadSession;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDataSource;
 import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDirectory;
@@ -96,11 +96,10 @@ public class GraphHistoryAnalyzer {
 			if (graph.module.isAnonymous)
 				return;
 
-			NodeHashMap<?> nodeMap = graph.getGraphData().nodesByHash;
-			for (Long hash : nodeMap.keySet()) {
-				NodeList<?> nodes = nodeMap.get(hash);
-				for (int i = 0; i < nodes.size(); i++) {
-					ModuleNode<?> node = (ModuleNode<?>) nodes.get(i);
+			NodeHashMap<?>.Cursor cursor = graph.getGraphData().nodesByHash.cursor();
+			while (cursor.nextHash()) {
+				for (Node<?> next = cursor.nextNode(); next != null; next = cursor.nextNode()) {
+					ModuleNode<?> node = (ModuleNode<?>) next;
 					OrdinalEdgeList<ModuleNode<?>> outgoing = node.getOutgoingEdges();
 					try {
 						for (Edge<?> edge : outgoing) {
@@ -129,7 +128,7 @@ public class GraphHistoryAnalyzer {
 								fromGencode.add(id);
 								Log.log("#%d: new callout target from gencode to %s (%s in graph %s). %s.", graphCount,
 										edge.getToNode(), edge.getEdgeType(), currentRun,
-										isRelocatable(graph, edge.getToNode()));
+										isRelocatable(graph.module, edge.getToNode()));
 							}
 						}
 					} finally {
@@ -158,8 +157,61 @@ public class GraphHistoryAnalyzer {
 			}
 		}
 
-		private String isRelocatable(ModuleGraph<?> graph, Node<?> node) {
-			ModuleRelocations relocations = moduleRelocations.get(graph.module.filename);
+		/**
+		 * Same analysis as for a <code>ModuleGraph</code>, reading the edges straight from off-heap storage.
+		 */
+		private void analyzeGraph(OffHeapModuleGraph graph) throws IOException {
+			for (int nodeId = 0; nodeId < graph.getNodeCount(); nodeId++) {
+				if (graph.isModuleBoundaryNode(nodeId))
+					continue;
+
+				for (int i = graph.getOutgoingStart(nodeId); i < graph.getOutgoingEnd(nodeId); i++) {
+					if (graph.getEdgeType(i) == EdgeType.UNEXPECTED_RETURN) {
+						ModuleNode<?> node = graph.getNode(nodeId);
+						NodeIdentifier id = new NodeIdentifier(node);
+						if (!unexpectedReturnSites.contains(id)) {
+							unexpectedReturnSites.add(id);
+							Log.log("#%d: new unexpected return site %s (%s)", graphCount, node, currentRun);
+						}
+					}
+				}
+			}
+
+			for (long entryHash : anonymousEntryHashes) {
+				int anonymousEntryId = graph.getEntryPoint(entryHash);
+				if (anonymousEntryId >= 0) {
+					int end = graph.getOutgoingEnd(anonymousEntryId);
+					for (int i = graph.getOutgoingStart(anonymousEntryId); i < end; i++) {
+						ModuleNode<?> toNode = graph.getNode(graph.getTarget(i));
+						NodeIdentifier id = new NodeIdentifier(toNode);
+						if (!fromGencode.contains(id)) {
+							fromGencode.add(id);
+							Log.log("#%d: new callout target from gencode to %s (%s in graph %s). %s.", graphCount,
+									toNode, graph.getEdgeType(i), currentRun, isRelocatable(graph.module, toNode));
+						}
+					}
+				}
+			}
+
+			for (long exitHash : anonymousExitHashes) {
+				int anonymousExitId = graph.getExitPoint(exitHash);
+				if (anonymousExitId >= 0) {
+					int end = graph.getIncomingEnd(anonymousExitId);
+					for (int i = graph.getIncomingStart(anonymousExitId); i < end; i++) {
+						ModuleNode<?> fromNode = graph.getNode(graph.getSource(i));
+						NodeIdentifier id = new NodeIdentifier(fromNode);
+						if (!toGencode.contains(id)) {
+							toGencode.add(id);
+							Log.log("#%d: new callsite into gencode from %s (%s in graph %s)", graphCount, fromNode,
+									graph.getIncomingEdgeType(i), currentRun);
+						}
+					}
+				}
+			}
+		}
+
+		private String isRelocatable(ApplicationModule module, Node<?> node) {
+			ModuleRelocations relocations = moduleRelocations.get(module.filename);
 			if (relocations == null)
 				return "<no-relocations>";
 
@@ -195,6 +247,7 @@ public class GraphHistoryAnalyzer {
 
 	private static final OptionArgumentMap.StringOption relocationOption = OptionArgumentMap.createStringOption('r',
 			OptionMode.REQUIRED);
+	private static final OptionArgumentMap.StringOption offHeapOption = OptionArgumentMap.createStringOption('o');
 
 	private ModularTraceDataSource dataSource;
 	private ModuleGraphLoadSession loadSession;
@@ -203,6 +256,9 @@ public class GraphHistoryAnalyzer {
 
 	private File relocationDirectory;
 
+	/* null to load the module graphs onto the heap */
+	private OffHeapModuleGraph.Storage offHeapStorage = null;
+
 	private Map<String, ModuleGraph<ModuleNode<?>>> graphs = new HashMap<String, ModuleGraph<ModuleNode<?>>>();
 
 	private int graphCount = 0;
@@ -210,7 +266,8 @@ public class GraphHistoryAnalyzer {
 
 	private GraphHistoryAnalyzer(ArgumentStack args) {
 		this.args = args;
-		this.options = new CommonMergeOptions(args, CommonMergeOptions.crowdSafeCommonDir, relocationOption);
+		this.options = new CommonMergeOptions(args, CommonMergeOptions.crowdSafeCommonDir, relocationOption,
+				offHeapOption);
 	}
 
 	private ModuleGraph<?> loadGraph(ApplicationModule cluster) throws IOException {
@@ -221,6 +278,14 @@ public class GraphHistoryAnalyzer {
 		return graph;
 	}
 
+	private OffHeapModuleGraph loadOffHeapGraph(ApplicationModule cluster) throws IOException {
+		OffHeapModuleGraph graph;
+		Log.setSilent(true);
+		graph = loadSession.loadOffHeapGraph(cluster, offHeapStorage);
+		Log.setSilent(false);
+		return graph;
+	}
+
 	private void run() {
 		try {
 			options.parseOptions();
@@ -233,6 +298,9 @@ public class GraphHistoryAnalyzer {
 			if (!relocationDirectory.exists())
 				throw new IllegalArgumentException("No such directory '" + relocationDirectory.getName() + "'");
 
+			if (offHeapOption.getValue() != null)
+				offHeapStorage = CommonMergeOptions.parseOffHeapStorage(offHeapOption.getValue());
+
 			String path = args.pop();
 			File runCatalog = new File(path);
 			if (!(runCatalog.exists() && runCatalog.isFile())) {
@@ -259,15 +327,19 @@ public class GraphHistoryAnalyzer {
 				return;
 
 			for (File runDirectory : runDirectories) {
-				dataSource = new ModularTraceDirectory(runDirectory).loadExistingFiles();
-				loadSession = new ModuleGraphLoadSession(dataSource);
+				dataSource = ModularTraceDirectory.loadDataSource(runDirectory);
+				loadSession = new ModuleGraphLoadSession(dataSource, true);
 
 				edgeAnalyzer.setupAnonymousHashes(loadGraph(ApplicationModule.ANONYMOUS_MODULE));
 				graphCount++;
 				currentRun = runDirectory.getName();
 				for (ApplicationModule cluster : dataSource.getReprsentedModules()) {
-					ModuleGraph<?> graph = loadGraph(cluster);
-					edgeAnalyzer.analyzeGraph(graph);
+					if ((offHeapStorage != null) && !cluster.isAnonymous) {
+						edgeAnalyzer.analyzeGraph(loadOffHeapGraph(cluster));
+					} else {
+						ModuleGraph<?> graph = loadGraph(cluster);
+						edgeAnalyzer.analyzeGraph(graph);
+					}
 				}
 			}
 
@@ -278,7 +350,9 @@ public class GraphHistoryAnalyzer {
 	}
 
 	private void printUsageAndExit() {
-		System.out.println(String.format("Usage: %s <run-catalog>", getClass().getSimpleName()));
+		System.out.println(String.format("Usage: %s -r <relocation-dir> [ -o direct|mapped ] <run-catalog>",
+				getClass().getSimpleName()));
+		System.out.println("# -o: load the module graphs into off-heap storage of the given kind.");
 		System.out.println("# The run catalog lists relative paths to the run directories.");
 		System.out.println("# Entries must be in execution sequence, one per line..");
 		System.exit(1);
@@ -81,7 +81,7 @@ public class GraphSummaryPrinter {
 
 		ModuleGraph<?> mainGraph = null;
 
-		ModularTraceDataSource dataSource = new ModularTraceDirectory(directory).loadExistingFiles();
+		ModularTraceDataSource dataSource = ModularTraceDirectory.loadDataSource(directory);
 		ModuleGraphLoadSession loadSession = new ModuleGraphLoadSession(dataSource);
 		for (ApplicationModule module : dataSource.getReprsentedModules()) {
 			ModuleGraph<?> graph = loadSession.loadModuleGraph(module);
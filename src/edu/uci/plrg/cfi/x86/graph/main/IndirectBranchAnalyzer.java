@@ -16,7 +16,6 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.ModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
 import edu.uci.plrg.cfi.x86.graph.data.graph.NodeHashMap;
-import edu.uci.plrg.cfi.x86.graph.data.graph.NodeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.OrdinalEdgeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.loader.ModuleGraphLoadSession;
@@ -49,10 +48,9 @@ public class IndirectBranchAnalyzer {
 		private final SingletonTargets singletonTargets = new SingletonTargets();
 
 		private void countEdges(NodeHashMap<?> nodeMap, ModuleRelocations relocations) {
-			for (Long hash : nodeMap.keySet()) {
-				NodeList<?> nodes = nodeMap.get(hash);
-				for (int i = 0; i < nodes.size(); i++) {
-					Node<?> node = nodes.get(i);
+			NodeHashMap<?>.Cursor cursor = nodeMap.cursor();
+			while (cursor.nextHash()) {
+				for (Node<?> node = cursor.nextNode(); node != null; node = cursor.nextNode()) {
 					if (node.getType() == MetaNodeType.RETURN) {
 						returnCount++;
 					} else {
@@ -176,7 +174,7 @@ public class IndirectBranchAnalyzer {
 					printUsageAndExit();
 				}
 
-				dataSource = new ModularTraceDirectory(directory).loadExistingFiles();
+				dataSource = ModularTraceDirectory.loadDataSource(directory);
 				loadSession = new ModuleGraphLoadSession(dataSource);
 
 				for (ApplicationModule cluster : dataSource.getReprsentedModules()) {
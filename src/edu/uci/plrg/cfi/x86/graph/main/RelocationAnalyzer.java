@@ -20,10 +20,10 @@ import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
 import edu.uci.plrg.cfi.x86.graph.data.graph.ModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.Node;
 import edu.uci.plrg.cfi.x86.graph.data.graph.NodeHashMap;
-import edu.uci.plrg.cfi.x86.graph.data.graph.NodeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.OrdinalEdgeList;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.OffHeapModuleGraph;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.loader.ModuleGraphLoadSession;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleMetadataExecution;
 import edu.uci.plrg.cfi.x86.graph.data.graph.modular.metadata.ModuleMetadataSequence;
@@ -47,40 +47,63 @@ public class RelocationAnalyzer {
 		private long degree10TargetCount = 0;
 
 		private void countEdges(NodeHashMap<?> nodeMap) {
-			for (Long hash : nodeMap.keySet()) {
-				NodeList<?> nodes = nodeMap.get(hash);
-				for (int i = 0; i < nodes.size(); i++) {
-					Node<?> node = nodes.get(i);
+			NodeHashMap<?>.Cursor cursor = nodeMap.cursor();
+			while (cursor.nextHash()) {
+				for (Node<?> node = cursor.nextNode(); node != null; node = cursor.nextNode()) {
 					for (int j = 0; j < node.getOutgoingOrdinalCount(); j++) {
 						if (node.getOrdinalEdgeType(j) == EdgeType.INDIRECT) {
 							OrdinalEdgeList outgoing = node.getOutgoingEdges(j);
 							int count = outgoing.size();
 							outgoing.release();
 
-							indirectBranchCount++;
-							targetCount += count;
-							if (count >= 2) {
-								degree2BranchCount++;
-								degree2TargetCount += count;
-							}
-							if (count >= 3) {
-								degree3BranchCount++;
-								degree3TargetCount += count;
-							}
-							if (count >= 5) {
-								degree5BranchCount++;
-								degree5TargetCount += count;
-							}
-							if (count >= 10) {
-								degree10BranchCount++;
-								degree10TargetCount += count;
-							}
+							countBranch(count);
 						}
 					}
 				}
 			}
 		}
 
+		private void countEdges(OffHeapModuleGraph graph) {
+			for (int nodeId = 0; nodeId < graph.getNodeCount(); nodeId++) {
+				if (graph.isModuleBoundaryNode(nodeId))
+					continue;
+
+				/* the edges of each ordinal are adjacent */
+				int end = graph.getOutgoingEnd(nodeId);
+				for (int i = graph.getOutgoingStart(nodeId); i < end;) {
+					int ordinal = graph.getOrdinal(i);
+					EdgeType type = graph.getEdgeType(i);
+					int count = 0;
+					for (; (i < end) && (graph.getOrdinal(i) == ordinal); i++)
+						count++;
+
+					if (type == EdgeType.INDIRECT)
+						countBranch(count);
+				}
+			}
+		}
+
+		private void countBranch(int count) {
+			indirectBranchCount++;
+			targetCount += count;
+			if (count >= 2) {
+				degree2BranchCount++;
+				degree2TargetCount += count;
+			}
+			if (count >= 3) {
+				degree3BranchCount++;
+				degree3TargetCount += count;
+			}
+			if (count >= 5) {
+				degree5BranchCount++;
+				degree5TargetCount += count;
+			}
+			if (count >= 10) {
+				degree10BranchCount++;
+				degree10TargetCount += count;
+			}
+		}
+
 		private void report() {
 			Log.log("branch-stats: Total edges: " + indirectBranchCount);
 			Log.log("branch-stats: Total targets: " + targetCount);
@@ -99,6 +122,7 @@ public class RelocationAnalyzer {
 
 	private static final OptionArgumentMap.StringOption relocationOption = OptionArgumentMap.createStringOption('r',
 			OptionMode.REQUIRED);
+	private static final OptionArgumentMap.StringOption offHeapOption = OptionArgumentMap.createStringOption('o');
 
 	private final ArgumentStack args;
 	private final CommonMergeOptions options;
@@ -114,7 +138,8 @@ public class RelocationAnalyzer {
 
 	private RelocationAnalyzer(ArgumentStack args) {
 		this.args = args;
-		this.options = new CommonMergeOptions(args, CommonMergeOptions.crowdSafeCommonDir, relocationOption);
+		this.options = new CommonMergeOptions(args, CommonMergeOptions.crowdSafeCommonDir, relocationOption,
+				offHeapOption);
 	}
 
 	private ModuleGraph<?> findGraphForExit(long exitHash, String fromModuleName) {
@@ -153,10 +178,21 @@ public class RelocationAnalyzer {
 			if (!relocationDirectory.exists())
 				throw new IllegalArgumentException("No such directory '" + relocationDirectory.getName() + "'");
 
-			dataSource = new ModularTraceDirectory(directory).loadExistingFiles();
-			loadSession = new ModuleGraphLoadSession(dataSource);
+			/* null to load every module graph onto the heap */
+			OffHeapModuleGraph.Storage offHeapStorage = null;
+			if (offHeapOption.getValue() != null)
+				offHeapStorage = CommonMergeOptions.parseOffHeapStorage(offHeapOption.getValue());
+
+			dataSource = ModularTraceDirectory.loadDataSource(directory);
+			loadSession = new ModuleGraphLoadSession(dataSource, true);
 
 			for (ApplicationModule cluster : dataSource.getReprsentedModules()) {
+				/* only the graphs having metadata are kept for the analysis below */
+				if ((offHeapStorage != null) && !cluster.isAnonymous && !loadSession.hasMetadata(cluster)) {
+					edgeCounter.countEdges(loadSession.loadOffHeapGraph(cluster, offHeapStorage));
+					continue;
+				}
+
 				ModuleGraph<?> graph = loadSession.loadModuleGraph(cluster);
 
 				edgeCounter.countEdges(graph.getGraphData().nodesByHash);
@@ -498,8 +534,9 @@ public class RelocationAnalyzer {
 	}
 
 	private void printUsageAndExit() {
-		System.out.println(String
-				.format("Usage: %s -r <relocation-dir> <cluster-data-dir>", getClass().getSimpleName()));
+		System.out.println(String.format("Usage: %s -r <relocation-dir> [ -o direct|mapped ] <cluster-data-dir>",
+				getClass().getSimpleName()));
+		System.out.println("# -o: count the edges of modules without metadata in off-heap storage of the given kind.");
 		System.exit(1);
 	}
 
@@ -0,0 +1,119 @@
+package edu.uci.plrg.cfi.x86.graph.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.uci.plrg.cfi.common.log.Log;
+
+/**
+ * Rate-limited diagnostics for hot loops that may raise the same error millions of times on a corrupt trace. Each
+ * error class is a <code>Category</code> that counts every occurrence but keeps the arguments of only the first few,
+ * which are formatted when <code>logSummary()</code> is called at the end of the load or transform. Callers on a hot
+ * path should write <code>if (category.count()) category.sample(...)</code>, so that the arguments are only boxed
+ * for the occurrences that are kept.
+ *
+ * Categories may be reported from several threads at once. Sample arguments are held until the summary, so they
+ * should be values or objects that no longer change.
+ */
+public class Diagnostics {
+
+	public static final int DEFAULT_SAMPLE_LIMIT = 10;
+
+	public static class Category {
+		public final String name;
+		public final String format;
+
+		private final int sampleLimit;
+		private final AtomicLong count = new AtomicLong();
+		private final List<Object[]> samples = new ArrayList<Object[]>();
+
+		private Category(String name, String format, int sampleLimit) {
+			this.name = name;
+			this.format = format;
+			this.sampleLimit = sampleLimit;
+		}
+
+		public void report(Object... args) {
+			if (count())
+				sample(args);
+		}
+
+		/**
+		 * Count one occurrence without recording its arguments.
+		 *
+		 * @return true if this occurrence is within the sample limit
+		 */
+		public boolean count() {
+			return count.incrementAndGet() <= sampleLimit;
+		}
+
+		/**
+		 * Record the arguments of an occurrence that was already passed to <code>count()</code>.
+		 */
+		public void sample(Object... args) {
+			synchronized (samples) {
+				samples.add(args);
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+	}
+
+	private final int sampleLimit;
+	private final List<Category> categories = new ArrayList<Category>();
+
+	public Diagnostics() {
+		this(DEFAULT_SAMPLE_LIMIT);
+	}
+
+	public Diagnostics(int sampleLimit) {
+		this.sampleLimit = sampleLimit;
+	}
+
+	/**
+	 * @param format
+	 *            the <code>Log</code> format of one occurrence, applied to the arguments of each sample
+	 */
+	public synchronized Category category(String name, String format) {
+		Category category = new Category(name, format, sampleLimit);
+		categories.add(category);
+		return category;
+	}
+
+	public synchronized long getTotalCount() {
+		long total = 0L;
+		for (Category category : categories)
+			total += category.getCount();
+		return total;
+	}
+
+	/**
+	 * Log the count and samples of each category that occurred, then reset all counts.
+	 */
+	public synchronized void logSummary(String title) {
+		if (getTotalCount() == 0L)
+			return;
+
+		Log.log("%s: %d diagnostics", title, getTotalCount());
+		for (Category category : categories) {
+			long count = category.count.getAndSet(0L);
+			if (count == 0L)
+				continue;
+
+			List<Object[]> samples;
+			synchronized (category.samples) {
+				samples = new ArrayList<Object[]>(category.samples);
+				category.samples.clear();
+			}
+			if (count > samples.size())
+				Log.log("\t%s: %d occurrences (first %d shown)", category.name, count, samples.size());
+			else
+				Log.log("\t%s: %d occurrences", category.name, count);
+			for (Object[] args : samples)
+				Log.log("\t\t" + category.format, args);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package edu.uci.plrg.cfi.x86.graph.util;
+
+/**
+ * Table sizing and slot hashing shared by the open-addressing <code>long</code>-keyed maps, including
+ * <code>NodeHashMap</code>.
+ */
+public class LongHashing {
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	public static int tableSize(int expectedSize) {
+		int capacity = 0x10;
+		while ((capacity < MAX_CAPACITY) && (resizeThreshold(capacity) < expectedSize))
+			capacity <<= 1;
+		return capacity;
+	}
+
+	public static int resizeThreshold(int capacity) {
+		return (capacity >> 1) + (capacity >> 2); // load factor 0.75
+	}
+
+	public static int slot(long key, int mask) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		return ((int) (hash ^ (hash >>> 32))) & mask;
+	}
+}
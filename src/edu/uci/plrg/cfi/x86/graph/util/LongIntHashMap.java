@@ -0,0 +1,132 @@
+package edu.uci.plrg.cfi.x86.graph.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive <code>long</code> keys to <code>int</code> values. Lookups neither box the
+ * key nor allocate, which matters on paths that resolve one or two keys per trace record.
+ */
+public class LongIntHashMap {
+
+	public static final int NOT_FOUND = -1;
+
+	private static final long EMPTY_KEY = 0L;
+
+	private long keys[];
+	private int values[];
+	private int mask;
+	private int resizeThreshold;
+	private int size = 0;
+
+	private boolean hasEmptyKey = false;
+	private int emptyKeyValue;
+
+	public LongIntHashMap() {
+		this(0x10);
+	}
+
+	public LongIntHashMap(int expectedSize) {
+		allocate(LongHashing.tableSize(expectedSize));
+	}
+
+	/**
+	 * @return the value mapped to <code>key</code>, or <code>NOT_FOUND</code>
+	 */
+	public int get(long key) {
+		if (key == EMPTY_KEY)
+			return hasEmptyKey ? emptyKeyValue : NOT_FOUND;
+
+		for (int slot = LongHashing.slot(key, mask);; slot = (slot + 1) & mask) {
+			long probe = keys[slot];
+			if (probe == key)
+				return values[slot];
+			if (probe == EMPTY_KEY)
+				return NOT_FOUND;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		if (key == EMPTY_KEY)
+			return hasEmptyKey;
+
+		for (int slot = LongHashing.slot(key, mask);; slot = (slot + 1) & mask) {
+			long probe = keys[slot];
+			if (probe == key)
+				return true;
+			if (probe == EMPTY_KEY)
+				return false;
+		}
+	}
+
+	public void put(long key, int value) {
+		if (key == EMPTY_KEY) {
+			if (!hasEmptyKey)
+				size++;
+			hasEmptyKey = true;
+			emptyKeyValue = value;
+			return;
+		}
+
+		int slot = LongHashing.slot(key, mask);
+		for (long probe = keys[slot]; probe != EMPTY_KEY; probe = keys[slot]) {
+			if (probe == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeThreshold)
+			rehash(keys.length << 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a copy of the keys present in the map, in no particular order
+	 */
+	public long[] keys() {
+		long present[] = new long[size];
+		int count = 0;
+		if (hasEmptyKey)
+			present[count++] = EMPTY_KEY;
+		for (long key : keys) {
+			if (key != EMPTY_KEY)
+				present[count++] = key;
+		}
+		return present;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY_KEY);
+		hasEmptyKey = false;
+		size = 0;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeThreshold = LongHashing.resizeThreshold(capacity);
+	}
+
+	private void rehash(int capacity) {
+		long oldKeys[] = keys;
+		int oldValues[] = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY_KEY) {
+				int slot = LongHashing.slot(key, mask);
+				while (keys[slot] != EMPTY_KEY)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package edu.uci.plrg.cfi.x86.graph.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive <code>long</code> keys to object values. Null values are not supported:
+ * <code>get()</code> returns null for an absent key.
+ */
+public class LongObjectHashMap<ValueType> {
+
+	private static final long EMPTY_KEY = 0L;
+
+	private long keys[];
+	private Object values[];
+	private int mask;
+	private int resizeThreshold;
+	private int size = 0;
+
+	private ValueType emptyKeyValue = null;
+
+	public LongObjectHashMap() {
+		this(0x10);
+	}
+
+	public LongObjectHashMap(int expectedSize) {
+		allocate(LongHashing.tableSize(expectedSize));
+	}
+
+	@SuppressWarnings("unchecked")
+	public ValueType get(long key) {
+		if (key == EMPTY_KEY)
+			return emptyKeyValue;
+
+		for (int slot = LongHashing.slot(key, mask);; slot = (slot + 1) & mask) {
+			long probe = keys[slot];
+			if (probe == key)
+				return (ValueType) values[slot];
+			if (probe == EMPTY_KEY)
+				return null;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	public void put(long key, ValueType value) {
+		if (value == null)
+			throw new IllegalArgumentException("Null values are not supported!");
+
+		if (key == EMPTY_KEY) {
+			if (emptyKeyValue == null)
+				size++;
+			emptyKeyValue = value;
+			return;
+		}
+
+		int slot = LongHashing.slot(key, mask);
+		for (long probe = keys[slot]; probe != EMPTY_KEY; probe = keys[slot]) {
+			if (probe == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeThreshold)
+			rehash(keys.length << 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a copy of the keys present in the map, in no particular order
+	 */
+	public long[] keys() {
+		long present[] = new long[size];
+		int count = 0;
+		if (emptyKeyValue != null)
+			present[count++] = EMPTY_KEY;
+		for (long key : keys) {
+			if (key != EMPTY_KEY)
+				present[count++] = key;
+		}
+		return present;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY_KEY);
+		Arrays.fill(values, null);
+		emptyKeyValue = null;
+		size = 0;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeThreshold = LongHashing.resizeThreshold(capacity);
+	}
+
+	private void rehash(int capacity) {
+		long oldKeys[] = keys;
+		Object oldValues[] = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY_KEY) {
+				int slot = LongHashing.slot(key, mask);
+				while (keys[slot] != EMPTY_KEY)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
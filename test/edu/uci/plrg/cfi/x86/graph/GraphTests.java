@@ -0,0 +1,71 @@
+package edu.uci.plrg.cfi.x86.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeSetTest;
+import edu.uci.plrg.cfi.x86.graph.data.graph.NodeHashMapTest;
+import edu.uci.plrg.cfi.x86.graph.data.graph.transform.RawEdgeSpillTest;
+import edu.uci.plrg.cfi.x86.graph.data.graph.transform.RawGraphTransformTest;
+import edu.uci.plrg.cfi.x86.graph.io.modular.CompactGraphStreamsTest;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceArchiveTest;
+
+/**
+ * Runs the behavior tests, which need nothing but the project classpath: each test class has a <code>main()</code>
+ * that throws an <code>AssertionError</code> on the first failed check. Run with <code>ant test</code>.
+ */
+public class GraphTests {
+
+	private static File workDirectory = null;
+
+	public static void check(boolean condition, String format, Object... args) {
+		if (!condition)
+			throw new AssertionError(String.format(format, args));
+	}
+
+	/**
+	 * Initialize the module set once per process, with an empty configuration.
+	 */
+	public static synchronized void initializeModules() throws IOException {
+		if (ApplicationModuleSet.getInstance() == null)
+			ApplicationModuleSet.initialize(createDirectory("config"));
+	}
+
+	/**
+	 * @return a new empty directory, which is deleted when the tests exit
+	 */
+	public static synchronized File createDirectory(String name) throws IOException {
+		if (workDirectory == null) {
+			workDirectory = Files.createTempDirectory("cfi-graph-tests").toFile();
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					delete(workDirectory);
+				}
+			});
+		}
+		return Files.createTempDirectory(workDirectory.toPath(), name).toFile();
+	}
+
+	private static void delete(File file) {
+		File children[] = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	public static void main(String[] args) throws Exception {
+		String noArgs[] = new String[0];
+		NodeHashMapTest.main(noArgs);
+		EdgeSetTest.main(noArgs);
+		CompactGraphStreamsTest.main(noArgs);
+		ModularTraceArchiveTest.main(noArgs);
+		RawEdgeSpillTest.main(noArgs);
+		RawGraphTransformTest.main(noArgs);
+		System.out.println("All tests passed.");
+	}
+}
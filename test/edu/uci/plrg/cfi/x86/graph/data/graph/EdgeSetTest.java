@@ -0,0 +1,133 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph;
+
+import static edu.uci.plrg.cfi.x86.graph.GraphTests.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.uci.plrg.cfi.x86.graph.GraphTests;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBasicBlock;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+
+/**
+ * Checks that an <code>EdgeSet</code> returns the same edges, in ordinal and insertion order, whether it is read while
+ * buffered, after <code>freeze()</code>, or after an edge is added to a frozen set.
+ */
+public class EdgeSetTest {
+
+	private static final int NODE_COUNT = 300;
+	private static final int ORDINAL_COUNT = 6;
+
+	private static class ExpectedEdges {
+		final List<List<Edge<ModuleNode<?>>>> outgoing = new ArrayList<List<Edge<ModuleNode<?>>>>();
+		final List<Edge<ModuleNode<?>>> incoming = new ArrayList<Edge<ModuleNode<?>>>();
+
+		void addOutgoing(Edge<ModuleNode<?>> edge) {
+			while (outgoing.size() <= edge.getOrdinal())
+				outgoing.add(new ArrayList<Edge<ModuleNode<?>>>());
+			outgoing.get(edge.getOrdinal()).add(edge);
+		}
+
+		List<Edge<ModuleNode<?>>> getOutgoing() {
+			List<Edge<ModuleNode<?>>> edges = new ArrayList<Edge<ModuleNode<?>>>();
+			for (List<Edge<ModuleNode<?>>> ordinalEdges : outgoing)
+				edges.addAll(ordinalEdges);
+			return edges;
+		}
+
+		List<Edge<ModuleNode<?>>> getOutgoing(int ordinal) {
+			return (ordinal < outgoing.size()) ? outgoing.get(ordinal) : new ArrayList<Edge<ModuleNode<?>>>();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		GraphTests.initializeModules();
+		testFreezeAndThaw();
+		System.out.println("EdgeSetTest passed");
+	}
+
+	private static void testFreezeAndThaw() {
+		ApplicationModule module = ApplicationModuleSet.getInstance().establishModuleByFileSystemName("edges.dll");
+		List<ModuleNode<?>> nodes = new ArrayList<ModuleNode<?>>();
+		for (int i = 0; i < NODE_COUNT; i++)
+			nodes.add(new ModuleBasicBlock(module, i, 0, i + 1, MetaNodeType.NORMAL));
+		ModuleNode<?> self = nodes.get(0);
+
+		Random random = new Random(5L);
+		for (int round = 0; round < 20; round++) {
+			EdgeSet<ModuleNode<?>> edgeSet = new EdgeSet<ModuleNode<?>>();
+			ExpectedEdges expected = new ExpectedEdges();
+			boolean isFrozen = false;
+			for (int i = 0; i < 2000; i++) {
+				switch (random.nextInt(10)) {
+					case 0:
+					case 1:
+					case 2:
+					case 3:
+					case 4:
+						int ordinal = random.nextInt(ORDINAL_COUNT);
+						Edge<ModuleNode<?>> outgoing = new Edge<ModuleNode<?>>(self, nodes.get(random
+								.nextInt(NODE_COUNT)), EdgeType.values()[ordinal % 3], ordinal);
+						edgeSet.addEdge(EdgeSet.Direction.OUTGOING, outgoing);
+						expected.addOutgoing(outgoing);
+						isFrozen = false;
+						break;
+					case 5:
+					case 6:
+						Edge<ModuleNode<?>> incoming = new Edge<ModuleNode<?>>(nodes.get(random.nextInt(NODE_COUNT)),
+								self, EdgeType.DIRECT, 0);
+						edgeSet.addEdge(EdgeSet.Direction.INCOMING, incoming);
+						expected.incoming.add(incoming);
+						break;
+					case 7:
+						checkEdges(expected.getOutgoing(), edgeSet.getEdges(EdgeSet.Direction.OUTGOING), isFrozen,
+								"all outgoing");
+						break;
+					case 8:
+						int readOrdinal = random.nextInt(ORDINAL_COUNT + 1);
+						checkEdges(expected.getOutgoing(readOrdinal), edgeSet.getEdges(EdgeSet.Direction.OUTGOING,
+								readOrdinal), isFrozen, "outgoing ordinal " + readOrdinal);
+						break;
+					default:
+						checkEdges(expected.incoming, edgeSet.getEdges(EdgeSet.Direction.INCOMING), isFrozen,
+								"incoming");
+						if (random.nextBoolean()) {
+							edgeSet.freeze();
+							isFrozen = true;
+						}
+				}
+
+				int outgoingCount = expected.getOutgoing().size();
+				check(edgeSet.getEdgeCount(EdgeSet.Direction.OUTGOING) == outgoingCount,
+						"%d outgoing edges instead of %d", edgeSet.getEdgeCount(EdgeSet.Direction.OUTGOING),
+						outgoingCount);
+				check(edgeSet.getEdgeCount(EdgeSet.Direction.INCOMING) == expected.incoming.size(),
+						"%d incoming edges instead of %d", edgeSet.getEdgeCount(EdgeSet.Direction.INCOMING),
+						expected.incoming.size());
+			}
+		}
+	}
+
+	private static void checkEdges(List<Edge<ModuleNode<?>>> expected, OrdinalEdgeList<ModuleNode<?>> edges,
+			boolean isFrozen, String description) {
+		String state = isFrozen ? "frozen" : "buffered";
+		try {
+			List<Edge<ModuleNode<?>>> iterated = new ArrayList<Edge<ModuleNode<?>>>();
+			for (Edge<ModuleNode<?>> edge : edges)
+				iterated.add(edge);
+			check(iterated.size() == expected.size(), "%s %s: %d edges instead of %d", state, description,
+					iterated.size(), expected.size());
+			check(edges.size() == expected.size(), "%s %s: size() is %d instead of %d", state, description,
+					edges.size(), expected.size());
+			for (int i = 0; i < expected.size(); i++)
+				check(iterated.get(i) == expected.get(i), "%s %s: iterated out of order at %d", state, description, i);
+			for (int i = expected.size() - 1; i >= 0; i--)
+				check(edges.get(i) == expected.get(i), "%s %s: get(%d) differs", state, description, i);
+		} finally {
+			edges.release();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph;
+
+import static edu.uci.plrg.cfi.x86.graph.GraphTests.check;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.uci.plrg.cfi.x86.graph.GraphTests;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBasicBlock;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleNode;
+
+/**
+ * Checks the overflow chains of <code>NodeHashMap</code> against a map of lists, while the groups of many hashes are
+ * interleaved and the table grows underneath them.
+ */
+public class NodeHashMapTest {
+
+	public static void main(String[] args) throws Exception {
+		GraphTests.initializeModules();
+		testOverflowChains();
+		testLargeGroup();
+		System.out.println("NodeHashMapTest passed");
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void testOverflowChains() {
+		Random random = new Random(7L);
+		NodeHashMap<ModuleNode<?>> map = new NodeHashMap<ModuleNode<?>>();
+		Map<Long, List<ModuleNode<?>>> expected = new HashMap<Long, List<ModuleNode<?>>>();
+		int nodeCount = 0;
+		for (int i = 0; i < 50000; i++) {
+			/* mostly a small range of hashes, so that most groups have a chain */
+			long hash = (random.nextInt(3) == 0) ? random.nextLong() : (random.nextInt(8000) - 100);
+			ModuleNode<?> node = new ModuleBasicBlock(ApplicationModule.ANONYMOUS_MODULE, random.nextInt(40000), 0,
+					hash, MetaNodeType.NORMAL);
+			map.add(node);
+
+			List<ModuleNode<?>> group = expected.get(hash);
+			if (group == null) {
+				group = new ArrayList<ModuleNode<?>>();
+				expected.put(hash, group);
+			}
+			if (group.isEmpty() || !group.get(0).equals(node)) {
+				group.add(node);
+				nodeCount++;
+			}
+		}
+
+		check(map.getHashCount() == expected.size(), "%d hashes instead of %d", map.getHashCount(), expected.size());
+		check(map.getNodeCount() == nodeCount, "%d nodes instead of %d", map.getNodeCount(), nodeCount);
+		check(map.keySet().equals(expected.keySet()), "the key set differs");
+		for (Map.Entry<Long, List<ModuleNode<?>>> group : expected.entrySet()) {
+			NodeList<ModuleNode<?>> nodes = map.get(group.getKey());
+			check(nodes.size() == group.getValue().size(), "group 0x%x has %d nodes instead of %d", group.getKey(),
+					nodes.size(), group.getValue().size());
+			check(nodes.isSingleton() == (nodes.size() == 1), "group 0x%x is singleton: %b", group.getKey(),
+					nodes.isSingleton());
+			for (int i = 0; i < nodes.size(); i++)
+				check(nodes.get(i) == group.getValue().get(i), "group 0x%x is out of order at %d", group.getKey(), i);
+			for (int i = nodes.size() - 1; i >= 0; i--)
+				check(nodes.get(i) == group.getValue().get(i), "group 0x%x differs in reverse at %d", group.getKey(),
+						i);
+		}
+		check(map.get(123456789123L).size() == 0, "a missing hash has nodes");
+
+		int hashCount = 0, cursorNodeCount = 0;
+		NodeHashMap<ModuleNode<?>>.Cursor cursor = map.cursor();
+		while (cursor.nextHash()) {
+			hashCount++;
+			List<ModuleNode<?>> group = expected.get(cursor.getHash());
+			int i = 0;
+			for (ModuleNode<?> node = cursor.nextNode(); node != null; node = cursor.nextNode()) {
+				check(node == group.get(i++), "cursor is out of order in group 0x%x", cursor.getHash());
+				cursorNodeCount++;
+			}
+			check(i == cursor.getNodeCount(), "cursor counts %d nodes in group 0x%x but visits %d",
+					cursor.getNodeCount(), cursor.getHash(), i);
+		}
+		check(hashCount == expected.size(), "cursor visits %d hashes instead of %d", hashCount, expected.size());
+		check(cursorNodeCount == nodeCount, "cursor visits %d nodes instead of %d", cursorNodeCount, nodeCount);
+	}
+
+	private static void testLargeGroup() {
+		NodeHashMap<ModuleNode<?>> map = new NodeHashMap<ModuleNode<?>>();
+		for (int i = 0; i < 200000; i++)
+			map.add(new ModuleBasicBlock(ApplicationModule.ANONYMOUS_MODULE, i, 0, 42L, MetaNodeType.NORMAL));
+		map.add(new ModuleBasicBlock(ApplicationModule.ANONYMOUS_MODULE, 0, 0, 42L, MetaNodeType.NORMAL));
+
+		check(map.getHashCount() == 1, "%d hashes in a single group", map.getHashCount());
+		check(map.getNodeCount() == 200000, "%d nodes in the large group", map.getNodeCount());
+		NodeList<ModuleNode<?>> nodes = map.get(42L);
+		for (int i = 0; i < nodes.size(); i += 997)
+			check(nodes.get(i).getRelativeTag() == i, "node %d of the large group is out of order", i);
+	}
+}
@@ -0,0 +1,91 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import static edu.uci.plrg.cfi.x86.graph.GraphTests.check;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import edu.uci.plrg.cfi.x86.graph.GraphTests;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceEncoding;
+
+/**
+ * Checks that spilled edges merge to the same distinct, ordered edges as an in-memory set, both directly with enough
+ * runs to need several merge passes, and through a whole transform compared to one without an edge memory budget.
+ */
+public class RawEdgeSpillTest {
+
+	public static void main(String[] args) throws Exception {
+		GraphTests.initializeModules();
+		testMultiPassMerge();
+		testTransformEquivalence();
+		System.out.println("RawEdgeSpillTest passed");
+	}
+
+	private static void testMultiPassMerge() throws Exception {
+		ApplicationModuleSet modules = ApplicationModuleSet.getInstance();
+		ApplicationModule first = modules.establishModuleByFileSystemName("spill-first.dll");
+		ApplicationModule second = modules.establishModuleByFileSystemName("spill-second.dll");
+
+		/* the smallest budget, so that there are several hundred runs */
+		RawEdgeSpill spill = new RawEdgeSpill(1L);
+		TreeSet<Long> firstEdges = new TreeSet<Long>(), secondEdges = new TreeSet<Long>();
+		Random random = new Random(3L);
+		try {
+			for (int i = 0; i < 400000; i++) {
+				long orderKey = random.nextInt(100000);
+				if (random.nextInt(5) == 0) {
+					spill.addEdge(second, orderKey);
+					secondEdges.add(orderKey);
+				} else {
+					spill.addEdge(first, orderKey);
+					firstEdges.add(orderKey);
+				}
+			}
+			checkMerge(spill, first, firstEdges);
+			checkMerge(spill, second, secondEdges);
+		} finally {
+			spill.dispose();
+		}
+	}
+
+	private static void checkMerge(RawEdgeSpill spill, final ApplicationModule module, TreeSet<Long> expected)
+			throws Exception {
+		final Iterator<Long> expectedEdges = expected.iterator();
+		int count = spill.merge(module, new RawEdgeSpill.EdgeVisitor() {
+			int index = 0;
+
+			@Override
+			public void visitEdge(long orderKey, int edgeIndex) {
+				check(edgeIndex == index++, "edge %d of %s has index %d", index - 1, module.name, edgeIndex);
+				check(expectedEdges.hasNext(), "%s has extra edge 0x%x", module.name, orderKey);
+				long expectedKey = expectedEdges.next();
+				check(orderKey == expectedKey, "edge %d of %s is 0x%x instead of 0x%x", edgeIndex, module.name,
+						orderKey, expectedKey);
+			}
+		});
+		check(count == expected.size(), "%s merged %d distinct edges instead of %d", module.name, count,
+				expected.size());
+		check(!expectedEdges.hasNext(), "%s is missing edges", module.name);
+	}
+
+	private static void testTransformEquivalence() throws Exception {
+		File directory = GraphTests.createDirectory("spill-transform");
+		File runDir = new RawTraceFixture(7L, 100000).writeRun(new File(directory, "run"), true);
+		File inMemoryDir = new File(directory, "in-memory"), spilledDir = new File(directory, "spilled");
+		RawTraceFixture.transform(runDir, inMemoryDir, 0L, 2, false, ModularTraceEncoding.RAW, false);
+		RawTraceFixture.transform(runDir, spilledDir, 1L, 2, false, ModularTraceEncoding.RAW, false);
+
+		for (String moduleId : new String[] { "a.dll", "b.dll" }) {
+			Set<String> inMemory = RawTraceFixture.readGraph(inMemoryDir, moduleId);
+			Set<String> spilled = RawTraceFixture.readGraph(spilledDir, moduleId);
+			check(!inMemory.isEmpty(), "module %s is empty", moduleId);
+			check(inMemory.equals(spilled), "module %s has %d elements in memory but %d when spilled", moduleId,
+					inMemory.size(), spilled.size());
+		}
+	}
+}
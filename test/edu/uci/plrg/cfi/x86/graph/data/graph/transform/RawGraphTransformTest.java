@@ -0,0 +1,206 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import static edu.uci.plrg.cfi.x86.graph.GraphTests.check;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.io.ByteStreams;
+
+import edu.uci.plrg.cfi.x86.graph.GraphTests;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.io.modular.CompactGraphStreams;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceArchive;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDataSource;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceDirectory;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceEncoding;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceStreamType;
+
+/**
+ * End-to-end transforms of synthetic traces, each compared to a plain single-run transform of the same trace: runs
+ * transformed concurrently with several writer threads (<code>-j</code> and <code>-w</code>), an append-mode transform
+ * resumed from its checkpoint, and the compact and archive outputs.
+ */
+public class RawGraphTransformTest {
+
+	private static final String MODULE_IDS[] = { "a.dll", "b.dll" };
+	private static final int RUN_COUNT = 4;
+
+	public static void main(String[] args) throws Exception {
+		GraphTests.initializeModules();
+		testConcurrentRuns();
+		testCheckpointRoundTrip();
+		testCompactOutput();
+		testArchiveOutput();
+		System.out.println("RawGraphTransformTest passed");
+	}
+
+	private static void testConcurrentRuns() throws Exception {
+		File directory = GraphTests.createDirectory("concurrent");
+		final File runDirs[] = new File[RUN_COUNT];
+		File sequentialDirs[] = new File[RUN_COUNT];
+		final File concurrentDirs[] = new File[RUN_COUNT];
+		for (int i = 0; i < RUN_COUNT; i++) {
+			runDirs[i] = new RawTraceFixture(100L + i, 4000).writeRun(new File(directory, "run-" + i), true);
+			sequentialDirs[i] = new File(directory, "sequential-" + i);
+			concurrentDirs[i] = new File(directory, "concurrent-" + i);
+			RawTraceFixture.transform(runDirs[i], sequentialDirs[i], 0L, 1, false, ModularTraceEncoding.RAW, false);
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(RUN_COUNT);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int i = 0; i < RUN_COUNT; i++) {
+				final int runIndex = i;
+				results.add(workers.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						RawTraceFixture.transform(runDirs[runIndex], concurrentDirs[runIndex], 0L, 3, false,
+								ModularTraceEncoding.RAW, false);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results)
+				result.get();
+		} finally {
+			workers.shutdown();
+		}
+
+		for (int i = 0; i < RUN_COUNT; i++) {
+			int fileCount = 0;
+			for (File file : sequentialDirs[i].listFiles()) {
+				if (!file.getName().endsWith(".dat"))
+					continue;
+				long expected[] = readComparableWords(file);
+				long words[] = readComparableWords(new File(concurrentDirs[i], file.getName()));
+				check(Arrays.equals(expected, words), "run %d: %s differs when transformed concurrently", i,
+						file.getName());
+				fileCount++;
+			}
+			check(fileCount > 0, "run %d has no output", i);
+		}
+	}
+
+	private static void testCheckpointRoundTrip() throws Exception {
+		File directory = GraphTests.createDirectory("checkpoint");
+		RawTraceFixture fixture = new RawTraceFixture(7L, 400);
+		File runDir = new File(directory, "run");
+		File appendedDir = new File(directory, "appended"), fullDir = new File(directory, "full");
+
+		fixture.writeRun(runDir, false);
+		RawTraceFixture.transform(runDir, appendedDir, 0L, 2, true, ModularTraceEncoding.RAW, false);
+		fixture.writeRun(runDir, true);
+		RawTraceFixture.transform(runDir, appendedDir, 0L, 2, true, ModularTraceEncoding.RAW, false);
+		/* resuming with nothing new to transform must not change the output */
+		RawTraceFixture.transform(runDir, appendedDir, 0L, 2, true, ModularTraceEncoding.RAW, false);
+		RawTraceFixture.transform(runDir, fullDir, 0L, 2, false, ModularTraceEncoding.RAW, false);
+
+		for (String moduleId : MODULE_IDS) {
+			Set<String> full = RawTraceFixture.readGraph(fullDir, moduleId);
+			Set<String> appended = RawTraceFixture.readGraph(appendedDir, moduleId);
+			check(full.equals(appended), "module %s has %d elements after a full transform but %d when appended",
+					moduleId, full.size(), appended.size());
+
+			String metadataFilename = "proc." + moduleId + ".meta.dat";
+			long fullMetadata[] = RawTraceFixture.readWords(new File(fullDir, metadataFilename));
+			long appendedMetadata[] = RawTraceFixture.readWords(new File(appendedDir, metadataFilename));
+			check(fullMetadata.length == appendedMetadata.length, "%s has %d words after a full transform but %d "
+					+ "when appended", metadataFilename, fullMetadata.length, appendedMetadata.length);
+			check(getTraversalCount(fullMetadata) == getTraversalCount(appendedMetadata),
+					"%s counts %d traversals after a full transform but %d when appended", metadataFilename,
+					getTraversalCount(fullMetadata), getTraversalCount(appendedMetadata));
+		}
+	}
+
+	private static void testCompactOutput() throws Exception {
+		File directory = GraphTests.createDirectory("compact");
+		File runDir = new RawTraceFixture(9L, 4000).writeRun(new File(directory, "run"), true);
+		File rawDir = new File(directory, "raw"), compactDir = new File(directory, "compact");
+		RawTraceFixture.transform(runDir, rawDir, 0L, 2, false, ModularTraceEncoding.RAW, false);
+		RawTraceFixture.transform(runDir, compactDir, 0L, 2, false, ModularTraceEncoding.COMPACT, false);
+
+		for (String moduleId : MODULE_IDS) {
+			String prefix = "proc." + moduleId + ".";
+			long nodeWords[] = RawTraceFixture.readWords(new File(rawDir, prefix + "graph-node.dat"));
+			CompactGraphStreams.NodeDecoder nodes = new CompactGraphStreams.NodeDecoder(new FileInputStream(
+					new File(compactDir, prefix + "graph-node.cdat")));
+			int i = 0;
+			while (nodes.ready()) {
+				nodes.readNode();
+				long word = (nodes.relativeTag << 0x10) | ((long) nodes.instanceId << 0x30)
+						| ((long) nodes.typeOrdinal << 0x38);
+				check((i < nodeWords.length) && (word == nodeWords[i]) && (nodes.hash == nodeWords[i + 1]),
+						"compact node %d of %s differs", i / 2, moduleId);
+				i += 2;
+			}
+			nodes.close();
+			check(i == nodeWords.length, "%s has %d compact nodes instead of %d", moduleId, i / 2,
+					nodeWords.length / 2);
+
+			Set<Long> rawEdges = new HashSet<Long>(), compactEdges = new HashSet<Long>();
+			for (long edgeWord : RawTraceFixture.readWords(new File(rawDir, prefix + "graph-edge.dat")))
+				rawEdges.add(edgeWord);
+			CompactGraphStreams.EdgeDecoder edges = new CompactGraphStreams.EdgeDecoder(new FileInputStream(
+					new File(compactDir, prefix + "graph-edge.cdat")));
+			while (edges.ready())
+				compactEdges.add(edges.readEdge());
+			edges.close();
+			check(rawEdges.equals(compactEdges), "the compact edges of %s differ", moduleId);
+		}
+	}
+
+	private static void testArchiveOutput() throws Exception {
+		File directory = GraphTests.createDirectory("archive-output");
+		File runDir = new RawTraceFixture(11L, 4000).writeRun(new File(directory, "run"), true);
+		File rawDir = new File(directory, "raw"), archiveDir = new File(directory, "archive");
+		RawTraceFixture.transform(runDir, rawDir, 0L, 2, false, ModularTraceEncoding.RAW, false);
+		RawTraceFixture.transform(runDir, archiveDir, 0L, 2, false, ModularTraceEncoding.RAW, true);
+
+		ModularTraceDataSource archive = ModularTraceDirectory.loadDataSource(archiveDir);
+		check(archive instanceof ModularTraceArchive, "the output was not opened as an archive: %s", archive);
+		int streamCount = 0;
+		for (ApplicationModule module : archive.getReprsentedModules()) {
+			for (ModularTraceStreamType streamType : new ModularTraceStreamType[] {
+					ModularTraceStreamType.GRAPH_NODE, ModularTraceStreamType.GRAPH_EDGE }) {
+				InputStream input = archive.getDataInputStream(module, streamType);
+				byte data[] = ByteStreams.toByteArray(input);
+				input.close();
+				byte expected[] = Files.readAllBytes(new File(rawDir, "proc." + module.id + "." + streamType.id
+						+ ".dat").toPath());
+				check(Arrays.equals(data, expected), "the archived %s stream of %s differs", streamType,
+						module.name);
+				streamCount++;
+			}
+		}
+		check(streamCount >= (MODULE_IDS.length * 2), "only %d streams were archived", streamCount);
+	}
+
+	/**
+	 * @return the words of an output file, without the timestamp of a metadata file
+	 */
+	private static long[] readComparableWords(File file) throws Exception {
+		long words[] = RawTraceFixture.readWords(file);
+		if (file.getName().endsWith(".meta.dat") && (words.length > 5))
+			words[4] = words[5] = 0L;
+		return words;
+	}
+
+	private static long getTraversalCount(long metadata[]) {
+		long count = 0L;
+		for (int i = 6; i < metadata.length; i++)
+			count += metadata[i] >>> 0x20;
+		return count;
+	}
+}
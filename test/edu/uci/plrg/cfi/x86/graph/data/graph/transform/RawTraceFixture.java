@@ -0,0 +1,137 @@
+package edu.uci.plrg.cfi.x86.graph.data.graph.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.MetaNodeType;
+import edu.uci.plrg.cfi.x86.graph.io.modular.AsyncFileWriter;
+import edu.uci.plrg.cfi.x86.graph.io.modular.ModularTraceEncoding;
+
+/**
+ * Synthetic execution trace of two modules (a.dll and b.dll), with intra-module edges, cross-module edges and UIB
+ * metadata, which can be written in full or in part to simulate a trace that is still being recorded.
+ */
+class RawTraceFixture {
+
+	private static final String MODULE_LOG = "(0,0,0,0) Loaded module a.dll: 0x10000 - 0x20000\n"
+			+ "(0,0,0,0) Loaded module b.dll: 0x30000 - 0x40000\n";
+
+	private final List<long[]> nodes = new ArrayList<long[]>();
+	private final List<long[]> edges = new ArrayList<long[]>();
+	private final List<long[]> crossModuleEdges = new ArrayList<long[]>();
+	private final List<long[]> metadata = new ArrayList<long[]>();
+
+	RawTraceFixture(long seed, int edgeCount) {
+		Random random = new Random(seed);
+		for (int i = 0; i < 60; i++)
+			nodes.add(new long[] { (0x10000L + i * 0x10) | ((long) MetaNodeType.NORMAL.ordinal() << 0x30), 1000 + i });
+		for (int i = 0; i < 30; i++)
+			nodes.add(new long[] { (0x30000L + i * 0x10) | ((long) MetaNodeType.NORMAL.ordinal() << 0x30), 2000 + i });
+		Collections.shuffle(nodes, random);
+
+		/* the first half of each stream only refers to the first half of the nodes */
+		for (int i = 0; i < edgeCount; i++) {
+			List<long[]> pool = nodes.subList(0, (i < (edgeCount / 2)) ? nodes.size() / 2 : nodes.size());
+			long fromTag = pool.get(random.nextInt(pool.size()))[0] & 0xffffffffL;
+			List<long[]> sameModule = new ArrayList<long[]>();
+			for (long node[] : pool) {
+				if (((node[0] & 0xffffffffL) >= 0x30000L) == (fromTag >= 0x30000L))
+					sameModule.add(node);
+			}
+			long toTag = sameModule.get(random.nextInt(sameModule.size()))[0] & 0xffffffffL;
+			EdgeType type = random.nextBoolean() ? EdgeType.DIRECT : EdgeType.INDIRECT;
+			edges.add(new long[] { fromTag | ((long) type.ordinal() << 0x30) | ((long) random.nextInt(2) << 0x28),
+					toTag });
+		}
+		int crossModuleEdgeCount = edgeCount / 5;
+		for (int i = 0; i < crossModuleEdgeCount; i++) {
+			List<long[]> pool = nodes.subList(0, (i < (crossModuleEdgeCount / 2)) ? nodes.size() / 2 : nodes.size());
+			List<long[]> fromNodes = new ArrayList<long[]>(), toNodes = new ArrayList<long[]>();
+			for (long node[] : pool)
+				(((node[0] & 0xffffffffL) >= 0x30000L) ? toNodes : fromNodes).add(node);
+			long fromTag = fromNodes.get(random.nextInt(fromNodes.size()))[0] & 0xffffffffL;
+			long toTag = toNodes.get(random.nextInt(toNodes.size()))[0] & 0xffffffffL;
+			crossModuleEdges.add(new long[] { fromTag | ((long) EdgeType.INDIRECT.ordinal() << 0x30), toTag,
+					5000 + random.nextInt(10) });
+		}
+
+		metadata.add(new long[] { 0x10000L });
+		for (int i = 0; i < edgeCount; i += 7) // UIBs on intra-module edges, with a traversal count of 3
+			metadata.add(new long[] { 1L | (((long) i) << 8) | (3L << 0x20) });
+	}
+
+	/**
+	 * Write the whole trace, or only its first half, into a new run directory.
+	 */
+	File writeRun(File runDir, boolean isComplete) throws IOException {
+		runDir.mkdirs();
+		Files.write(new File(runDir, "proc.module.run-1.log").toPath(), MODULE_LOG.getBytes());
+		int divisor = isComplete ? 1 : 2;
+		writeRecords(new File(runDir, "proc.graph-node.run-1.dat"), nodes, divisor);
+		writeRecords(new File(runDir, "proc.graph-edge.run-1.dat"), edges, divisor);
+		writeRecords(new File(runDir, "proc.cross-module.run-1.dat"), crossModuleEdges, divisor);
+		int metadataCount = isComplete ? metadata.size() : 1 + ((metadata.size() - 1) / 2);
+		writeRecords(new File(runDir, "proc.meta.run-1.dat"), metadata.subList(0, metadataCount), 1);
+		return runDir;
+	}
+
+	static void transform(File runDir, File outputDir, long edgeMemoryBudget, int emissionThreadCount,
+			boolean appendMode, ModularTraceEncoding encoding, boolean archiveOutput) throws IOException {
+		outputDir.mkdirs();
+		new RawGraphTransformSession(runDir, outputDir, edgeMemoryBudget, emissionThreadCount, appendMode, encoding,
+				archiveOutput, AsyncFileWriter.SyncPolicy.NONE).transform();
+	}
+
+	/**
+	 * @return the nodes and edges of one module's raw output, identified by content rather than by position
+	 */
+	static Set<String> readGraph(File outputDir, String moduleId) throws IOException {
+		long nodeWords[] = readWords(new File(outputDir, "proc." + moduleId + ".graph-node.dat"));
+		long edgeWords[] = readWords(new File(outputDir, "proc." + moduleId + ".graph-edge.dat"));
+		List<String> nodeIds = new ArrayList<String>();
+		Set<String> graph = new HashSet<String>();
+		for (int i = 0; i < nodeWords.length; i += 2) {
+			String nodeId = Long.toHexString(nodeWords[i]) + "/" + nodeWords[i + 1];
+			nodeIds.add(nodeId);
+			if (!graph.add("N " + nodeId))
+				throw new AssertionError("Duplicate node " + nodeId + " in module " + moduleId);
+		}
+		for (long edgeWord : edgeWords) {
+			int fromIndex = (int) (edgeWord & 0xfffffffL), toIndex = (int) ((edgeWord >>> 0x1c) & 0xfffffffL);
+			String edge = "E " + nodeIds.get(fromIndex) + " " + nodeIds.get(toIndex) + " " + (edgeWord >>> 0x38);
+			if (!graph.add(edge))
+				throw new AssertionError("Duplicate edge " + edge + " in module " + moduleId);
+		}
+		return graph;
+	}
+
+	static long[] readWords(File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		long words[] = new long[buffer.remaining() / 8];
+		for (int i = 0; i < words.length; i++)
+			words[i] = buffer.getLong();
+		return words;
+	}
+
+	private static void writeRecords(File file, List<long[]> records, int divisor) throws IOException {
+		int count = records.size() / divisor;
+		ByteBuffer buffer = ByteBuffer.allocate((count * records.get(0).length * 8) + 5).order(
+				ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < count; i++) {
+			for (long word : records.get(i))
+				buffer.putLong(word);
+		}
+		buffer.put(new byte[5]); // partial trailing record from a writer that is still in progress
+		Files.write(file.toPath(), buffer.array());
+	}
+}
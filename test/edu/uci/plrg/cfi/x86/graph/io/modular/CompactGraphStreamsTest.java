@@ -0,0 +1,106 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+import static edu.uci.plrg.cfi.x86.graph.GraphTests.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import edu.uci.plrg.cfi.x86.graph.data.graph.EdgeType;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.writer.ModuleDataWriter;
+
+/**
+ * Round-trips random node and edge records through the compact encoding, including repeated hashes, tags that move
+ * backwards, the extremes of each field, and edges that are not in order of their 'from' node.
+ */
+public class CompactGraphStreamsTest {
+
+	private static final int RECORD_COUNT = 100000;
+
+	public static void main(String[] args) throws Exception {
+		testNodes();
+		testEdges();
+		System.out.println("CompactGraphStreamsTest passed");
+	}
+
+	private static void testNodes() throws Exception {
+		Random random = new Random(11L);
+		int tags[] = new int[RECORD_COUNT];
+		int instanceIds[] = new int[RECORD_COUNT];
+		int typeOrdinals[] = new int[RECORD_COUNT];
+		long hashes[] = new long[RECORD_COUNT];
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			switch (i % 4) {
+				case 0:
+					tags[i] = (i == 0) ? 0 : tags[i - 1] + random.nextInt(0x40);
+					break;
+				case 1:
+					tags[i] = random.nextInt();
+					break;
+				case 2:
+					tags[i] = (random.nextBoolean() ? 0 : -1);
+					break;
+				default:
+					tags[i] = tags[i - 1] - random.nextInt(0x1000);
+			}
+			instanceIds[i] = random.nextInt(0x100);
+			typeOrdinals[i] = random.nextInt(8);
+			hashes[i] = ((i > 0) && random.nextBoolean()) ? hashes[random.nextInt(i)] : random.nextLong();
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CompactGraphStreams.NodeEncoder encoder = new CompactGraphStreams.NodeEncoder(buffer);
+		for (int i = 0; i < RECORD_COUNT; i++)
+			encoder.writeNode(tags[i], instanceIds[i], typeOrdinals[i], hashes[i]);
+		encoder.close();
+
+		CompactGraphStreams.NodeDecoder decoder = new CompactGraphStreams.NodeDecoder(new ByteArrayInputStream(
+				buffer.toByteArray()));
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			check(decoder.ready(), "the node stream ends after %d of %d nodes", i, RECORD_COUNT);
+			decoder.readNode();
+			check(decoder.relativeTag == (tags[i] & 0xffffffffL), "node %d has tag 0x%x instead of 0x%x", i,
+					decoder.relativeTag, tags[i] & 0xffffffffL);
+			check(decoder.instanceId == instanceIds[i], "node %d has instance %d instead of %d", i,
+					decoder.instanceId, instanceIds[i]);
+			check(decoder.typeOrdinal == typeOrdinals[i], "node %d has type %d instead of %d", i,
+					decoder.typeOrdinal, typeOrdinals[i]);
+			check(decoder.hash == hashes[i], "node %d has hash 0x%x instead of 0x%x", i, decoder.hash, hashes[i]);
+		}
+		check(!decoder.ready(), "the node stream has extra records");
+		decoder.close();
+	}
+
+	private static void testEdges() throws Exception {
+		Random random = new Random(13L);
+		long edges[] = new long[RECORD_COUNT];
+		int fromIndex = 0;
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			if ((i % 10) == 0)
+				fromIndex = random.nextInt(0x10000000);
+			else
+				fromIndex = Math.max(0, Math.min(0xfffffff, fromIndex + random.nextInt(0x20) - 4));
+			int toIndex = ((i % 7) == 0) ? random.nextInt(0x10000000) : Math.max(0, fromIndex - random.nextInt(0x10));
+			EdgeType type = EdgeType.values()[random.nextInt(EdgeType.values().length)];
+			edges[i] = ModuleDataWriter.packEdge(fromIndex, toIndex, type, random.nextInt(0x10));
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CompactGraphStreams.EdgeEncoder encoder = new CompactGraphStreams.EdgeEncoder(buffer);
+		for (long edge : edges)
+			encoder.writeEdge(edge);
+		encoder.close();
+		check(buffer.size() < (RECORD_COUNT * 8), "compact edges take %d bytes, more than the raw encoding",
+				buffer.size());
+
+		CompactGraphStreams.EdgeDecoder decoder = new CompactGraphStreams.EdgeDecoder(new ByteArrayInputStream(
+				buffer.toByteArray()));
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			check(decoder.ready(), "the edge stream ends after %d of %d edges", i, RECORD_COUNT);
+			long edge = decoder.readEdge();
+			check(edge == edges[i], "edge %d is 0x%x instead of 0x%x", i, edge, edges[i]);
+		}
+		check(!decoder.ready(), "the edge stream has extra records");
+		decoder.close();
+	}
+}
@@ -0,0 +1,112 @@
+package edu.uci.plrg.cfi.x86.graph.io.modular;
+
+import static edu.uci.plrg.cfi.x86.graph.GraphTests.check;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
+import edu.uci.plrg.cfi.x86.graph.GraphTests;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModule;
+import edu.uci.plrg.cfi.x86.graph.data.application.ApplicationModuleSet;
+import edu.uci.plrg.cfi.x86.graph.data.graph.modular.ModuleBoundaryNode;
+
+/**
+ * Writes an archive of two modules and its hash labels, then opens it and reads back every stream, both buffered and
+ * mapped, along with the labels from the compiled table.
+ */
+public class ModularTraceArchiveTest {
+
+	private static final ModularTraceStreamType STREAM_TYPES[] = { ModularTraceStreamType.GRAPH_NODE,
+			ModularTraceStreamType.GRAPH_EDGE, ModularTraceStreamType.META };
+
+	public static void main(String[] args) throws Exception {
+		GraphTests.initializeModules();
+		testWriteAndOpen();
+		System.out.println("ModularTraceArchiveTest passed");
+	}
+
+	private static void testWriteAndOpen() throws Exception {
+		File directory = GraphTests.createDirectory("archive");
+		ApplicationModuleSet modules = ApplicationModuleSet.getInstance();
+		ApplicationModule first = modules.establishModuleByFileSystemName("first.dll-1234");
+		ApplicationModule second = modules.establishModuleByFileSystemName("second.dll-5678");
+
+		File file = ModularTraceArchive.getFile(directory, "proc");
+		ModularTraceArchive archive = new ModularTraceArchive(file, "proc");
+		File spoolDirectory = archive.getHashLabelPath().toFile().getParentFile();
+		check(spoolDirectory.getParentFile().getCanonicalFile().equals(directory.getCanonicalFile()),
+				"the spool %s is not beside the archive", spoolDirectory);
+
+		Random random = new Random(17L);
+		Map<String, byte[]> streams = new HashMap<String, byte[]>();
+		for (ApplicationModule module : new ApplicationModule[] { first, second }) {
+			archive.addModule(module, null);
+			for (ModularTraceStreamType streamType : STREAM_TYPES) {
+				/* whole 8 byte words, so that the mapped stream can read them back */
+				byte data[] = new byte[8 * (1 + random.nextInt(0x1000))];
+				random.nextBytes(data);
+				OutputStream output = archive.getDataOutputStream(module, streamType);
+				output.write(data);
+				output.flush();
+				streams.put(module.id + streamType.id, data);
+			}
+		}
+
+		Map<Long, String> labels = new HashMap<Long, String>();
+		PrintWriter hashLabels = new PrintWriter(archive.getHashLabelPath().toFile());
+		for (int i = 0; i < 1000; i++) {
+			long hash = (random.nextLong() >>> 1) | 1L;
+			String label = String.format("first.dll/second.dll!fn%d", i);
+			hashLabels.printf("0x%x %s 0x%x\n", hash, label, i);
+			labels.put(hash, label);
+		}
+		hashLabels.close();
+		archive.commit();
+		check(file.exists(), "the archive %s was not written", file);
+		check(!spoolDirectory.exists(), "the spool %s was not deleted", spoolDirectory);
+
+		modules.crossModuleLabels.clear();
+		ModularTraceDataSource source = ModularTraceDirectory.loadDataSource(directory);
+		check(source instanceof ModularTraceArchive, "the directory was not opened as an archive: %s", source);
+		check(source.getReprsentedModules().size() == 2, "the archive has modules %s",
+				source.getReprsentedModules());
+		for (ApplicationModule module : new ApplicationModule[] { first, second }) {
+			for (ModularTraceStreamType streamType : STREAM_TYPES) {
+				byte expected[] = streams.get(module.id + streamType.id);
+				InputStream input = source.getDataInputStream(module, streamType);
+				byte data[] = ByteStreams.toByteArray(input);
+				input.close();
+				check(Arrays.equals(data, expected), "the %s stream of %s differs", streamType, module.name);
+
+				LittleEndianInputStream mapped = source.getMappedLittleEndianInputStream(module, streamType);
+				for (int i = 0; i < expected.length; i += 8) {
+					long word = 0L;
+					for (int j = 7; j >= 0; j--)
+						word = (word << 8) | (expected[i + j] & 0xffL);
+					check(mapped.ready(), "the mapped %s stream of %s ends at %d", streamType, module.name, i);
+					check(mapped.readLong() == word, "the mapped %s stream of %s differs at %d", streamType,
+							module.name, i);
+				}
+				check(!mapped.ready(), "the mapped %s stream of %s is too long", streamType, module.name);
+				mapped.close();
+			}
+		}
+
+		check(modules.crossModuleLabels.size() >= labels.size(), "only %d hash labels were loaded",
+				modules.crossModuleLabels.size());
+		for (Map.Entry<Long, String> label : labels.entrySet()) {
+			ModuleBoundaryNode.HashLabel loaded = modules.crossModuleLabels.get(label.getKey());
+			check((loaded != null) && loaded.label.equals(label.getValue()), "hash label 0x%x is %s instead of %s",
+					label.getKey(), loaded, label.getValue());
+		}
+	}
+}